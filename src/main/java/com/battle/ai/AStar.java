@@ -5,20 +5,25 @@ import com.battle.ai.cache.PathCache;
 
 import java.util.*;
 
-public class AStar {
+public class AStar implements PathFinder {
+    // 超过这个像素距离(10个格子)走分层寻路
+    private static final double HIERARCHICAL_DISTANCE = 320;
+    
     private final Grid grid;
+    private final PathCache pathCache;
     
     public AStar(Grid grid) {
         this.grid = grid;
+        this.pathCache = PathCache.forGrid(grid);
+    }
+    
+    @Override
+    public Grid getGrid() {
+        return grid;
     }
     
+    @Override
     public List<Node> findPath(Node start, Node end) {
-        // 先检查缓存
-        List<Node> cachedPath = PathCache.getPath(start, end);
-        if (cachedPath != null) {
-            return new ArrayList<>(cachedPath);
-        }
-        
         // 转换为网格坐标
         int startGridX = Grid.pixelToGrid(start.getX());
         int startGridY = Grid.pixelToGrid(start.getY());
@@ -29,48 +34,74 @@ public class AStar {
         if (!grid.isWalkable(startGridX, startGridY) || !grid.isWalkable(endGridX, endGridY)) {
             return null;
         }
+        // 不在同一个连通区域时不可能到达，不必搜完整个可达区域
+        if (!grid.isConnected(startGridX, startGridY, endGridX, endGridY)) {
+            return null;
+        }
         
-        // 如果距离太远，分段寻路
-        if (start.distanceTo(end) > 320) { // 10个格子以上
-            return findSegmentedPath(start, end);
+        // 端点检查通过后再查缓存(包括截取已缓存路径中的一段)
+        List<Node> cachedPath = pathCache.getPath(start, end);
+        if (cachedPath != null) {
+            return cachedPath;
         }
         
-        List<Node> path = originalFindPath(start, end);
+        long terrainVersion = grid.getTerrainVersion();
+        List<Node> path = findPathFromCachedWaypoint(start, end);
+        // 只有一次完整的A*搜索结果是最优的，可以被截取复用
+        boolean exact = false;
+        if (path == null) {
+            exact = start.distanceTo(end) <= HIERARCHICAL_DISTANCE;
+            path = search(start, end);
+        }
         if (path != null) {
-            PathCache.cachePath(start, end, path);
+            pathCache.cachePath(start, end, path, terrainVersion, exact);
         }
         return path;
     }
     
-    private List<Node> findSegmentedPath(Node start, Node end) {
-        List<Node> completePath = new ArrayList<>();
-        Node current = start;
-        Node target = end;
-        
-        while (current.distanceTo(end) > 160) { // 5个格子的距离
-            // 计算中间点
-            double ratio = 160.0 / current.distanceTo(end);
-            double midX = current.getX() + (end.getX() - current.getX()) * ratio;
-            double midY = current.getY() + (end.getY() - current.getY()) * ratio;
-            Node midPoint = new Node(midX, midY);
-            
-            // 寻找到中间点的路径
-            List<Node> segment = originalFindPath(current, midPoint);
-            if (segment == null) {
-                return null; // 如果找不到路径，返回null
-            }
-            
-            completePath.addAll(segment);
-            current = midPoint;
+    // 终点不可达(被墙或水围住)时，改为寻路到起点所在区域中离终点最近的格子
+    @Override
+    public List<Node> findPathToNearestReachable(Node start, Node end, int maxRadius) {
+        int startGridX = Grid.pixelToGrid(start.getX());
+        int startGridY = Grid.pixelToGrid(start.getY());
+        int endGridX = Grid.pixelToGrid(end.getX());
+        int endGridY = Grid.pixelToGrid(end.getY());
+        int component = grid.getComponent(startGridX, startGridY);
+        if (component < 0 || component == grid.getComponent(endGridX, endGridY)) {
+            return findPath(start, end);
         }
-        
-        // 添加最后一段路径
-        List<Node> finalSegment = originalFindPath(current, end);
-        if (finalSegment != null) {
-            completePath.addAll(finalSegment);
+        int cell = grid.findNearestInComponent(component, endGridX, endGridY, maxRadius);
+        if (cell < 0) {
+            return null;
         }
-        
-        return completePath;
+        Node nearest = new Node(Grid.gridToPixel(cell % grid.getWidth()), Grid.gridToPixel(cell / grid.getWidth()));
+        return findPath(start, nearest);
+    }
+    
+    // 终点在某条缓存路径上时，只需搜索到该路径上离起点最近的点，剩下的沿缓存路径走
+    private List<Node> findPathFromCachedWaypoint(Node start, Node end) {
+        List<Node> cachedTail = pathCache.getPathFromNearestWaypoint(start, end);
+        if (cachedTail == null) {
+            return null;
+        }
+        Node waypoint = cachedTail.get(0);
+        if (start.distanceTo(waypoint) >= start.distanceTo(end)) {
+            return null;
+        }
+        List<Node> path = search(start, waypoint);
+        if (path == null) {
+            return null;
+        }
+        path.addAll(cachedTail.subList(1, cachedTail.size()));
+        return path;
+    }
+    
+    private List<Node> search(Node start, Node end) {
+        // 如果距离太远，走分层寻路
+        if (start.distanceTo(end) > HIERARCHICAL_DISTANCE) {
+            return HierarchicalPathFinder.forGrid(grid).findPath(start, end);
+        }
+        return originalFindPath(start, end);
     }
     
     private double heuristic(Node a, Node b) {
@@ -81,10 +112,12 @@ public class AStar {
         List<Node> path = new ArrayList<>();
         path.add(current);
         
+        // 先按终点到起点的顺序追加再反转，避免 add(0, ...) 每次搬动整个列表
         while (cameFrom.containsKey(current)) {
             current = cameFrom.get(current);
-            path.add(0, current);
+            path.add(current);
         }
+        Collections.reverse(path);
         
         return path;
     }
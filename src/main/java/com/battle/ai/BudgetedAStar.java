@@ -0,0 +1,142 @@
+package com.battle.ai;
+
+import com.battle.ai.battle.terrain.Grid;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// 可以分多次执行的A*：每次step最多展开budget个格子，没搜完时保留全部状态等下次继续。
+// 同时挂起的搜索可能很多，g值/父节点/开闭标记放在按访问过的格子增长的CellTable里，
+// 而不是像GridAStar那样按整张地图分配数组。代价和启发函数与GridAStar一致
+class BudgetedAStar extends CellTable {
+    private static final byte OPEN = 1;
+    private static final byte CLOSED = 2;
+
+    private final Grid grid;
+    private final int width;
+    private final Node start;
+    private final int startCell;
+    private final int endCell;
+    private final int endX;
+    private final int endY;
+    // 搜索开始时的地形版本，之后地形变了结果就作废
+    private final long terrainVersion;
+
+    private float[] g;
+    private int[] parent;
+    private byte[] flags;
+
+    private final CellHeap open = new CellHeap();
+
+    private boolean finished;
+    private List<Node> path;
+    private int expanded;
+
+    BudgetedAStar(Grid grid, Node start, int startCell, int endCell) {
+        super(256);
+        this.grid = grid;
+        this.width = grid.getWidth();
+        this.start = start;
+        this.startCell = startCell;
+        this.endCell = endCell;
+        this.endX = endCell % width;
+        this.endY = endCell / width;
+        this.terrainVersion = grid.getTerrainVersion();
+        g = new float[capacity()];
+        parent = new int[capacity()];
+        flags = new byte[capacity()];
+        int slot = slot(startCell);
+        flags[slot] = OPEN;
+        g[slot] = 0f;
+        parent[slot] = -1;
+        open.push(startCell, GridAStar.heuristic(startCell % width, startCell / width, endX, endY));
+    }
+
+    // 最多展开budget个格子，搜索结束(找到或确定不可达)时返回true
+    boolean step(int budget) {
+        while (!finished && budget > 0) {
+            if (open.isEmpty()) {
+                finished = true;
+                break;
+            }
+            int current = open.pop();
+            int slot = slot(current);
+            if (flags[slot] == CLOSED) {
+                continue; // 堆中的过期条目
+            }
+            if (current == endCell) {
+                path = buildPath();
+                finished = true;
+                break;
+            }
+            flags[slot] = CLOSED;
+            float currentG = g[slot];
+            expanded++;
+            budget--;
+
+            int x = current % width;
+            int y = current / width;
+            for (int dir = 0; dir < 8; dir++) {
+                int nx = x + GridAStar.DX[dir];
+                int ny = y + GridAStar.DY[dir];
+                if (!grid.isWalkable(nx, ny)) {
+                    continue;
+                }
+                int neighbor = ny * width + nx;
+                int neighborSlot = slot(neighbor);
+                if (flags[neighborSlot] == CLOSED) {
+                    continue;
+                }
+                float tentativeG = currentG + (dir < 4 ? 1f : GridAStar.SQRT2);
+                if (flags[neighborSlot] != OPEN || tentativeG < g[neighborSlot]) {
+                    flags[neighborSlot] = OPEN;
+                    g[neighborSlot] = tentativeG;
+                    parent[neighborSlot] = current;
+                    open.push(neighbor, tentativeG + GridAStar.heuristic(nx, ny, endX, endY));
+                }
+            }
+        }
+        return finished;
+    }
+
+    boolean isFinished() {
+        return finished;
+    }
+
+    // 第一个元素为起点；不可达或未完成时返回null
+    List<Node> getPath() {
+        return path;
+    }
+
+    int getExpanded() {
+        return expanded;
+    }
+
+    long getTerrainVersion() {
+        return terrainVersion;
+    }
+
+    private List<Node> buildPath() {
+        List<Node> result = new ArrayList<>();
+        for (int cell = endCell; cell != startCell; cell = parent[slot(cell)]) {
+            result.add(new Node(Grid.gridToPixel(cell % width), Grid.gridToPixel(cell / width)));
+        }
+        result.add(start);
+        Collections.reverse(result);
+        return result;
+    }
+
+    // 新槽位没有标记，g和父节点在第一次入堆时写入
+    @Override
+    protected void initSlot(int slot) {
+        flags[slot] = 0;
+    }
+
+    @Override
+    protected void resize(int capacity, int[] moved) {
+        g = move(g, moved, capacity);
+        parent = move(parent, moved, capacity);
+        flags = move(flags, moved, capacity);
+    }
+}
@@ -0,0 +1,91 @@
+package com.battle.ai;
+
+import java.util.Arrays;
+
+// 以格子下标为元素的二叉最小堆，按(key1, key2)字典序排列，只用一个键时key2为0。
+// 允许同一格子重复入堆，过期条目由调用方在出堆时跳过(懒删除)。不是线程安全的
+final class CellHeap {
+    private int[] cells = new int[64];
+    private float[] keys1 = new float[64];
+    private float[] keys2 = new float[64];
+    private int size;
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    // 堆顶，堆为空时不能调用
+    int peek() {
+        return cells[0];
+    }
+
+    float peekKey1() {
+        return keys1[0];
+    }
+
+    float peekKey2() {
+        return keys2[0];
+    }
+
+    void push(int cell, float key) {
+        push(cell, key, 0f);
+    }
+
+    void push(int cell, float key1, float key2) {
+        if (size == cells.length) {
+            cells = Arrays.copyOf(cells, size * 2);
+            keys1 = Arrays.copyOf(keys1, size * 2);
+            keys2 = Arrays.copyOf(keys2, size * 2);
+        }
+        int i = size++;
+        while (i > 0) {
+            int p = (i - 1) >>> 1;
+            if (!less(key1, key2, keys1[p], keys2[p])) {
+                break;
+            }
+            cells[i] = cells[p];
+            keys1[i] = keys1[p];
+            keys2[i] = keys2[p];
+            i = p;
+        }
+        cells[i] = cell;
+        keys1[i] = key1;
+        keys2[i] = key2;
+    }
+
+    // 移除并返回堆顶的格子
+    int pop() {
+        int result = cells[0];
+        int lastCell = cells[--size];
+        float lastKey1 = keys1[size];
+        float lastKey2 = keys2[size];
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = (i << 1) + 1;
+            int right = child + 1;
+            if (right < size && less(keys1[right], keys2[right], keys1[child], keys2[child])) {
+                child = right;
+            }
+            if (!less(keys1[child], keys2[child], lastKey1, lastKey2)) {
+                break;
+            }
+            cells[i] = cells[child];
+            keys1[i] = keys1[child];
+            keys2[i] = keys2[child];
+            i = child;
+        }
+        cells[i] = lastCell;
+        keys1[i] = lastKey1;
+        keys2[i] = lastKey2;
+        return result;
+    }
+
+    private static boolean less(float a1, float a2, float b1, float b2) {
+        return a1 < b1 || (a1 == b1 && a2 < b2);
+    }
+}
@@ -0,0 +1,140 @@
+package com.battle.ai;
+
+import java.util.Arrays;
+
+// 格子下标 -> 槽位的开放寻址散列表，容量随访问过的格子数翻倍增长。
+// 每个格子的数据放在子类按槽位下标排列的基本类型数组里: 新插入的槽位由initSlot初始化，
+// 扩容时由resize把旧数组搬到新的槽位。给同时存在很多、每个只访问一小片地图的搜索用，不是线程安全的
+abstract class CellTable {
+    static final int EMPTY = -1;
+
+    private int[] keys;
+    private int mask;
+    private int size;
+
+    // capacity必须是2的幂
+    CellTable(int capacity) {
+        keys = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+    }
+
+    // 新插入的槽位
+    protected abstract void initSlot(int slot);
+
+    // 容量变为capacity，旧槽位i的数据搬到moved[i]，moved[i]为EMPTY表示旧槽位是空的
+    protected abstract void resize(int capacity, int[] moved);
+
+    // 访问过的格子数
+    final int size() {
+        return size;
+    }
+
+    final int capacity() {
+        return keys.length;
+    }
+
+    // 槽位里的格子，空槽位为EMPTY
+    final int cellAt(int slot) {
+        return keys[slot];
+    }
+
+    // cell所在的槽位，不存在时返回-1
+    final int find(int cell) {
+        int i = hash(cell) & mask;
+        while (keys[i] != EMPTY) {
+            if (keys[i] == cell) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    // cell所在的槽位，不存在时插入。插入可能触发扩容，之前取得的槽位随之失效
+    final int slot(int cell) {
+        int i = hash(cell) & mask;
+        while (keys[i] != EMPTY) {
+            if (keys[i] == cell) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        if (size * 2 >= keys.length) {
+            grow();
+            return slot(cell);
+        }
+        keys[i] = cell;
+        size++;
+        initSlot(i);
+        return i;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int capacity = oldKeys.length * 2;
+        keys = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+        int[] moved = new int[oldKeys.length];
+        for (int i = 0; i < oldKeys.length; i++) {
+            int cell = oldKeys[i];
+            if (cell == EMPTY) {
+                moved[i] = EMPTY;
+                continue;
+            }
+            int j = hash(cell) & mask;
+            while (keys[j] != EMPTY) {
+                j = (j + 1) & mask;
+            }
+            keys[j] = cell;
+            moved[i] = j;
+        }
+        resize(capacity, moved);
+    }
+
+    private static int hash(int cell) {
+        int h = cell * 0x9E3779B1;
+        return h ^ (h >>> 16);
+    }
+
+    static float[] move(float[] values, int[] moved, int capacity) {
+        float[] result = new float[capacity];
+        for (int i = 0; i < moved.length; i++) {
+            if (moved[i] != EMPTY) {
+                result[moved[i]] = values[i];
+            }
+        }
+        return result;
+    }
+
+    static int[] move(int[] values, int[] moved, int capacity) {
+        int[] result = new int[capacity];
+        for (int i = 0; i < moved.length; i++) {
+            if (moved[i] != EMPTY) {
+                result[moved[i]] = values[i];
+            }
+        }
+        return result;
+    }
+
+    static byte[] move(byte[] values, int[] moved, int capacity) {
+        byte[] result = new byte[capacity];
+        for (int i = 0; i < moved.length; i++) {
+            if (moved[i] != EMPTY) {
+                result[moved[i]] = values[i];
+            }
+        }
+        return result;
+    }
+
+    static boolean[] move(boolean[] values, int[] moved, int capacity) {
+        boolean[] result = new boolean[capacity];
+        for (int i = 0; i < moved.length; i++) {
+            if (moved[i] != EMPTY) {
+                result[moved[i]] = values[i];
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,90 @@
+package com.battle.ai;
+
+import java.util.Arrays;
+
+// 流场：从目标格子出发做一次Dijkstra得到积分场，
+// 每个格子只记录朝目标走的下一步方向，所有走向同一目标的单位共用
+public class FlowField {
+    private static final byte NONE = -1;
+
+    private final FlowFieldService owner;
+    // 计算时的可通行性版本，之后地形变了就不能再用
+    private final long version;
+
+    private final int goalX;
+    private final int goalY;
+    private final int width;
+    private final int height;
+    private final float[] costs;
+    private final byte[] directions;
+
+    FlowField(FlowFieldService owner, long version, int goalX, int goalY, int width, int height,
+              GridAStar.SearchState state) {
+        this.owner = owner;
+        this.version = version;
+        this.goalX = goalX;
+        this.goalY = goalY;
+        this.width = width;
+        this.height = height;
+        this.costs = new float[width * height];
+        this.directions = new byte[width * height];
+        Arrays.fill(directions, NONE);
+
+        for (int cell = 0; cell < costs.length; cell++) {
+            if (!state.isClosed(cell)) {
+                costs[cell] = Float.POSITIVE_INFINITY;
+                continue;
+            }
+            costs[cell] = state.g[cell];
+            int parent = state.parent[cell];
+            if (parent >= 0) {
+                directions[cell] = directionOf(parent % width - cell % width, parent / width - cell / width);
+            }
+        }
+    }
+
+    private static byte directionOf(int dx, int dy) {
+        for (byte dir = 0; dir < 8; dir++) {
+            if (GridAStar.DX[dir] == dx && GridAStar.DY[dir] == dy) {
+                return dir;
+            }
+        }
+        return NONE;
+    }
+
+    // 返回下一步要走的格子索引(y*width+x)；已在目标格子或不可达时返回-1
+    public int nextCell(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            return -1;
+        }
+        byte dir = directions[y * width + x];
+        if (dir == NONE) {
+            return -1;
+        }
+        return (y + GridAStar.DY[dir]) * width + x + GridAStar.DX[dir];
+    }
+
+    public boolean isReachable(int x, int y) {
+        return x >= 0 && x < width && y >= 0 && y < height && costs[y * width + x] != Float.POSITIVE_INFINITY;
+    }
+
+    public float getCost(int x, int y) {
+        return isReachable(x, y) ? costs[y * width + x] : Float.POSITIVE_INFINITY;
+    }
+
+    public int cellX(int cell) {
+        return cell % width;
+    }
+
+    public int cellY(int cell) {
+        return cell / width;
+    }
+
+    // 计算之后可通行性变过，方向可能穿过新的障碍
+    public boolean isStale() {
+        return !owner.isCurrent(version);
+    }
+
+    public int getGoalX() { return goalX; }
+    public int getGoalY() { return goalY; }
+}
@@ -0,0 +1,136 @@
+package com.battle.ai;
+
+import com.battle.ai.battle.terrain.Grid;
+import com.battle.ai.battle.terrain.TerrainListener;
+import com.battle.ai.battle.terrain.TerrainType;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 按目标格子缓存流场，N个单位走向同一目标只需要一次搜索。
+// 流场覆盖整张地图，只适合固定的、被很多单位共享的目标(据点、不动的建筑)，追击移动的单位应当用寻路。
+// 每个目标一个FutureTask，第一个请求的线程在锁外计算，其余线程等它的结果；
+// 缓存按最近使用淘汰，数量受内存预算限制。可通行性变化后旧流场全部作废，单位持有的流场也会在移动时发现并丢弃
+@Slf4j
+public class FlowFieldService implements TerrainListener {
+    private static final int MAX_FIELDS = 64;
+    public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+    // 每个格子一个float代价和一个byte方向
+    private static final int BYTES_PER_CELL = 5;
+
+    private final Grid grid;
+    private final GridAStar search;
+    private final int maxFields;
+    // 按访问顺序排列，所有访问都在它自己的锁内
+    private final LinkedHashMap<Integer, FutureTask<FlowField>> fields;
+    // 可通行性每变化一次加一，流场记录计算时的版本
+    private final AtomicLong version = new AtomicLong();
+
+    public FlowFieldService(Grid grid) {
+        this(grid, DEFAULT_MEMORY_BUDGET);
+    }
+
+    public FlowFieldService(Grid grid, long memoryBudget) {
+        this.grid = grid;
+        this.search = new GridAStar(grid);
+        long fieldBytes = (long) grid.getCellCount() * BYTES_PER_CELL;
+        this.maxFields = (int) Math.max(1, Math.min(MAX_FIELDS, memoryBudget / fieldBytes));
+        this.fields = new LinkedHashMap<Integer, FutureTask<FlowField>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, FutureTask<FlowField>> eldest) {
+                return size() > maxFields;
+            }
+        };
+        grid.addListener(this);
+    }
+
+    public static FlowFieldService forGrid(Grid grid) {
+        return grid.getAttachment(FlowFieldService.class, FlowFieldService::new);
+    }
+
+    // 目标格子不可通行时返回null
+    public FlowField getField(int goalX, int goalY) {
+        if (!grid.isWalkable(goalX, goalY)) {
+            return null;
+        }
+        int goalCell = goalY * grid.getWidth() + goalX;
+        FutureTask<FlowField> task;
+        boolean owner = false;
+        synchronized (fields) {
+            task = fields.get(goalCell);
+            if (task == null || isStale(task)) {
+                long fieldVersion = version.get();
+                task = new FutureTask<>(() -> compute(goalX, goalY, goalCell, fieldVersion));
+                fields.put(goalCell, task);
+                owner = true;
+            }
+        }
+        if (owner) {
+            task.run();
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            log.warn("[流场] 计算失败: ({}, {})", goalX, goalY, e.getCause());
+            synchronized (fields) {
+                fields.remove(goalCell, task);
+            }
+            return null;
+        }
+    }
+
+    public FlowField getField(Node goal) {
+        return getField(Grid.pixelToGrid(goal.getX()), Grid.pixelToGrid(goal.getY()));
+    }
+
+    private FlowField compute(int goalX, int goalY, int goalCell, long fieldVersion) {
+        int width = grid.getWidth();
+        GridAStar.SearchState state = search.acquireState();
+        search.search(state, goalCell, -1, 0, 0, width - 1, grid.getHeight() - 1);
+        return new FlowField(this, fieldVersion, goalX, goalY, width, grid.getHeight(), state);
+    }
+
+    // 已经算完且计算之后可通行性又变过
+    private boolean isStale(FutureTask<FlowField> task) {
+        if (!task.isDone()) {
+            return false;
+        }
+        try {
+            return task.get().isStale();
+        } catch (InterruptedException | ExecutionException e) {
+            return true;
+        }
+    }
+
+    boolean isCurrent(long fieldVersion) {
+        return version.get() == fieldVersion;
+    }
+
+    @Override
+    public void onTerrainChanged(int x, int y, TerrainType oldType, TerrainType newType) {
+        if (oldType.isWalkable() != newType.isWalkable()) {
+            version.incrementAndGet();
+            synchronized (fields) {
+                fields.clear();
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (fields) {
+            return fields.size();
+        }
+    }
+
+    // 内存预算允许同时缓存的流场数
+    public int getMaxFields() {
+        return maxFields;
+    }
+}
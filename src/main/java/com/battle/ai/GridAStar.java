@@ -0,0 +1,196 @@
+package com.battle.ai;
+
+import com.battle.ai.battle.terrain.Grid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// 基于原始数组的A*实现：格子用 y*width+x 的int索引表示，
+// g值/父节点/关闭标记存放在可复用的数组里，用代数(generation)标记代替清空，
+// 只在最终路径上创建Node对象
+public class GridAStar implements PathFinder {
+    static final float SQRT2 = 1.4142135f;
+    // 8个方向，前4个为直线方向
+    static final int[] DX = {1, -1, 0, 0, 1, 1, -1, -1};
+    static final int[] DY = {0, 0, 1, -1, 1, -1, 1, -1};
+
+    private final Grid grid;
+    private final ThreadLocal<SearchState> searchState = ThreadLocal.withInitial(SearchState::new);
+
+    public GridAStar(Grid grid) {
+        this.grid = grid;
+    }
+
+    @Override
+    public Grid getGrid() {
+        return grid;
+    }
+
+    @Override
+    public List<Node> findPath(Node start, Node end) {
+        int startX = Grid.pixelToGrid(start.getX());
+        int startY = Grid.pixelToGrid(start.getY());
+        int endX = Grid.pixelToGrid(end.getX());
+        int endY = Grid.pixelToGrid(end.getY());
+
+        if (!grid.isWalkable(startX, startY) || !grid.isWalkable(endX, endY)) {
+            return null;
+        }
+
+        int width = grid.getWidth();
+        int startCell = startY * width + startX;
+        int endCell = endY * width + endX;
+        SearchState state = acquireState();
+        if (!search(state, startCell, endCell, 0, 0, width - 1, grid.getHeight() - 1)) {
+            return null;
+        }
+        return buildPath(state, start, startCell, endCell);
+    }
+
+    SearchState acquireState() {
+        SearchState state = searchState.get();
+        state.prepare(grid.getWidth() * grid.getHeight());
+        return state;
+    }
+
+    // 在[minX,maxX]x[minY,maxY]范围内搜索；endCell<0时退化为Dijkstra，遍历范围内所有可达格子
+    boolean search(SearchState state, int startCell, int endCell, int minX, int minY, int maxX, int maxY) {
+        int width = grid.getWidth();
+        boolean dijkstra = endCell < 0;
+        int endX = dijkstra ? 0 : endCell % width;
+        int endY = dijkstra ? 0 : endCell / width;
+
+        state.open(startCell, 0f, -1);
+        state.push(startCell, dijkstra ? 0f : heuristic(startCell % width, startCell / width, endX, endY));
+
+        while (state.hasOpen()) {
+            int current = state.pop();
+            if (state.isClosed(current)) {
+                continue; // 堆中的过期条目
+            }
+            if (current == endCell) {
+                return true;
+            }
+            state.close(current);
+
+            int x = current % width;
+            int y = current / width;
+            float currentG = state.g[current];
+
+            for (int dir = 0; dir < 8; dir++) {
+                int nx = x + DX[dir];
+                int ny = y + DY[dir];
+                if (nx < minX || nx > maxX || ny < minY || ny > maxY || !grid.isWalkable(nx, ny)) {
+                    continue;
+                }
+                int neighbor = ny * width + nx;
+                if (state.isClosed(neighbor)) {
+                    continue;
+                }
+
+                float tentativeG = currentG + (dir < 4 ? 1f : SQRT2);
+                if (!state.isOpen(neighbor) || tentativeG < state.g[neighbor]) {
+                    state.open(neighbor, tentativeG, current);
+                    state.push(neighbor, dijkstra ? tentativeG : tentativeG + heuristic(nx, ny, endX, endY));
+                }
+            }
+        }
+        return dijkstra;
+    }
+
+    private List<Node> buildPath(SearchState state, Node start, int startCell, int endCell) {
+        int width = grid.getWidth();
+        int length = 1;
+        for (int cell = endCell; cell != startCell; cell = state.parent[cell]) {
+            length++;
+        }
+
+        // 按从终点到起点的顺序倒序填充，避免 add(0, ...)
+        Node[] nodes = new Node[length];
+        nodes[0] = start;
+        int index = length - 1;
+        for (int cell = endCell; cell != startCell; cell = state.parent[cell]) {
+            nodes[index--] = new Node(Grid.gridToPixel(cell % width), Grid.gridToPixel(cell / width));
+        }
+        return new ArrayList<>(Arrays.asList(nodes));
+    }
+
+    // 把 startCell(不含) 到 endCell(含) 的格子追加到 path
+    void appendPath(SearchState state, int startCell, int endCell, List<Node> path) {
+        int width = grid.getWidth();
+        int from = path.size();
+        for (int cell = endCell; cell != startCell; cell = state.parent[cell]) {
+            path.add(new Node(Grid.gridToPixel(cell % width), Grid.gridToPixel(cell / width)));
+        }
+        Collections.reverse(path.subList(from, path.size()));
+    }
+
+    // 八方向距离，与直线1/斜线√2的代价一致
+    static float heuristic(int x, int y, int endX, int endY) {
+        int dx = Math.abs(x - endX);
+        int dy = Math.abs(y - endY);
+        return (dx + dy) + (SQRT2 - 2f) * Math.min(dx, dy);
+    }
+
+    // 每个线程复用的搜索状态
+    static class SearchState {
+        float[] g = new float[0];
+        int[] parent = new int[0];
+        int[] openStamp = new int[0];
+        int[] closedStamp = new int[0];
+        int generation;
+
+        // 允许重复条目(懒删除)
+        final CellHeap heap = new CellHeap();
+
+        void prepare(int cellCount) {
+            if (g.length < cellCount) {
+                g = new float[cellCount];
+                parent = new int[cellCount];
+                openStamp = new int[cellCount];
+                closedStamp = new int[cellCount];
+                generation = 0;
+            }
+            generation++;
+            if (generation == Integer.MAX_VALUE) {
+                // 代数溢出时才真正清空
+                Arrays.fill(openStamp, 0);
+                Arrays.fill(closedStamp, 0);
+                generation = 1;
+            }
+            heap.clear();
+        }
+
+        boolean isOpen(int cell) {
+            return openStamp[cell] == generation;
+        }
+
+        boolean isClosed(int cell) {
+            return closedStamp[cell] == generation;
+        }
+
+        void open(int cell, float gScore, int parentCell) {
+            openStamp[cell] = generation;
+            g[cell] = gScore;
+            parent[cell] = parentCell;
+        }
+
+        void close(int cell) {
+            closedStamp[cell] = generation;
+        }
+
+        void push(int cell, float key) {
+            heap.push(cell, key);
+        }
+
+        int pop() {
+            return heap.pop();
+        }
+
+        boolean hasOpen() {
+            return !heap.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,487 @@
+package com.battle.ai;
+
+import com.battle.ai.battle.terrain.Grid;
+import com.battle.ai.battle.terrain.TerrainListener;
+import com.battle.ai.battle.terrain.TerrainType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+// 分层寻路(HPA*)：把地图划分成 CLUSTER_SIZE x CLUSTER_SIZE 的簇，
+// 在簇边界的连通段上放置入口，预先计算簇内入口之间的距离组成抽象图。
+// 查询时只在抽象图上搜索，再在各个簇内部细化成逐格路径。
+// setTerrain 只会让所在的簇失效，下次查询前重建该簇的边界和相邻簇的抽象边。
+// 起点和终点不连通时直接返回null，抽象图覆盖了所有能穿过簇边界的位置(包括斜穿簇的角点)，不需要退回整图搜索。
+public class HierarchicalPathFinder implements PathFinder, TerrainListener {
+    private static final int CLUSTER_SIZE = 10;
+    private static final int LONG_ENTRANCE = 6; // 超过该长度的入口在两端各放一个节点
+
+    private final Grid grid;
+    private final GridAStar localSearch;
+    private final int clustersX;
+    private final int clustersY;
+
+    // verticalBorders[cy*clustersX+cx] 为簇(cx,cy)与右侧簇之间的入口，
+    // horizontalBorders 为与下方簇之间的入口；每个入口占两个元素 [左/上侧格子, 右/下侧格子]
+    private final int[][] verticalBorders;
+    private final int[][] horizontalBorders;
+    // 簇的右下角、左下角与斜对角簇之间的入口，只能斜着穿过角点；格式同上，每个数组至多一个入口
+    private final int[][] downRightCorners;
+    private final int[][] downLeftCorners;
+    private final ClusterGraph[] clusters;
+    private final Set<Integer> dirtyClusters = new LinkedHashSet<>();
+    private volatile boolean dirty = true;
+
+    public HierarchicalPathFinder(Grid grid) {
+        this.grid = grid;
+        this.localSearch = new GridAStar(grid);
+        this.clustersX = (grid.getWidth() + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+        this.clustersY = (grid.getHeight() + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+        this.verticalBorders = new int[clustersX * clustersY][];
+        this.horizontalBorders = new int[clustersX * clustersY][];
+        this.downRightCorners = new int[clustersX * clustersY][];
+        this.downLeftCorners = new int[clustersX * clustersY][];
+        this.clusters = new ClusterGraph[clustersX * clustersY];
+        for (int i = 0; i < clusters.length; i++) {
+            dirtyClusters.add(i);
+        }
+        grid.addListener(this);
+    }
+
+    // 每张地图共享一份抽象图
+    public static HierarchicalPathFinder forGrid(Grid grid) {
+        return grid.getAttachment(HierarchicalPathFinder.class, HierarchicalPathFinder::new);
+    }
+
+    @Override
+    public Grid getGrid() {
+        return grid;
+    }
+
+    @Override
+    public List<Node> findPath(Node start, Node end) {
+        int startX = Grid.pixelToGrid(start.getX());
+        int startY = Grid.pixelToGrid(start.getY());
+        int endX = Grid.pixelToGrid(end.getX());
+        int endY = Grid.pixelToGrid(end.getY());
+
+        if (!grid.isWalkable(startX, startY) || !grid.isWalkable(endX, endY)) {
+            return null;
+        }
+        // 不在同一个连通区域时不可能到达，不必建抽象图和搜索
+        if (!grid.isConnected(startX, startY, endX, endY)) {
+            return null;
+        }
+        refresh();
+
+        int width = grid.getWidth();
+        int startCell = startY * width + startX;
+        int endCell = endY * width + endX;
+        List<Node> path = new ArrayList<>();
+        path.add(start);
+
+        // 同一个簇内优先直接在簇内搜索
+        int startCluster = clusterOf(startCell);
+        int endCluster = clusterOf(endCell);
+        if (startCluster == endCluster && refineSegment(startCell, endCell, startCluster, path)) {
+            return path;
+        }
+
+        Map<Integer, Float> startCosts = connect(startCell, startCluster);
+        Map<Integer, Float> endCosts = connect(endCell, endCluster);
+        List<Integer> abstractPath = searchAbstract(startCell, endCell, startCosts, endCosts);
+        if (abstractPath == null) {
+            return null;
+        }
+
+        for (int i = 1; i < abstractPath.size(); i++) {
+            int from = abstractPath.get(i - 1);
+            int to = abstractPath.get(i);
+            int fromCluster = clusterOf(from);
+            if (fromCluster != clusterOf(to)) {
+                // 跨簇的入口边都是相邻格子
+                path.add(new Node(Grid.gridToPixel(to % width), Grid.gridToPixel(to / width)));
+            } else if (!refineSegment(from, to, fromCluster, path)) {
+                // 抽象边的两端在簇内一定连通，只有搜索期间地形又变了才会走到这里
+                return null;
+            }
+        }
+        return path;
+    }
+
+    @Override
+    public void onTerrainChanged(int x, int y, TerrainType oldType, TerrainType newType) {
+        if (oldType.isWalkable() == newType.isWalkable()) {
+            return;
+        }
+        synchronized (this) {
+            dirtyClusters.add((y / CLUSTER_SIZE) * clustersX + x / CLUSTER_SIZE);
+            dirty = true;
+        }
+    }
+
+    private void refresh() {
+        if (!dirty) {
+            return;
+        }
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            // 重建脏簇的四条边界，再重算边界两侧簇的抽象边
+            Set<Integer> affected = new LinkedHashSet<>();
+            for (int cluster : dirtyClusters) {
+                int cx = cluster % clustersX;
+                int cy = cluster / clustersX;
+                affected.add(cluster);
+                buildVerticalBorder(cx, cy);
+                buildHorizontalBorder(cx, cy);
+                buildCorners(cx, cy);
+                if (cx > 0) {
+                    buildVerticalBorder(cx - 1, cy);
+                    affected.add(cluster - 1);
+                }
+                if (cy > 0) {
+                    buildHorizontalBorder(cx, cy - 1);
+                    affected.add(cluster - clustersX);
+                }
+                if (cx + 1 < clustersX) {
+                    affected.add(cluster + 1);
+                }
+                if (cy + 1 < clustersY) {
+                    affected.add(cluster + clustersX);
+                }
+                // 斜对角的四个簇: 上方两个的角点入口指向这个簇，四个簇的入口都可能变化
+                for (int dy = -1; dy <= 1; dy += 2) {
+                    for (int dx = -1; dx <= 1; dx += 2) {
+                        int nx = cx + dx;
+                        int ny = cy + dy;
+                        if (nx < 0 || ny < 0 || nx >= clustersX || ny >= clustersY) {
+                            continue;
+                        }
+                        if (dy < 0) {
+                            buildCorners(nx, ny);
+                        }
+                        affected.add(ny * clustersX + nx);
+                    }
+                }
+            }
+            for (int cluster : affected) {
+                clusters[cluster] = buildClusterGraph(cluster);
+            }
+            dirtyClusters.clear();
+            dirty = false;
+        }
+    }
+
+    private void buildVerticalBorder(int cx, int cy) {
+        int index = cy * clustersX + cx;
+        if (cx + 1 >= clustersX) {
+            verticalBorders[index] = new int[0];
+            return;
+        }
+        int x = (cx + 1) * CLUSTER_SIZE - 1;
+        int minY = cy * CLUSTER_SIZE;
+        int maxY = Math.min(minY + CLUSTER_SIZE, grid.getHeight()) - 1;
+        verticalBorders[index] = buildBorder(x, minY, maxY, true);
+    }
+
+    private void buildHorizontalBorder(int cx, int cy) {
+        int index = cy * clustersX + cx;
+        if (cy + 1 >= clustersY) {
+            horizontalBorders[index] = new int[0];
+            return;
+        }
+        int y = (cy + 1) * CLUSTER_SIZE - 1;
+        int minX = cx * CLUSTER_SIZE;
+        int maxX = Math.min(minX + CLUSTER_SIZE, grid.getWidth()) - 1;
+        horizontalBorders[index] = buildBorder(y, minX, maxX, false);
+    }
+
+    // 右下角格子和右下方簇的左上角格子、左下角格子和左下方簇的右上角格子，两个都可通行时是一个入口
+    private void buildCorners(int cx, int cy) {
+        int index = cy * clustersX + cx;
+        downRightCorners[index] = new int[0];
+        downLeftCorners[index] = new int[0];
+        if (cy + 1 >= clustersY) {
+            return;
+        }
+        int width = grid.getWidth();
+        int y = (cy + 1) * CLUSTER_SIZE - 1;
+        if (cx + 1 < clustersX) {
+            int x = (cx + 1) * CLUSTER_SIZE - 1;
+            if (grid.isWalkable(x, y) && grid.isWalkable(x + 1, y + 1)) {
+                downRightCorners[index] = new int[]{y * width + x, (y + 1) * width + x + 1};
+            }
+        }
+        if (cx > 0) {
+            int x = cx * CLUSTER_SIZE;
+            if (grid.isWalkable(x, y) && grid.isWalkable(x - 1, y + 1)) {
+                downLeftCorners[index] = new int[]{y * width + x, (y + 1) * width + x - 1};
+            }
+        }
+    }
+
+    // line 为边界这一侧的行/列坐标，[from,to] 为沿边界的范围
+    private int[] buildBorder(int line, int from, int to, boolean vertical) {
+        List<Integer> entrances = new ArrayList<>();
+        int runStart = -1;
+        for (int i = from; i <= to + 1; i++) {
+            boolean open = i <= to && crossable(line, i, 0, vertical);
+            if (open && runStart < 0) {
+                runStart = i;
+            } else if (!open && runStart >= 0) {
+                int runEnd = i - 1;
+                if (runEnd - runStart + 1 >= LONG_ENTRANCE) {
+                    addEntrance(entrances, line, runStart, 0, vertical);
+                    addEntrance(entrances, line, runEnd, 0, vertical);
+                } else {
+                    addEntrance(entrances, line, (runStart + runEnd) / 2, 0, vertical);
+                }
+                runStart = -1;
+            }
+        }
+        // 直线穿不过去、只能斜着穿过边界的位置
+        for (int i = from; i <= to; i++) {
+            for (int offset = -1; offset <= 1; offset += 2) {
+                int j = i + offset;
+                if (j < from || j > to || crossable(line, i, 0, vertical) || crossable(line, j, 0, vertical)) {
+                    continue;
+                }
+                if (crossable(line, i, offset, vertical)) {
+                    addEntrance(entrances, line, i, offset, vertical);
+                }
+            }
+        }
+        int[] result = new int[entrances.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = entrances.get(i);
+        }
+        return result;
+    }
+
+    private boolean crossable(int line, int i, int offset, boolean vertical) {
+        return vertical
+                ? grid.isWalkable(line, i) && grid.isWalkable(line + 1, i + offset)
+                : grid.isWalkable(i, line) && grid.isWalkable(i + offset, line + 1);
+    }
+
+    private void addEntrance(List<Integer> entrances, int line, int i, int offset, boolean vertical) {
+        int width = grid.getWidth();
+        if (vertical) {
+            entrances.add(i * width + line);
+            entrances.add((i + offset) * width + line + 1);
+        } else {
+            entrances.add(line * width + i);
+            entrances.add((line + 1) * width + i + offset);
+        }
+    }
+
+    private ClusterGraph buildClusterGraph(int cluster) {
+        int cx = cluster % clustersX;
+        int cy = cluster / clustersX;
+
+        // 收集簇内的入口格子和它们跨边界的对侧格子
+        Map<Integer, List<Integer>> partners = new HashMap<>();
+        collectPartners(verticalBorders[cluster], 0, partners);
+        collectPartners(horizontalBorders[cluster], 0, partners);
+        if (cx > 0) {
+            collectPartners(verticalBorders[cluster - 1], 1, partners);
+        }
+        if (cy > 0) {
+            collectPartners(horizontalBorders[cluster - clustersX], 1, partners);
+        }
+        collectPartners(downRightCorners[cluster], 0, partners);
+        collectPartners(downLeftCorners[cluster], 0, partners);
+        if (cx > 0 && cy > 0) {
+            collectPartners(downRightCorners[cluster - clustersX - 1], 1, partners);
+        }
+        if (cx + 1 < clustersX && cy > 0) {
+            collectPartners(downLeftCorners[cluster - clustersX + 1], 1, partners);
+        }
+
+        ClusterGraph graph = new ClusterGraph(partners.size());
+        int n = 0;
+        for (Map.Entry<Integer, List<Integer>> entry : partners.entrySet()) {
+            graph.cells[n] = entry.getKey();
+            graph.partners[n] = entry.getValue().stream().mapToInt(Integer::intValue).toArray();
+            n++;
+        }
+
+        // 簇内两两入口之间的距离
+        int[] bounds = clusterBounds(cluster);
+        for (int i = 0; i < n; i++) {
+            GridAStar.SearchState state = localSearch.acquireState();
+            localSearch.search(state, graph.cells[i], -1, bounds[0], bounds[1], bounds[2], bounds[3]);
+            for (int j = 0; j < n; j++) {
+                int target = graph.cells[j];
+                graph.distances[i * n + j] = state.isClosed(target) ? state.g[target] : Float.POSITIVE_INFINITY;
+            }
+        }
+        return graph;
+    }
+
+    private void collectPartners(int[] border, int side, Map<Integer, List<Integer>> partners) {
+        for (int i = 0; i + 1 < border.length; i += 2) {
+            int cell = border[i + side];
+            int partner = border[i + 1 - side];
+            partners.computeIfAbsent(cell, k -> new ArrayList<>()).add(partner);
+        }
+    }
+
+    // 从格子出发在所在簇内做Dijkstra，返回到各个入口的距离
+    private Map<Integer, Float> connect(int cell, int cluster) {
+        Map<Integer, Float> costs = new HashMap<>();
+        int[] bounds = clusterBounds(cluster);
+        GridAStar.SearchState state = localSearch.acquireState();
+        localSearch.search(state, cell, -1, bounds[0], bounds[1], bounds[2], bounds[3]);
+        for (int entrance : clusters[cluster].cells) {
+            if (state.isClosed(entrance)) {
+                costs.put(entrance, state.g[entrance]);
+            }
+        }
+        return costs;
+    }
+
+    private List<Integer> searchAbstract(int startCell, int endCell,
+                                         Map<Integer, Float> startCosts, Map<Integer, Float> endCosts) {
+        int width = grid.getWidth();
+        int endX = endCell % width;
+        int endY = endCell / width;
+        Map<Integer, Float> gScore = new HashMap<>();
+        Map<Integer, Integer> cameFrom = new HashMap<>();
+        Set<Integer> closed = new HashSet<>();
+        PriorityQueue<AbstractNode> openSet = new PriorityQueue<>();
+
+        gScore.put(startCell, 0f);
+        openSet.add(new AbstractNode(startCell, 0f));
+
+        while (!openSet.isEmpty()) {
+            int current = openSet.poll().cell;
+            if (current == endCell) {
+                List<Integer> result = new ArrayList<>();
+                for (Integer cell = endCell; cell != null; cell = cameFrom.get(cell)) {
+                    result.add(cell);
+                }
+                Collections.reverse(result);
+                return result;
+            }
+            if (!closed.add(current)) {
+                continue;
+            }
+            float currentG = gScore.get(current);
+
+            ClusterGraph graph = clusters[clusterOf(current)];
+            int index = graph.indexOf(current);
+            if (current == startCell) {
+                for (Map.Entry<Integer, Float> entry : startCosts.entrySet()) {
+                    relax(entry.getKey(), current, currentG + entry.getValue(), endX, endY, gScore, cameFrom, openSet);
+                }
+            } else if (index >= 0) {
+                int n = graph.cells.length;
+                for (int j = 0; j < n; j++) {
+                    float distance = graph.distances[index * n + j];
+                    if (j != index && distance != Float.POSITIVE_INFINITY) {
+                        relax(graph.cells[j], current, currentG + distance, endX, endY, gScore, cameFrom, openSet);
+                    }
+                }
+            }
+            if (index >= 0) {
+                for (int partner : graph.partners[index]) {
+                    int dx = Math.abs(partner % width - current % width);
+                    int dy = Math.abs(partner / width - current / width);
+                    float cost = dx != 0 && dy != 0 ? GridAStar.SQRT2 : 1f;
+                    relax(partner, current, currentG + cost, endX, endY, gScore, cameFrom, openSet);
+                }
+            }
+            Float toEnd = endCosts.get(current);
+            if (toEnd != null) {
+                relax(endCell, current, currentG + toEnd, endX, endY, gScore, cameFrom, openSet);
+            }
+        }
+        return null;
+    }
+
+    private void relax(int cell, int from, float g, int endX, int endY, Map<Integer, Float> gScore,
+                       Map<Integer, Integer> cameFrom, PriorityQueue<AbstractNode> openSet) {
+        Float old = gScore.get(cell);
+        if (old == null || g < old) {
+            gScore.put(cell, g);
+            cameFrom.put(cell, from);
+            int width = grid.getWidth();
+            openSet.add(new AbstractNode(cell, g + GridAStar.heuristic(cell % width, cell / width, endX, endY)));
+        }
+    }
+
+    // 在簇内把两点之间细化成逐格路径
+    private boolean refineSegment(int from, int to, int cluster, List<Node> path) {
+        if (from == to) {
+            return true;
+        }
+        int[] bounds = clusterBounds(cluster);
+        GridAStar.SearchState state = localSearch.acquireState();
+        if (!localSearch.search(state, from, to, bounds[0], bounds[1], bounds[2], bounds[3])) {
+            return false;
+        }
+        localSearch.appendPath(state, from, to, path);
+        return true;
+    }
+
+    private int clusterOf(int cell) {
+        int width = grid.getWidth();
+        return (cell / width / CLUSTER_SIZE) * clustersX + (cell % width) / CLUSTER_SIZE;
+    }
+
+    private int[] clusterBounds(int cluster) {
+        int minX = (cluster % clustersX) * CLUSTER_SIZE;
+        int minY = (cluster / clustersX) * CLUSTER_SIZE;
+        return new int[]{
+                minX, minY,
+                Math.min(minX + CLUSTER_SIZE, grid.getWidth()) - 1,
+                Math.min(minY + CLUSTER_SIZE, grid.getHeight()) - 1
+        };
+    }
+
+    private static class ClusterGraph {
+        final int[] cells;
+        final int[][] partners;
+        final float[] distances;
+
+        ClusterGraph(int size) {
+            this.cells = new int[size];
+            this.partners = new int[size][];
+            this.distances = new float[size * size];
+        }
+
+        int indexOf(int cell) {
+            for (int i = 0; i < cells.length; i++) {
+                if (cells[i] == cell) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static class AbstractNode implements Comparable<AbstractNode> {
+        final int cell;
+        final float fScore;
+
+        AbstractNode(int cell, float fScore) {
+            this.cell = cell;
+            this.fScore = fScore;
+        }
+
+        @Override
+        public int compareTo(AbstractNode other) {
+            return Float.compare(this.fScore, other.fScore);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.battle.ai;
+
+import com.battle.ai.battle.Unit;
+import com.battle.ai.battle.terrain.Grid;
+import com.battle.ai.battle.terrain.TerrainListener;
+import com.battle.ai.battle.terrain.TerrainType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 追击移动目标用的增量规划器。每个单位保留一份以规划起点为根的LPA*搜索状态，
+// 目标换了格子或地形变化时在原有状态上修复路径，而不是重新做一次完整的A*。
+// 单位沿路径前进时根不变，只要单位还能直线接上修复后的路径，就返回从它当前位置开始的那一段；
+// 接不上、离根太远或者状态太大时，以单位当前位置为根重新规划。
+// 死亡单位的状态每隔一段时间清理一次，不再追击的单位应调用forget；不用了要close，从地图上注销。
+// 不同单位可以在不同线程上同时规划，同一个单位同一时间只能在一个线程上。
+public class IncrementalPlanner implements TerrainListener, AutoCloseable {
+    // 单位离根超过这么多格时重新规划，避免路径前缀越来越长
+    private static final int REROOT_DISTANCE = 24;
+    private static final int MAX_STATE_CELLS = 1 << 16;
+    private static final int MAX_CHANGE_LOG = 1024;
+    // 目标被地形隔开时，在其周围这么多格内找一个能到达的格子
+    private static final int NEAREST_REACHABLE_RADIUS = 8;
+    // 每规划这么多次清理一次死亡单位的状态
+    private static final int PRUNE_INTERVAL = 256;
+
+    private final Grid grid;
+    private final Map<Unit, LpaStar> states = new ConcurrentHashMap<>();
+    // 可通行性变化过的格子，按顺序编号；日志满了就清空，落后太多的状态直接重建
+    private final Object changeLock = new Object();
+    private int[] changedCells = new int[64];
+    private int changeCount;
+    private long changeBase;
+    private final AtomicInteger plansSincePrune = new AtomicInteger();
+    private final ThreadLocal<int[]> lastExpansions = ThreadLocal.withInitial(() -> new int[1]);
+
+    public IncrementalPlanner(Grid grid) {
+        this.grid = grid;
+        grid.addListener(this);
+    }
+
+    // 返回从单位当前位置到goal的逐格路径，第一个元素为单位当前位置；不可达时返回null
+    public List<Node> plan(Unit unit, Node goal) {
+        if (plansSincePrune.incrementAndGet() % PRUNE_INTERVAL == 0) {
+            forgetDeadUnits();
+        }
+        int width = grid.getWidth();
+        int unitX = Grid.pixelToGrid(unit.getX());
+        int unitY = Grid.pixelToGrid(unit.getY());
+        int component = grid.getComponent(unitX, unitY);
+        if (component < 0) {
+            return null;
+        }
+        int goalX = Grid.pixelToGrid(goal.getX());
+        int goalY = Grid.pixelToGrid(goal.getY());
+        int goalCell = goalY * width + goalX;
+        if (grid.getComponent(goalX, goalY) != component) {
+            goalCell = grid.findNearestInComponent(component, goalX, goalY, NEAREST_REACHABLE_RADIUS);
+            if (goalCell < 0) {
+                return null;
+            }
+        }
+        int unitCell = unitY * width + unitX;
+
+        LpaStar state = states.get(unit);
+        int expanded = 0;
+        if (state != null && canRepair(state, unitX, unitY)) {
+            state.setGoal(goalCell);
+            expanded += state.computeShortestPath();
+            int[] cells = state.extractPath();
+            int at = attachIndex(cells, unit);
+            if (at >= 0) {
+                lastExpansions.get()[0] = expanded;
+                // 单位不在这个格子里时先走到它
+                return toNodes(unit, cells, cells[at] == unitCell ? at : at - 1);
+            }
+        }
+
+        // 没有可修复的状态，或者单位已经不在新路径上
+        state = newState(unitCell, goalCell);
+        states.put(unit, state);
+        expanded += state.computeShortestPath();
+        lastExpansions.get()[0] = expanded;
+        int[] cells = state.extractPath();
+        return cells == null ? null : toNodes(unit, cells, 0);
+    }
+
+    // 单位的路径是否针对goal所在的格子规划，并且之后地形没有变化
+    public boolean isCurrent(Unit unit, Node goal) {
+        LpaStar state = states.get(unit);
+        if (state == null) {
+            return false;
+        }
+        int goalCell = Grid.pixelToGrid(goal.getY()) * grid.getWidth() + Grid.pixelToGrid(goal.getX());
+        if (state.getGoal() != goalCell) {
+            return false;
+        }
+        synchronized (changeLock) {
+            return state.appliedChanges == changeBase + changeCount;
+        }
+    }
+
+    public void forget(Unit unit) {
+        states.remove(unit);
+    }
+
+    // 丢掉已经死亡的单位的状态，返回丢掉的个数
+    public int forgetDeadUnits() {
+        int before = states.size();
+        states.keySet().removeIf(unit -> !unit.isAlive());
+        return before - states.size();
+    }
+
+    // 当前线程上一次plan展开的格子数
+    public int getLastExpansions() {
+        return lastExpansions.get()[0];
+    }
+
+    public int size() {
+        return states.size();
+    }
+
+    public Grid getGrid() {
+        return grid;
+    }
+
+    private LpaStar newState(int root, int goal) {
+        LpaStar state = new LpaStar(grid, root, goal);
+        synchronized (changeLock) {
+            state.appliedChanges = changeBase + changeCount;
+        }
+        return state;
+    }
+
+    // 把之后的地形变化应用到状态上；状态不能再用时返回false
+    private boolean canRepair(LpaStar state, int unitX, int unitY) {
+        int root = state.getRoot();
+        int rootX = root % grid.getWidth();
+        int rootY = root / grid.getWidth();
+        if (Math.max(Math.abs(unitX - rootX), Math.abs(unitY - rootY)) > REROOT_DISTANCE
+                || state.size() > MAX_STATE_CELLS || !grid.isWalkable(rootX, rootY)) {
+            return false;
+        }
+        int[] changes;
+        synchronized (changeLock) {
+            if (state.appliedChanges < changeBase) {
+                return false;
+            }
+            changes = Arrays.copyOfRange(changedCells, (int) (state.appliedChanges - changeBase), changeCount);
+            state.appliedChanges = changeBase + changeCount;
+        }
+        for (int cell : changes) {
+            state.cellChanged(cell);
+        }
+        return true;
+    }
+
+    // 单位沿拉直后的路径走，通常不在格子路径上: 接到离它最近、并且能直线走过去的格子，接不上时返回-1
+    private int attachIndex(int[] cells, Unit unit) {
+        if (cells == null) {
+            return -1;
+        }
+        int width = grid.getWidth();
+        int nearest = -1;
+        double nearestDistance = Double.MAX_VALUE;
+        for (int i = 0; i < cells.length; i++) {
+            double dx = Grid.gridToPixel(cells[i] % width) - unit.getX();
+            double dy = Grid.gridToPixel(cells[i] / width) - unit.getY();
+            double distance = dx * dx + dy * dy;
+            if (distance < nearestDistance) {
+                nearestDistance = distance;
+                nearest = i;
+            }
+        }
+        int cell = cells[nearest];
+        boolean reachable = grid.hasLineOfSight(unit.getX(), unit.getY(),
+                Grid.gridToPixel(cell % width), Grid.gridToPixel(cell / width));
+        return reachable ? nearest : -1;
+    }
+
+    private List<Node> toNodes(Unit unit, int[] cells, int from) {
+        int width = grid.getWidth();
+        List<Node> path = new ArrayList<>(cells.length - from);
+        path.add(unit.getPosition());
+        for (int i = from + 1; i < cells.length; i++) {
+            path.add(new Node(Grid.gridToPixel(cells[i] % width), Grid.gridToPixel(cells[i] / width)));
+        }
+        return path;
+    }
+
+    // 从地图上注销并丢掉全部状态
+    @Override
+    public void close() {
+        grid.removeListener(this);
+        states.clear();
+    }
+
+    @Override
+    public void onTerrainChanged(int x, int y, TerrainType oldType, TerrainType newType) {
+        if (oldType.isWalkable() == newType.isWalkable()) {
+            return;
+        }
+        synchronized (changeLock) {
+            if (changeCount == MAX_CHANGE_LOG) {
+                changeBase += changeCount;
+                changeCount = 0;
+            }
+            if (changeCount == changedCells.length) {
+                changedCells = Arrays.copyOf(changedCells, changeCount * 2);
+            }
+            changedCells[changeCount++] = y * grid.getWidth() + x;
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package com.battle.ai;
+
+import com.battle.ai.battle.terrain.Grid;
+import com.battle.ai.battle.terrain.TerrainListener;
+import com.battle.ai.battle.terrain.TerrainType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// 跳点搜索(JPS)：适用于八方向、统一代价的网格，开放列表里只保留跳点。
+// 移动规则与 Grid.getNeighbors 一致(允许斜向穿过墙角)，代价与 GridAStar 一致。
+// precompute=true 时为 JPS+：预先计算四个直线方向的跳跃距离，
+// setTerrain 只会让受影响的行/列失效，下次搜索前按需重算。
+public class JumpPointSearch implements PathFinder {
+    private static final int EAST = 0;
+    private static final int WEST = 1;
+    private static final int SOUTH = 2;
+    private static final int NORTH = 3;
+
+    private final Grid grid;
+    private final JumpTable jumpTable;
+    private final ThreadLocal<GridAStar.SearchState> searchState =
+            ThreadLocal.withInitial(GridAStar.SearchState::new);
+
+    public JumpPointSearch(Grid grid) {
+        this(grid, false);
+    }
+
+    public JumpPointSearch(Grid grid, boolean precompute) {
+        this.grid = grid;
+        if (precompute) {
+            // 每张地图共享一份跳跃表，只注册一个监听器，新建多少个实例都不会泄漏
+            this.jumpTable = grid.getAttachment(JumpTable.class, JumpTable::forGrid);
+        } else {
+            this.jumpTable = null;
+        }
+    }
+
+    @Override
+    public Grid getGrid() {
+        return grid;
+    }
+
+    @Override
+    public List<Node> findPath(Node start, Node end) {
+        int startX = Grid.pixelToGrid(start.getX());
+        int startY = Grid.pixelToGrid(start.getY());
+        int endX = Grid.pixelToGrid(end.getX());
+        int endY = Grid.pixelToGrid(end.getY());
+
+        if (!grid.isWalkable(startX, startY) || !grid.isWalkable(endX, endY)) {
+            return null;
+        }
+        if (jumpTable != null) {
+            jumpTable.refresh(grid);
+        }
+
+        int width = grid.getWidth();
+        GridAStar.SearchState state = searchState.get();
+        state.prepare(width * grid.getHeight());
+
+        int startCell = startY * width + startX;
+        int endCell = endY * width + endX;
+        if (!search(state, startCell, endCell)) {
+            return null;
+        }
+        return buildPath(state, start, startCell, endCell);
+    }
+
+    private boolean search(GridAStar.SearchState state, int startCell, int endCell) {
+        int width = grid.getWidth();
+        int endX = endCell % width;
+        int endY = endCell / width;
+
+        state.open(startCell, 0f, -1);
+        state.push(startCell, GridAStar.heuristic(startCell % width, startCell / width, endX, endY));
+
+        while (state.hasOpen()) {
+            int current = state.pop();
+            if (state.isClosed(current)) {
+                continue;
+            }
+            if (current == endCell) {
+                return true;
+            }
+            state.close(current);
+
+            int x = current % width;
+            int y = current / width;
+            int parent = state.parent[current];
+
+            for (int dir = 0; dir < 8; dir++) {
+                int dx = GridAStar.DX[dir];
+                int dy = GridAStar.DY[dir];
+                if (parent >= 0 && !isNaturalOrForced(x, y, parent % width, parent / width, dx, dy)) {
+                    continue;
+                }
+
+                int jumpPoint = jump(x + dx, y + dy, dx, dy, endX, endY);
+                if (jumpPoint < 0 || state.isClosed(jumpPoint)) {
+                    continue;
+                }
+
+                int jx = jumpPoint % width;
+                int jy = jumpPoint / width;
+                float tentativeG = state.g[current] + GridAStar.heuristic(x, y, jx, jy);
+                if (!state.isOpen(jumpPoint) || tentativeG < state.g[jumpPoint]) {
+                    state.open(jumpPoint, tentativeG, current);
+                    state.push(jumpPoint, tentativeG + GridAStar.heuristic(jx, jy, endX, endY));
+                }
+            }
+        }
+        return false;
+    }
+
+    // 邻居剪枝：只保留沿父方向的自然邻居和被障碍物逼出的强制邻居
+    private boolean isNaturalOrForced(int x, int y, int parentX, int parentY, int dx, int dy) {
+        int px = Integer.signum(x - parentX);
+        int py = Integer.signum(y - parentY);
+
+        if (px != 0 && py != 0) {
+            if ((dx == px && dy == py) || (dx == px && dy == 0) || (dx == 0 && dy == py)) {
+                return true;
+            }
+            return (dx == -px && dy == py && !grid.isWalkable(x - px, y))
+                    || (dx == px && dy == -py && !grid.isWalkable(x, y - py));
+        }
+        if (px != 0) {
+            if (dx == px && dy == 0) {
+                return true;
+            }
+            return dx == px && dy != 0 && !grid.isWalkable(x, y + dy);
+        }
+        if (dx == 0 && dy == py) {
+            return true;
+        }
+        return dy == py && dx != 0 && !grid.isWalkable(x + dx, y);
+    }
+
+    private int jump(int x, int y, int dx, int dy, int endX, int endY) {
+        if (dx != 0 && dy != 0) {
+            return jumpDiagonal(x, y, dx, dy, endX, endY);
+        }
+        return jumpStraight(x, y, dx, dy, endX, endY);
+    }
+
+    private int jumpDiagonal(int x, int y, int dx, int dy, int endX, int endY) {
+        while (grid.isWalkable(x, y)) {
+            if (x == endX && y == endY) {
+                return cellOf(x, y);
+            }
+            if ((grid.isWalkable(x - dx, y + dy) && !grid.isWalkable(x - dx, y))
+                    || (grid.isWalkable(x + dx, y - dy) && !grid.isWalkable(x, y - dy))) {
+                return cellOf(x, y);
+            }
+            if (jumpStraight(x + dx, y, dx, 0, endX, endY) >= 0
+                    || jumpStraight(x, y + dy, 0, dy, endX, endY) >= 0) {
+                return cellOf(x, y);
+            }
+            x += dx;
+            y += dy;
+        }
+        return -1;
+    }
+
+    private int jumpStraight(int x, int y, int dx, int dy, int endX, int endY) {
+        if (jumpTable != null) {
+            return jumpStraightPrecomputed(x, y, dx, dy, endX, endY);
+        }
+        while (grid.isWalkable(x, y)) {
+            if ((x == endX && y == endY) || isStraightJumpPoint(grid, x, y, dx, dy)) {
+                return cellOf(x, y);
+            }
+            x += dx;
+            y += dy;
+        }
+        return -1;
+    }
+
+    private int jumpStraightPrecomputed(int x, int y, int dx, int dy, int endX, int endY) {
+        if (!grid.isWalkable(x, y)) {
+            return -1;
+        }
+        int direction = dx > 0 ? EAST : dx < 0 ? WEST : dy > 0 ? SOUTH : NORTH;
+        int distance = jumpTable.distances[direction][cellOf(x, y)];
+        // distance>=0 表示该方向第distance格是跳点，否则 -(distance+1) 格后撞墙
+        int reach = distance >= 0 ? distance : -distance - 1;
+
+        int goalOffset = dx != 0 ? (endX - x) * dx : (endY - y) * dy;
+        boolean goalOnLine = dx != 0 ? endY == y : endX == x;
+        if (goalOnLine && goalOffset >= 0 && goalOffset <= reach) {
+            return cellOf(endX, endY);
+        }
+        return distance >= 0 ? cellOf(x + dx * distance, y + dy * distance) : -1;
+    }
+
+    static boolean isStraightJumpPoint(Grid grid, int x, int y, int dx, int dy) {
+        if (dx != 0) {
+            return (grid.isWalkable(x + dx, y + 1) && !grid.isWalkable(x, y + 1))
+                    || (grid.isWalkable(x + dx, y - 1) && !grid.isWalkable(x, y - 1));
+        }
+        return (grid.isWalkable(x + 1, y + dy) && !grid.isWalkable(x + 1, y))
+                || (grid.isWalkable(x - 1, y + dy) && !grid.isWalkable(x - 1, y));
+    }
+
+    private int cellOf(int x, int y) {
+        return y * grid.getWidth() + x;
+    }
+
+    // 跳点之间一定在同一条直线或对角线上，逐格展开
+    private List<Node> buildPath(GridAStar.SearchState state, Node start, int startCell, int endCell) {
+        int width = grid.getWidth();
+        int length = 1;
+        for (int cell = endCell; cell != startCell; cell = state.parent[cell]) {
+            int parent = state.parent[cell];
+            length += Math.max(Math.abs(cell % width - parent % width), Math.abs(cell / width - parent / width));
+        }
+
+        Node[] nodes = new Node[length];
+        nodes[0] = start;
+        int index = length - 1;
+        for (int cell = endCell; cell != startCell; cell = state.parent[cell]) {
+            int parent = state.parent[cell];
+            int x = cell % width;
+            int y = cell / width;
+            int dx = Integer.signum(parent % width - x);
+            int dy = Integer.signum(parent / width - y);
+            while (x != parent % width || y != parent / width) {
+                nodes[index--] = new Node(Grid.gridToPixel(x), Grid.gridToPixel(y));
+                x += dx;
+                y += dy;
+            }
+        }
+        return new ArrayList<>(Arrays.asList(nodes));
+    }
+
+    // JPS+ 的直线跳跃距离表，按行(东西)和列(南北)惰性重算
+    private static class JumpTable implements TerrainListener {
+        final int[][] distances;
+        private final boolean[] dirtyRows;
+        private final boolean[] dirtyColumns;
+        private volatile boolean dirty = true;
+
+        JumpTable(int width, int height) {
+            this.distances = new int[4][width * height];
+            this.dirtyRows = new boolean[height];
+            this.dirtyColumns = new boolean[width];
+            Arrays.fill(dirtyRows, true);
+            Arrays.fill(dirtyColumns, true);
+        }
+
+        static JumpTable forGrid(Grid grid) {
+            JumpTable table = new JumpTable(grid.getWidth(), grid.getHeight());
+            grid.addListener(table);
+            return table;
+        }
+
+        @Override
+        public synchronized void onTerrainChanged(int x, int y, TerrainType oldType, TerrainType newType) {
+            if (oldType.isWalkable() == newType.isWalkable()) {
+                return;
+            }
+            // 强制邻居的判断会看相邻的行/列
+            for (int i = -1; i <= 1; i++) {
+                if (y + i >= 0 && y + i < dirtyRows.length) {
+                    dirtyRows[y + i] = true;
+                }
+                if (x + i >= 0 && x + i < dirtyColumns.length) {
+                    dirtyColumns[x + i] = true;
+                }
+            }
+            dirty = true;
+        }
+
+        void refresh(Grid grid) {
+            if (!dirty) {
+                return;
+            }
+            synchronized (this) {
+                if (!dirty) {
+                    return;
+                }
+                for (int y = 0; y < dirtyRows.length; y++) {
+                    if (dirtyRows[y]) {
+                        computeRow(grid, y);
+                        dirtyRows[y] = false;
+                    }
+                }
+                for (int x = 0; x < dirtyColumns.length; x++) {
+                    if (dirtyColumns[x]) {
+                        computeColumn(grid, x);
+                        dirtyColumns[x] = false;
+                    }
+                }
+                dirty = false;
+            }
+        }
+
+        private void computeRow(Grid grid, int y) {
+            int width = dirtyColumns.length;
+            int rowStart = y * width;
+            for (int x = width - 1; x >= 0; x--) {
+                distances[EAST][rowStart + x] = compute(grid, x, y, 1, 0,
+                        x + 1 < width ? distances[EAST][rowStart + x + 1] : 0);
+            }
+            for (int x = 0; x < width; x++) {
+                distances[WEST][rowStart + x] = compute(grid, x, y, -1, 0,
+                        x > 0 ? distances[WEST][rowStart + x - 1] : 0);
+            }
+        }
+
+        private void computeColumn(Grid grid, int x) {
+            int width = dirtyColumns.length;
+            int height = dirtyRows.length;
+            for (int y = height - 1; y >= 0; y--) {
+                distances[SOUTH][y * width + x] = compute(grid, x, y, 0, 1,
+                        y + 1 < height ? distances[SOUTH][(y + 1) * width + x] : 0);
+            }
+            for (int y = 0; y < height; y++) {
+                distances[NORTH][y * width + x] = compute(grid, x, y, 0, -1,
+                        y > 0 ? distances[NORTH][(y - 1) * width + x] : 0);
+            }
+        }
+
+        // next 为沿方向下一格已算好的值
+        private int compute(Grid grid, int x, int y, int dx, int dy, int next) {
+            if (!grid.isWalkable(x, y)) {
+                return -1;
+            }
+            if (isStraightJumpPoint(grid, x, y, dx, dy)) {
+                return 0;
+            }
+            if (!grid.isWalkable(x + dx, y + dy)) {
+                return -1;
+            }
+            return next >= 0 ? next + 1 : next - 1;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.battle.ai;
+
+import com.battle.ai.battle.terrain.Grid;
+
+import java.util.Arrays;
+
+// 以root为起点的LPA*(Lifelong Planning A*)。g/rhs是从root出发的距离，与终点无关，
+// 所以终点换了只需按新的启发值重排开放列表，地形变了只需更新受影响的格子，之前的搜索结果大部分可以复用。
+// 代价与GridAStar一致；状态放在按访问过的格子增长的CellTable里。不是线程安全的
+class LpaStar extends CellTable {
+    private static final float INF = Float.POSITIVE_INFINITY;
+    // 路径回溯时代价相差不超过这个值视为相同，优先沿用上一条路径上的格子
+    private static final float TIE_EPSILON = 1e-3f;
+
+    private final Grid grid;
+    private final int width;
+    private final int root;
+    private int goal;
+    // 已经应用到这个状态的地形变化编号，由IncrementalPlanner维护
+    long appliedChanges;
+
+    private float[] g;
+    private float[] rhs;
+    private float[] key1;
+    private float[] key2;
+    private boolean[] queued;
+    // 上一次extractPath经过的格子，值等于pathStamp时有效
+    private int[] onPath;
+    private int pathStamp;
+
+    // 懒删除，条目的键与槽位里记录的键不同时视为过期
+    private final CellHeap open = new CellHeap();
+
+    LpaStar(Grid grid, int root, int goal) {
+        super(256);
+        this.grid = grid;
+        this.width = grid.getWidth();
+        this.root = root;
+        this.goal = goal;
+        allocate(capacity());
+        int slot = slot(root);
+        rhs[slot] = 0f;
+        enqueue(root, slot);
+    }
+
+    int getRoot() {
+        return root;
+    }
+
+    int getGoal() {
+        return goal;
+    }
+
+    // 终点改变: g/rhs保持不变，按新的启发值重建开放列表
+    void setGoal(int newGoal) {
+        if (newGoal == goal) {
+            return;
+        }
+        goal = newGoal;
+        open.clear();
+        for (int i = 0; i < capacity(); i++) {
+            if (cellAt(i) != EMPTY && queued[i]) {
+                enqueue(cellAt(i), i);
+            }
+        }
+    }
+
+    // 格子的可通行性改变: 它和相邻格子的rhs需要重新计算
+    void cellChanged(int cell) {
+        updateVertex(cell);
+        int x = cell % width;
+        int y = cell / width;
+        for (int dir = 0; dir < 8; dir++) {
+            int nx = x + GridAStar.DX[dir];
+            int ny = y + GridAStar.DY[dir];
+            if (grid.isWalkable(nx, ny)) {
+                updateVertex(ny * width + nx);
+            }
+        }
+    }
+
+    // 把终点变成局部一致，返回这次展开的格子数
+    int computeShortestPath() {
+        int expanded = 0;
+        while (true) {
+            int top = peek();
+            if (top < 0) {
+                break;
+            }
+            int goalSlot = find(goal);
+            float goalG = goalSlot < 0 ? INF : g[goalSlot];
+            float goalRhs = goalSlot < 0 ? INF : rhs[goalSlot];
+            float goalMin = Math.min(goalG, goalRhs);
+            float topKey1 = open.peekKey1();
+            boolean beforeGoal = topKey1 < goalMin + heuristic(goal)
+                    || (topKey1 == goalMin + heuristic(goal) && open.peekKey2() < goalMin);
+            if (!beforeGoal && goalG == goalRhs) {
+                break;
+            }
+            open.pop();
+            int slot = slot(top);
+            queued[slot] = false;
+            expanded++;
+            if (g[slot] > rhs[slot]) {
+                g[slot] = rhs[slot];
+            } else {
+                g[slot] = INF;
+                updateVertex(top);
+            }
+            int x = top % width;
+            int y = top / width;
+            for (int dir = 0; dir < 8; dir++) {
+                int nx = x + GridAStar.DX[dir];
+                int ny = y + GridAStar.DY[dir];
+                if (grid.isWalkable(nx, ny)) {
+                    updateVertex(ny * width + nx);
+                }
+            }
+        }
+        return expanded;
+    }
+
+    // 从root到goal的格子序列，不可达时返回null。代价相同时优先沿用上一条路径，
+    // 这样终点小幅移动后新路径和旧路径共用前缀，正在沿旧路径走的单位仍在新路径上
+    int[] extractPath() {
+        int goalSlot = find(goal);
+        if (goalSlot < 0 || g[goalSlot] == INF) {
+            return null;
+        }
+        int previousStamp = pathStamp;
+        int[] cells = new int[16];
+        int length = 0;
+        int current = goal;
+        while (true) {
+            if (length == cells.length) {
+                cells = Arrays.copyOf(cells, length * 2);
+            }
+            cells[length++] = current;
+            if (current == root || length > size()) {
+                break;
+            }
+            int x = current % width;
+            int y = current / width;
+            int best = -1;
+            float bestCost = INF;
+            boolean bestOnPath = false;
+            for (int dir = 0; dir < 8; dir++) {
+                int nx = x + GridAStar.DX[dir];
+                int ny = y + GridAStar.DY[dir];
+                if (!grid.isWalkable(nx, ny)) {
+                    continue;
+                }
+                int neighbor = ny * width + nx;
+                int neighborSlot = find(neighbor);
+                if (neighborSlot < 0 || g[neighborSlot] == INF) {
+                    continue;
+                }
+                float cost = g[neighborSlot] + (dir < 4 ? 1f : GridAStar.SQRT2);
+                boolean neighborOnPath = previousStamp != 0 && onPath[neighborSlot] == previousStamp;
+                if (cost < bestCost - TIE_EPSILON
+                        || (cost <= bestCost + TIE_EPSILON && neighborOnPath && !bestOnPath)) {
+                    best = neighbor;
+                    bestCost = cost;
+                    bestOnPath = neighborOnPath;
+                }
+            }
+            if (best < 0) {
+                return null;
+            }
+            current = best;
+        }
+        if (current != root) {
+            return null;
+        }
+        pathStamp++;
+        for (int i = 0; i < length; i++) {
+            onPath[find(cells[i])] = pathStamp;
+        }
+        // 回溯得到的是从终点到root的顺序
+        int[] path = new int[length];
+        for (int i = 0; i < length; i++) {
+            path[i] = cells[length - 1 - i];
+        }
+        return path;
+    }
+
+    private void updateVertex(int cell) {
+        int slot = slot(cell);
+        if (cell != root) {
+            float best = INF;
+            int x = cell % width;
+            int y = cell / width;
+            if (grid.isWalkable(x, y)) {
+                for (int dir = 0; dir < 8; dir++) {
+                    int nx = x + GridAStar.DX[dir];
+                    int ny = y + GridAStar.DY[dir];
+                    if (!grid.isWalkable(nx, ny)) {
+                        continue;
+                    }
+                    int neighborSlot = find(ny * width + nx);
+                    if (neighborSlot >= 0) {
+                        best = Math.min(best, g[neighborSlot] + (dir < 4 ? 1f : GridAStar.SQRT2));
+                    }
+                }
+            }
+            // find不会插入，slot仍然有效
+            rhs[slot] = best;
+        }
+        if (g[slot] != rhs[slot]) {
+            enqueue(cell, slot);
+        } else {
+            queued[slot] = false;
+        }
+    }
+
+    private void enqueue(int cell, int slot) {
+        float min = Math.min(g[slot], rhs[slot]);
+        key1[slot] = min + heuristic(cell);
+        key2[slot] = min;
+        queued[slot] = true;
+        open.push(cell, key1[slot], key2[slot]);
+    }
+
+    private float heuristic(int cell) {
+        return GridAStar.heuristic(cell % width, cell / width, goal % width, goal / width);
+    }
+
+    // 丢掉堆顶的过期条目，返回有效的堆顶格子，堆空时返回-1
+    private int peek() {
+        while (!open.isEmpty()) {
+            int cell = open.peek();
+            int slot = find(cell);
+            if (slot >= 0 && queued[slot] && key1[slot] == open.peekKey1() && key2[slot] == open.peekKey2()) {
+                return cell;
+            }
+            open.pop();
+        }
+        return -1;
+    }
+
+    @Override
+    protected void initSlot(int slot) {
+        g[slot] = INF;
+        rhs[slot] = INF;
+    }
+
+    private void allocate(int capacity) {
+        g = new float[capacity];
+        rhs = new float[capacity];
+        key1 = new float[capacity];
+        key2 = new float[capacity];
+        queued = new boolean[capacity];
+        onPath = new int[capacity];
+    }
+
+    @Override
+    protected void resize(int capacity, int[] moved) {
+        g = move(g, moved, capacity);
+        rhs = move(rhs, moved, capacity);
+        key1 = move(key1, moved, capacity);
+        key2 = move(key2, moved, capacity);
+        queued = move(queued, moved, capacity);
+        onPath = move(onPath, moved, capacity);
+    }
+}
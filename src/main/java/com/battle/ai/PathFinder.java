@@ -0,0 +1,20 @@
+package com.battle.ai;
+
+import com.battle.ai.battle.terrain.Grid;
+
+import java.util.List;
+
+public interface PathFinder {
+    // 返回的路径第一个元素为起点，其余为格子像素坐标；不可达时返回null
+    List<Node> findPath(Node start, Node end);
+    
+    // 终点不可达时改为走到起点所在区域中离终点最近(maxRadius格内)的格子，默认不做改写
+    default List<Node> findPathToNearestReachable(Node start, Node end, int maxRadius) {
+        return findPath(start, end);
+    }
+    
+    // 寻路所在的地图，用于拉直路径；不绑定地图的实现返回null
+    default Grid getGrid() {
+        return null;
+    }
+}
@@ -0,0 +1,27 @@
+package com.battle.ai;
+
+import com.battle.ai.battle.terrain.Grid;
+
+public enum PathFinderType {
+    ASTAR,          // 原始A*，带路径缓存
+    GRID_ASTAR,     // 原始数组实现的A*
+    JPS,            // 跳点搜索
+    JPS_PLUS,       // 预计算跳跃距离的跳点搜索
+    HIERARCHICAL;   // 分层寻路(HPA*)，每张地图共享一份抽象图
+
+    public PathFinder create(Grid grid) {
+        switch (this) {
+            case GRID_ASTAR:
+                return new GridAStar(grid);
+            case JPS:
+                return new JumpPointSearch(grid);
+            case JPS_PLUS:
+                return new JumpPointSearch(grid, true);
+            case HIERARCHICAL:
+                return HierarchicalPathFinder.forGrid(grid);
+            case ASTAR:
+            default:
+                return new AStar(grid);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.battle.ai;
+
+import com.battle.ai.battle.Unit;
+import com.battle.ai.battle.terrain.Grid;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 异步寻路请求队列。AI只提交请求，起点格子和终点格子都相同的请求合并成一次搜索；
+// 搜索在专门的工作线程上分tick执行，每一轮所有进行中的搜索一共最多展开expansionsPerTick个格子，
+// 没搜完的留到下一轮继续，很长或者搜不到的请求不会卡住AI线程和tick。
+// deliver在tick开始时调用(BattleSystem会自动调用)，把上一轮搜完的路径拉直后交给Unit.setWaypoints并启动下一轮，
+// 路径到达之前单位自己直线靠近目标。
+// request可以在多个AI线程上同时调用。
+@Slf4j
+public class PathRequestService implements AutoCloseable {
+    public static final int DEFAULT_EXPANSIONS_PER_TICK = 4096;
+    // 每个搜索每轮至少展开这么多格子，进行中的搜索太多时轮流执行
+    private static final int MIN_EXPANSIONS_PER_SEARCH = 128;
+    // 目标被地形隔开时，在其周围这么多格内找一个能到达的格子
+    private static final int NEAREST_REACHABLE_RADIUS = 8;
+    // 单位在等的请求的终点格子和新终点相差不超过这么多格时，继续等原来的请求
+    private static final int GOAL_TOLERANCE = 2;
+
+    private final Grid grid;
+    private final ExecutorService workers;
+    private final int expansionsPerTick;
+    // 以下只在持有this锁时访问
+    private final Map<Long, Request> requests = new HashMap<>();
+    private final Map<Unit, Request> pending = new HashMap<>();
+    private final ArrayDeque<Request> queue = new ArrayDeque<>();
+    // 工作线程交回的结果: 搜完的和本轮预算用完还没搜完的
+    private final Queue<Request> finished = new ConcurrentLinkedQueue<>();
+    private final Queue<Request> unfinished = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger running = new AtomicInteger();
+
+    public PathRequestService(Grid grid) {
+        this(grid, 1, DEFAULT_EXPANSIONS_PER_TICK);
+    }
+
+    public PathRequestService(Grid grid, int workerCount, int expansionsPerTick) {
+        if (expansionsPerTick <= 0) {
+            throw new IllegalArgumentException("expansionsPerTick must be positive");
+        }
+        this.grid = grid;
+        this.expansionsPerTick = expansionsPerTick;
+        AtomicInteger threadId = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "path-worker-" + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // 为unit请求一条到goal的路径。起点不可通行或目标附近没有能到达的格子时返回false，调用方应直接移动；
+    // 单位已经在等一条路径时，只要终点没有明显移动就继续等它(起点格子变了也不重新请求，交付时从单位当前位置接上)，
+    // 否则改为等新的路径
+    public synchronized boolean request(Unit unit, Node goal) {
+        int width = grid.getWidth();
+        Request current = pending.get(unit);
+        if (current != null && isNear(current.goalCell(), Grid.pixelToGrid(goal.getX()), Grid.pixelToGrid(goal.getY()))) {
+            return true;
+        }
+        int startX = Grid.pixelToGrid(unit.getX());
+        int startY = Grid.pixelToGrid(unit.getY());
+        int goalX = Grid.pixelToGrid(goal.getX());
+        int goalY = Grid.pixelToGrid(goal.getY());
+        int component = grid.getComponent(startX, startY);
+        if (component < 0) {
+            return false;
+        }
+        int goalCell = goalY * width + goalX;
+        if (grid.getComponent(goalX, goalY) != component) {
+            goalCell = grid.findNearestInComponent(component, goalX, goalY, NEAREST_REACHABLE_RADIUS);
+            if (goalCell < 0) {
+                return false;
+            }
+        }
+        int startCell = startY * width + startX;
+        long key = ((long) startCell << 32) | goalCell;
+
+        if (current != null) {
+            unsubscribe(unit, current);
+        }
+        Request request = requests.get(key);
+        if (request == null) {
+            request = new Request(key, newSearch(startCell, goalCell));
+            requests.put(key, request);
+            queue.add(request);
+        }
+        request.subscribers.add(unit);
+        pending.put(unit, request);
+        return true;
+    }
+
+    private boolean isNear(int cell, int x, int y) {
+        int width = grid.getWidth();
+        return Math.abs(cell % width - x) <= GOAL_TOLERANCE && Math.abs(cell / width - y) <= GOAL_TOLERANCE;
+    }
+
+    private BudgetedAStar newSearch(int startCell, int goalCell) {
+        int width = grid.getWidth();
+        Node start = new Node(Grid.gridToPixel(startCell % width), Grid.gridToPixel(startCell / width));
+        return new BudgetedAStar(grid, start, startCell, goalCell);
+    }
+
+    public synchronized boolean isPending(Unit unit) {
+        return pending.containsKey(unit);
+    }
+
+    public synchronized void cancel(Unit unit) {
+        Request current = pending.get(unit);
+        if (current != null) {
+            unsubscribe(unit, current);
+        }
+    }
+
+    // 没有单位再等的请求直接作废，正在工作线程上执行的会在交回时被丢弃
+    private void unsubscribe(Unit unit, Request request) {
+        pending.remove(unit);
+        request.subscribers.remove(unit);
+        if (request.subscribers.isEmpty()) {
+            request.cancelled = true;
+            requests.remove(request.key);
+        }
+    }
+
+    // tick开始时调用: 交付已经搜完的路径，上一轮全部交回后启动下一轮，返回本次交付的单位数
+    public synchronized int deliver() {
+        int delivered = 0;
+        Request done;
+        while ((done = finished.poll()) != null) {
+            if (done.cancelled) {
+                continue;
+            }
+            // 搜索期间地形变了，结果作废，从头再搜
+            if (!done.failed && isStale(done)) {
+                restart(done);
+                queue.add(done);
+                continue;
+            }
+            requests.remove(done.key);
+            List<Node> path = done.failed ? null : done.search.getPath();
+            for (Unit unit : done.subscribers) {
+                pending.remove(unit);
+                if (path != null && unit.isAlive()) {
+                    unit.setWaypoints(PathSmoother.smooth(grid, fromCurrentPosition(unit, path)));
+                    delivered++;
+                }
+            }
+        }
+        if (running.get() == 0) {
+            Request request;
+            while ((request = unfinished.poll()) != null) {
+                if (!request.cancelled) {
+                    queue.add(request);
+                }
+            }
+            launchRound();
+        }
+        return delivered;
+    }
+
+    // 单位在等待期间可能已经离开了起点: 从路径上离它最近的点接上，第一个元素换成单位当前位置
+    private static List<Node> fromCurrentPosition(Unit unit, List<Node> path) {
+        int nearest = 0;
+        double nearestDistance = Double.MAX_VALUE;
+        for (int i = 0; i < path.size(); i++) {
+            double dx = path.get(i).getX() - unit.getX();
+            double dy = path.get(i).getY() - unit.getY();
+            double distance = dx * dx + dy * dy;
+            if (distance < nearestDistance) {
+                nearestDistance = distance;
+                nearest = i;
+            }
+        }
+        int from = Math.max(nearest, 1);
+        List<Node> result = new ArrayList<>(path.size() - from + 1);
+        result.add(unit.getPosition());
+        result.addAll(path.subList(Math.min(from, path.size()), path.size()));
+        return result;
+    }
+
+    private boolean isStale(Request request) {
+        return request.search.getTerrainVersion() != grid.getTerrainVersion();
+    }
+
+    private void restart(Request request) {
+        int startCell = (int) (request.key >>> 32);
+        int goalCell = (int) request.key;
+        request.search = newSearch(startCell, goalCell);
+    }
+
+    private void launchRound() {
+        List<Request> round = new ArrayList<>();
+        int maxSearches = Math.max(1, expansionsPerTick / MIN_EXPANSIONS_PER_SEARCH);
+        while (round.size() < maxSearches && !queue.isEmpty()) {
+            Request request = queue.poll();
+            if (!request.cancelled) {
+                if (isStale(request)) {
+                    restart(request);
+                }
+                round.add(request);
+            }
+        }
+        if (round.isEmpty()) {
+            return;
+        }
+        int budget = expansionsPerTick / round.size();
+        running.set(round.size());
+        for (Request request : round) {
+            workers.execute(() -> step(request, budget));
+        }
+    }
+
+    private void step(Request request, int budget) {
+        try {
+            if (request.search.step(budget)) {
+                finished.add(request);
+            } else {
+                unfinished.add(request);
+            }
+        } catch (RuntimeException e) {
+            log.warn("[异步寻路] 搜索失败", e);
+            // 按没有路径交付，等待的单位可以重新请求
+            request.failed = true;
+            finished.add(request);
+        } finally {
+            running.decrementAndGet();
+        }
+    }
+
+    // 已提交还没交付的请求数(合并后)
+    public synchronized int getPendingRequestCount() {
+        return requests.size();
+    }
+
+    @Override
+    public void close() {
+        workers.shutdownNow();
+    }
+
+    private static class Request {
+        final long key;
+        final List<Unit> subscribers = new ArrayList<>(1);
+        // 只在deliver里替换，此时请求不在工作线程上
+        volatile BudgetedAStar search;
+        volatile boolean cancelled;
+        volatile boolean failed;
+
+        Request(long key, BudgetedAStar search) {
+            this.key = key;
+            this.search = search;
+        }
+
+        int goalCell() {
+            return (int) key;
+        }
+    }
+}
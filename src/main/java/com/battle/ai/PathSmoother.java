@@ -0,0 +1,94 @@
+package com.battle.ai;
+
+import com.battle.ai.battle.terrain.Grid;
+
+import java.util.List;
+
+// 路径拉直: 寻路返回的是一格一格的路径，只保留拐角处的路径点，
+// 单位在两个相邻路径点之间直线移动时经过的格子都可通行(Grid.hasLineOfSight，按像素坐标检查)。
+// 结果存成Waypoints，单位沿直线走向下一个拐角，路径点数和每一步的开销都小得多。
+// 寻路结果本身不拉直，PathCache和分层寻路依赖逐格的路径。
+public final class PathSmoother {
+
+    private PathSmoother() {
+    }
+
+    // 第一个和最后一个路径点保持原样，中间的点只保留视线被挡住之前的那一个。
+    // 寻路本身的一步斜线就会擦过墙格时，先沿一条坐标轴走到拐角再走另一条
+    public static Waypoints smooth(Grid grid, List<Node> path) {
+        int n = path.size();
+        if (n <= 2 && (n < 2 || isClear(grid, path.get(0), path.get(1)))) {
+            return Waypoints.of(path);
+        }
+        // 每一步最多多出一个拐角
+        double[] coords = new double[n * 4];
+        Node first = path.get(0);
+        double anchorX = first.getX();
+        double anchorY = first.getY();
+        coords[0] = anchorX;
+        coords[1] = anchorY;
+        int count = 1;
+        // anchor之后能直接看到的最远的原始路径点，anchorIndex是anchor对应的原始路径点
+        int anchorIndex = 0;
+        int visible = 0;
+        for (int i = 1; i < n; i++) {
+            Node node = path.get(i);
+            if (grid.hasLineOfSight(anchorX, anchorY, node.getX(), node.getY())) {
+                visible = i;
+                continue;
+            }
+            if (visible > anchorIndex) {
+                // 从anchor看不到第i个点，第visible个点是拐角，从它开始重新检查第i个点
+                Node corner = path.get(visible);
+                anchorX = corner.getX();
+                anchorY = corner.getY();
+                coords[count * 2] = anchorX;
+                coords[count * 2 + 1] = anchorY;
+                count++;
+                anchorIndex = visible;
+                i--;
+                continue;
+            }
+            // 相邻的一步本身就挡住了: 先横着走再竖着走，或者反过来
+            double cornerX;
+            double cornerY;
+            if (grid.hasLineOfSight(anchorX, anchorY, node.getX(), anchorY)
+                    && grid.hasLineOfSight(node.getX(), anchorY, node.getX(), node.getY())) {
+                cornerX = node.getX();
+                cornerY = anchorY;
+            } else if (grid.hasLineOfSight(anchorX, anchorY, anchorX, node.getY())
+                    && grid.hasLineOfSight(anchorX, node.getY(), node.getX(), node.getY())) {
+                cornerX = anchorX;
+                cornerY = node.getY();
+            } else {
+                // 绕不开，保留寻路给出的这一步
+                cornerX = node.getX();
+                cornerY = node.getY();
+                visible = i;
+            }
+            anchorX = cornerX;
+            anchorY = cornerY;
+            coords[count * 2] = anchorX;
+            coords[count * 2 + 1] = anchorY;
+            count++;
+            if (visible == i) {
+                anchorIndex = i;
+            } else {
+                // 拐角能直接看到第i个点，从拐角开始重新检查
+                anchorIndex = visible = i - 1;
+                i--;
+            }
+        }
+        if (anchorIndex != n - 1) {
+            Node last = path.get(n - 1);
+            coords[count * 2] = last.getX();
+            coords[count * 2 + 1] = last.getY();
+            count++;
+        }
+        return Waypoints.of(coords, count);
+    }
+
+    private static boolean isClear(Grid grid, Node from, Node to) {
+        return grid.hasLineOfSight(from.getX(), from.getY(), to.getX(), to.getY());
+    }
+}
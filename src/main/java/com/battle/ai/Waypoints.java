@@ -0,0 +1,79 @@
+package com.battle.ai;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+// 单位的路径点: 坐标按x0,y0,x1,y1...平铺在一个double数组里，走过的点只移动游标，
+// 不像List<Node>那样每到一个点就remove(0)搬动剩下的元素。
+// 下标都相对游标，第0个是单位出发的位置(或刚到达的路径点)，第1个是正在前往的路径点。
+public final class Waypoints {
+    private final double[] coords;
+    private int cursor;
+
+    private Waypoints(double[] coords) {
+        this.coords = coords;
+    }
+
+    public static Waypoints of(List<Node> path) {
+        double[] coords = new double[path.size() * 2];
+        for (int i = 0; i < path.size(); i++) {
+            Node node = path.get(i);
+            coords[i * 2] = node.getX();
+            coords[i * 2 + 1] = node.getY();
+        }
+        return new Waypoints(coords);
+    }
+
+    // 由PathSmoother直接填好坐标，count之后的部分丢掉
+    static Waypoints of(double[] coords, int count) {
+        return new Waypoints(coords.length == count * 2 ? coords : Arrays.copyOf(coords, count * 2));
+    }
+
+    // 剩余的路径点数(含第0个)
+    public int size() {
+        return coords.length / 2 - cursor;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public double getX(int i) {
+        return coords[(cursor + i) * 2];
+    }
+
+    public double getY(int i) {
+        return coords[(cursor + i) * 2 + 1];
+    }
+
+    // 到达了第1个路径点
+    public void advance() {
+        if (cursor < coords.length / 2) {
+            cursor++;
+        }
+    }
+
+    // 坐标数组只读，副本共享它，只有游标是各自的
+    public Waypoints copy() {
+        Waypoints copy = new Waypoints(coords);
+        copy.cursor = cursor;
+        return copy;
+    }
+
+    // 剩余路径点的只读视图，每次get都会新建Node，热路径上用getX/getY
+    public List<Node> asList() {
+        int from = cursor;
+        return new AbstractList<Node>() {
+            @Override
+            public Node get(int index) {
+                return new Node(coords[(from + index) * 2], coords[(from + index) * 2 + 1]);
+            }
+
+            @Override
+            public int size() {
+                return coords.length / 2 - from;
+            }
+        };
+    }
+}
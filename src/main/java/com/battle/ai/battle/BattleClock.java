@@ -0,0 +1,83 @@
+package com.battle.ai.battle;
+
+import lombok.extern.slf4j.Slf4j;
+
+// 固定步长的逻辑时钟。每个tick代表tickMillis毫秒的游戏时间，与真实时间解耦；
+// 实时运行时用累加器把经过的真实时间(乘以游戏速度)换算成需要执行的tick数，
+// 一次最多追赶maxCatchUpTicks个，超出的部分直接丢弃，避免卡顿后越追越慢。
+@Slf4j
+public class BattleClock {
+    public static final int DEFAULT_MAX_CATCH_UP_TICKS = 5;
+
+    private final long tickMillis;
+    private final double gameSpeed;
+    private final int maxCatchUpTicks;
+    private long tick;
+    private long accumulatorNanos;
+    private long lastNanos;
+    private long droppedTicks;
+
+    public BattleClock(long tickMillis, double gameSpeed) {
+        this(tickMillis, gameSpeed, DEFAULT_MAX_CATCH_UP_TICKS);
+    }
+
+    public BattleClock(long tickMillis, double gameSpeed, int maxCatchUpTicks) {
+        if (tickMillis <= 0 || gameSpeed <= 0 || maxCatchUpTicks <= 0) {
+            throw new IllegalArgumentException("tickMillis, gameSpeed and maxCatchUpTicks must be positive");
+        }
+        this.tickMillis = tickMillis;
+        this.gameSpeed = gameSpeed;
+        this.maxCatchUpTicks = maxCatchUpTicks;
+        this.lastNanos = System.nanoTime();
+    }
+
+    // 根据真实时间计算现在应该执行几个tick，调用方随后逐个调用tick()
+    public int advance(long nowNanos) {
+        long elapsed = nowNanos - lastNanos;
+        lastNanos = nowNanos;
+        if (elapsed > 0) {
+            accumulatorNanos += (long) (elapsed * gameSpeed);
+        }
+        long tickNanos = tickMillis * 1_000_000L;
+        long due = accumulatorNanos / tickNanos;
+        if (due > maxCatchUpTicks) {
+            droppedTicks += due - maxCatchUpTicks;
+            log.debug("[时钟] 落后 {} 个tick，丢弃 {} 个", due, due - maxCatchUpTicks);
+            accumulatorNanos %= tickNanos;
+            return maxCatchUpTicks;
+        }
+        accumulatorNanos -= due * tickNanos;
+        return (int) due;
+    }
+
+    // 从现在开始重新计时，例如暂停恢复或无头模式结束后
+    public void resync(long nowNanos) {
+        lastNanos = nowNanos;
+        accumulatorNanos = 0;
+    }
+
+    public void tick() {
+        tick++;
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    // 逻辑时间(毫秒)，供冷却等计时使用
+    public long now() {
+        return tick * tickMillis;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    public double getGameSpeed() {
+        return gameSpeed;
+    }
+
+    public long getDroppedTicks() {
+        return droppedTicks;
+    }
+}
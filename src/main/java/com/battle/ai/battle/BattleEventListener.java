@@ -7,4 +7,8 @@ public interface BattleEventListener {
     void onUnitMoved(Unit unit, Node from, Node to);
     void onUnitAttacked(Unit attacker, Unit target, double damage);
     void onBattleEnd(int winningTeam);
+
+    // 每个逻辑tick开始时调用，可以在这里驱动AI决策
+    default void onTick(long tick) {
+    }
 } 
\ No newline at end of file
@@ -0,0 +1,120 @@
+package com.battle.ai.battle;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+
+// 批量无头战斗执行器。每场战斗是工作窃取线程池里的一个任务，在任务内部创建并跑完，
+// 战斗之间不共享可变状态，因此战斗内部不需要任何锁。
+// 工厂应当用 BattleSystem.ExecutionMode.ISOLATED 并为每场战斗准备独立的Grid。
+@Slf4j
+public class BattleRunner implements AutoCloseable {
+    private final ForkJoinPool pool;
+    private final long maxTicks;
+
+    public BattleRunner(long maxTicks) {
+        this(Runtime.getRuntime().availableProcessors(), maxTicks);
+    }
+
+    public BattleRunner(int parallelism, long maxTicks) {
+        if (maxTicks <= 0) {
+            throw new IllegalArgumentException("maxTicks must be positive");
+        }
+        // asyncMode: 任务之间相互独立，按提交顺序执行
+        this.pool = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        this.maxTicks = maxTicks;
+    }
+
+    public BatchReport runAll(List<? extends Supplier<BattleSystem>> battles) {
+        long start = System.nanoTime();
+        List<ForkJoinTask<BattleResult>> tasks = new ArrayList<>(battles.size());
+        for (int i = 0; i < battles.size(); i++) {
+            int index = i;
+            Supplier<BattleSystem> factory = battles.get(i);
+            tasks.add(pool.submit(() -> run(index, factory)));
+        }
+        List<BattleResult> results = new ArrayList<>(tasks.size());
+        for (ForkJoinTask<BattleResult> task : tasks) {
+            results.add(task.join());
+        }
+        BatchReport report = new BatchReport(results, System.nanoTime() - start);
+        log.info("[批量战斗] {} 场, 耗时 {} ms, {} 场/秒, 失败 {} 场",
+                results.size(), report.getElapsedNanos() / 1_000_000,
+                String.format("%.1f", report.getBattlesPerSecond()), report.getFailedCount());
+        return report;
+    }
+
+    private BattleResult run(int index, Supplier<BattleSystem> factory) {
+        long start = System.nanoTime();
+        try {
+            BattleSystem battle = factory.get();
+            long ticks = battle.runHeadless(maxTicks);
+            return new BattleResult(index, battle.getWinningTeam(), ticks, !battle.isRunning(),
+                    System.nanoTime() - start, null);
+        } catch (RuntimeException e) {
+            log.warn("[批量战斗] 第 {} 场战斗失败", index, e);
+            return new BattleResult(index, -1, 0, false, System.nanoTime() - start, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    public static class BattleResult {
+        private final int index;
+        private final int winningTeam;
+        private final long ticks;
+        private final boolean finished;
+        private final long nanos;
+        private final Throwable error;
+
+        BattleResult(int index, int winningTeam, long ticks, boolean finished, long nanos, Throwable error) {
+            this.index = index;
+            this.winningTeam = winningTeam;
+            this.ticks = ticks;
+            this.finished = finished;
+            this.nanos = nanos;
+            this.error = error;
+        }
+
+        public int getIndex() { return index; }
+        public int getWinningTeam() { return winningTeam; }
+        public long getTicks() { return ticks; }
+        // false表示达到maxTicks仍未分出胜负，或者执行失败
+        public boolean isFinished() { return finished; }
+        public long getNanos() { return nanos; }
+        public Throwable getError() { return error; }
+    }
+
+    public static class BatchReport {
+        private final List<BattleResult> results;
+        private final long elapsedNanos;
+
+        BatchReport(List<BattleResult> results, long elapsedNanos) {
+            this.results = Collections.unmodifiableList(results);
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public List<BattleResult> getResults() { return results; }
+        public long getElapsedNanos() { return elapsedNanos; }
+
+        public double getBattlesPerSecond() {
+            return elapsedNanos == 0 ? 0 : results.size() * 1e9 / elapsedNanos;
+        }
+
+        public long getTotalTicks() {
+            return results.stream().mapToLong(BattleResult::getTicks).sum();
+        }
+
+        public long getFailedCount() {
+            return results.stream().filter(result -> result.getError() != null).count();
+        }
+    }
+}
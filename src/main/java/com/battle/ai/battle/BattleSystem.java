@@ -1,10 +1,15 @@
 package com.battle.ai.battle;
 
 import com.battle.ai.Node;
+import com.battle.ai.PathRequestService;
+import com.battle.ai.battle.config.BattleConfig;
+import com.battle.ai.battle.event.BattleEventQueue;
 import com.battle.ai.battle.memory.MemoryMonitor;
 import com.battle.ai.battle.pool.ObjectPool;
 import com.battle.ai.battle.spatial.QuadTree;
 import com.battle.ai.battle.spatial.SpatialHashGrid;
+import com.battle.ai.battle.spatial.SpatialIndex;
+import com.battle.ai.battle.spatial.UniformGridIndex;
 import com.battle.ai.battle.terrain.Grid;
 import lombok.extern.slf4j.Slf4j;
 
@@ -12,38 +17,109 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 @Slf4j
 public class BattleSystem {
+    // SHARED: 单场实时战斗，单位更新并行执行，并上报全局监控
+    // ISOLATED: 批量无头战斗，单线程更新，不碰任何全局状态，适合一个任务跑一场战斗
+    public enum ExecutionMode {
+        SHARED,
+        ISOLATED
+    }
+
+    // 战斗查询用的空间索引，一场战斗只维护其中一个
+    // QUAD_TREE: 增量维护的四叉树，单位分布不均匀或大部分单位静止时合适
+    // HASH_GRID: 增量维护的稀疏哈希网格，世界很大而单位集中在少数区域时合适
+    // UNIFORM_GRID: 每个tick计数排序重建的均匀网格，单位很多、分布较密时合适
+    public enum Broadphase {
+        QUAD_TREE,
+        HASH_GRID,
+        UNIFORM_GRID
+    }
+
+    // 均匀网格的格子边长，两个地图格子
+    private static final double UNIFORM_CELL_SIZE = 64;
+
     private final Grid grid;
+    private final ExecutionMode mode;
+    private final Broadphase broadphase;
+    // 本场所有单位的热数据，按加入顺序排列，结算也按这个顺序进行
+    private final UnitStore store;
     private final Map<Integer, List<Unit>> teams;
     private final List<BattleEventListener> listeners;
     private boolean running;
-    private long lastUpdateTime;
-    private static final long UPDATE_INTERVAL = 100; // 100ms更新一次
+    private int winningTeam = -1;
+    private final BattleEventQueue eventQueue;
+    // 固定步长的逻辑时钟，步长和游戏速度来自BattleConfig
+    private final BattleClock clock;
 
     private final ObjectPool<Node> nodePool;
-    private long updateCount = 0;
-    private final SpatialHashGrid spatialGrid;
-    private final QuadTree quadTree;
-    private static final int WORLD_SIZE = 640; // 20格 * 32像素
+    private final SpatialIndex spatialIndex;
+    // 为空时AI同步寻路
+    private PathRequestService pathRequests;
+
+    // 攻击意图按单位下标存放在复用的数组里: 目标下标，或者下面几个标记值
+    private static final int SKIP = -3;
+    private static final int MULTI_TARGET = -2;
+    private static final int NO_ATTACK = -1;
+    private int[] intentTargets = new int[0];
+    private double[] intentDamage = new double[0];
+    private double[] intentRecoil = new double[0];
+    // 只有多体攻击的单位才需要目标列表
+    private Object[] multiTargets = new Object[0];
+    private final IntConsumer decideStep = this::decideAttack;
+    // 空间查询的候选列表，每个线程复用一个
+    private static final ThreadLocal<List<Unit>> CANDIDATES = ThreadLocal.withInitial(ArrayList::new);
 
     public BattleSystem(Grid grid) {
+        this(grid, ExecutionMode.SHARED);
+    }
+
+    // ISOLATED模式下grid应当只属于这场战斗(例如每场新建或从MapFile加载)
+    public BattleSystem(Grid grid, ExecutionMode mode) {
+        this(grid, mode, Broadphase.QUAD_TREE);
+    }
+
+    public BattleSystem(Grid grid, ExecutionMode mode, Broadphase broadphase) {
         this.grid = grid;
+        this.mode = mode;
+        this.broadphase = broadphase;
+        this.eventQueue = new BattleEventQueue();
+        this.store = new UnitStore();
         this.teams = new ConcurrentHashMap<>();
         this.listeners = new ArrayList<>();
         this.running = true;
-        this.lastUpdateTime = System.currentTimeMillis();
+        BattleConfig config = BattleConfig.getInstance();
+        this.clock = new BattleClock(config.getUpdateInterval(), config.getGameSpeed());
         this.nodePool = new ObjectPool<>(() -> new Node(0, 0), 1000);
-        this.spatialGrid = new SpatialHashGrid();
-        this.quadTree = new QuadTree(0, new QuadTree.Rectangle(0, 0, WORLD_SIZE, WORLD_SIZE));
+        this.spatialIndex = createSpatialIndex(broadphase);
+    }
+
+    // 世界范围随地图尺寸变化
+    private SpatialIndex createSpatialIndex(Broadphase broadphase) {
+        int width = Grid.gridToPixel(grid.getWidth());
+        int height = Grid.gridToPixel(grid.getHeight());
+        switch (broadphase) {
+            case HASH_GRID:
+                return new SpatialHashGrid();
+            case UNIFORM_GRID:
+                UniformGridIndex uniformGrid = new UniformGridIndex(width, height, UNIFORM_CELL_SIZE);
+                uniformGrid.setParallel(mode == ExecutionMode.SHARED);
+                return uniformGrid;
+            default:
+                QuadTree quadTree = new QuadTree(0, new QuadTree.Rectangle(0, 0, width, height));
+                quadTree.setMonitored(mode == ExecutionMode.SHARED);
+                return quadTree;
+        }
     }
 
     public void addUnit(Unit unit, int team) {
+        unit.moveTo(store);
         teams.computeIfAbsent(team, k -> new ArrayList<>()).add(unit);
         unit.setTeam(team);
-        spatialGrid.addUnit(unit);
+        unit.setClock(clock);
     }
 
     public void addListener(BattleEventListener listener) {
@@ -54,136 +130,230 @@ public class BattleSystem {
         return running;
     }
 
+    public BattleClock getClock() {
+        return clock;
+    }
+
+    public ExecutionMode getMode() {
+        return mode;
+    }
+
+    public Broadphase getBroadphase() {
+        return broadphase;
+    }
+
+    // 每个tick开始和结束时与单位位置同步，可作为SpatialQuery交给SimpleAI、攻击和技能
+    public SpatialIndex getSpatialIndex() {
+        return spatialIndex;
+    }
+
+    public UnitStore getUnitStore() {
+        return store;
+    }
+
+    // 每个tick开始时交付异步寻路结果，同一个服务也要交给SimpleAI
+    public void setPathRequestService(PathRequestService pathRequests) {
+        this.pathRequests = pathRequests;
+    }
+
+    public PathRequestService getPathRequestService() {
+        return pathRequests;
+    }
+
+    public Grid getGrid() {
+        return grid;
+    }
+
+    // 战斗结束前为-1
+    public int getWinningTeam() {
+        return winningTeam;
+    }
+
+    // 本场战斗的攻击、死亡和结束事件
+    public BattleEventQueue getEventQueue() {
+        return eventQueue;
+    }
+
+    // 实时模式: 按经过的真实时间执行到期的tick，没有到期的tick时返回false
     public boolean update() {
-        if (!shouldUpdate()) return false;
+        int ticks = clock.advance(System.nanoTime());
+        for (int i = 0; i < ticks && running; i++) {
+            tick();
+        }
+        return ticks > 0;
+    }
 
-        long startTime = System.currentTimeMillis();
-        
-        // 1. 四叉树更新
-        long quadTreeStart = System.currentTimeMillis();
-        quadTree.clear();
-        teams.values().parallelStream()
-                .flatMap(List::stream)
-                .filter(Unit::isAlive)
-                .forEach(quadTree::insert);
-        long quadTreeTime = System.currentTimeMillis() - quadTreeStart;
+    // 无头模式: 不等待真实时间，连续执行直到战斗结束或达到maxTicks，返回执行的tick数
+    public long runHeadless(long maxTicks) {
+        long ticks = 0;
+        while (running && ticks < maxTicks) {
+            tick();
+            ticks++;
+        }
+        clock.resync(System.nanoTime());
+        return ticks;
+    }
+
+    // 推进一个固定步长
+    public void tick() {
+        clock.tick();
+        if (mode == ExecutionMode.SHARED && clock.getTick() % 100 == 0) {
+            MemoryMonitor.checkMemory();
+        }
+        // 上一轮搜完的异步路径在AI决策之前送达
+        if (pathRequests != null) {
+            pathRequests.deliver();
+        }
+        notifyTick(clock.getTick());
+
+        // 1. 空间索引更新
+        spatialIndex.sync(store);
 
         // 2. 单位更新
-        long unitsStart = System.currentTimeMillis();
         updateUnits();
-        long unitsTime = System.currentTimeMillis() - unitsStart;
+        // 移动和死亡后再同步一次，tick之间AI和技能通过getSpatialIndex查询到的是最新位置
+        spatialIndex.sync(store);
 
         // 3. 战斗结束检查
-        long battleEndStart = System.currentTimeMillis();
         checkBattleEnd();
-        long battleEndTime = System.currentTimeMillis() - battleEndStart;
+    }
 
-        long totalTime = System.currentTimeMillis() - startTime;
-        
-        // 每100次更新输出一次性能日志
-       /* if (updateCount % 100 == 0) {
-            System.out.println("[性能统计] 总耗时: %s ms, 四叉树更新: %s ms, 单位更新: %s ms, 战斗检查: %s ms"+
-                    totalTime+","+ quadTreeTime+","+ unitsTime+","+ battleEndTime);
-        }*/
+    // 两阶段更新: 先在冻结的状态上并行做只读决策，产出攻击意图；再按固定的单位顺序单线程结算。
+    // 决策阶段没有任何写操作，结算顺序与线程数无关，所以结果是确定的。
+    // 两个阶段都按下标遍历UnitStore的数组，除多体攻击的目标列表外不分配对象
+    private void updateUnits() {
+        long startTime = System.currentTimeMillis();
+        int count = store.size();
+        ensureIntentCapacity(count);
 
-        return true;
-    }
+        // 1. 决策阶段(只读)
+        if (mode == ExecutionMode.SHARED) {
+            IntStream.range(0, count).parallel().forEach(decideStep);
+        } else {
+            for (int i = 0; i < count; i++) {
+                decideAttack(i);
+            }
+        }
 
-    private boolean shouldUpdate() {
-        updateCount++;
-        if (updateCount % 100 == 0) {
-            MemoryMonitor.checkMemory();
+        // 2. 结算阶段: 所有攻击同时发生，伤害取决策时的血量
+        int updated = 0;
+        for (int i = 0; i < count; i++) {
+            if (intentTargets[i] >= 0 || intentTargets[i] == MULTI_TARGET) {
+                applyAttack(i);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            if (intentTargets[i] == SKIP) {
+                continue;
+            }
+            if (store.isAlive(i)) {
+                updateMovement(i);
+            }
+            store.get(i).updateState();
+            updated++;
         }
 
-        long currentTime = System.currentTimeMillis();
-        if (currentTime - lastUpdateTime < UPDATE_INTERVAL) {
-            return false;
+        if (log.isDebugEnabled() && clock.getTick() % 100 == 0) {
+            log.debug("[单位更新性能] 更新 {} 个单位耗时: {}ms", updated, System.currentTimeMillis() - startTime);
         }
-        lastUpdateTime = currentTime;
-        return true;
     }
 
-    private void updateUnits() {
-        long startTime = System.currentTimeMillis();
-        
-        // 使用分片处理来优化并行处理
-        int processors = Runtime.getRuntime().availableProcessors();
-        
-        teams.values().stream()
-                .flatMap(List::stream)
-                .filter(Unit::isAlive)
-                .collect(Collectors.groupingBy(unit -> 
-                        Math.abs(unit.hashCode() % processors)))
-                .values()
-                .parallelStream()
-                .forEach(unitGroup -> {
-                    // 预先获取共享资源，减少锁竞争
-                    List<Unit> allUnits = teams.values().stream()
-                            .flatMap(List::stream)
-                            .filter(Unit::isAlive)
-                            .collect(Collectors.toList());
-                            
-                    for (Unit unit : unitGroup) {
-                        updateUnitEfficiently(unit, allUnits);
-                    }
-                });
-        
-        long endTime = System.currentTimeMillis();
-        if (updateCount % 100 == 0) {
-            System.out.println("[单位更新性能] 更新 {} 个单位耗时: {}ms"+ 
-                    teams.values().stream().mapToInt(List::size).sum()+","+
-                    (endTime - startTime));
-        }
-    }
-
-    private void updateUnitEfficiently(Unit unit, List<Unit> allUnits) {
-        // 缓存常用计算结果
-        Node oldPos = unit.getPosition();
-        boolean needsMovement = unit.getPath() != null && !unit.getPath().isEmpty();
-        boolean canAttack = unit.canAttack();
-        
-        // 只在必要时更新移动
+    private void ensureIntentCapacity(int count) {
+        if (intentTargets.length < count) {
+            int capacity = Math.max(count, intentTargets.length * 2);
+            intentTargets = new int[capacity];
+            intentDamage = new double[capacity];
+            intentRecoil = new double[capacity];
+            multiTargets = new Object[capacity];
+        }
+    }
+
+    // 移动只依赖单位自身的路径/流场和地形，在结算阶段按顺序执行
+    private void updateMovement(int index) {
+        Unit unit = store.get(index);
+        boolean needsMovement = unit.hasPath() || unit.getFlowField() != null;
         if (needsMovement) {
+            double oldX = store.x[index];
+            double oldY = store.y[index];
             unit.updatePathMovement();
-            // 只在位置确实改变时更新空间网格
-            if (!oldPos.equals(unit.getPosition())) {
-                spatialGrid.updateUnit(unit, oldPos);
-                notifyUnitMoved(unit, oldPos, unit.getPosition());
+            // 空间索引在tick结束时统一同步，这里只通知监听器
+            if (!listeners.isEmpty() && (oldX != store.x[index] || oldY != store.y[index])) {
+                notifyUnitMoved(unit, new Node(oldX, oldY), unit.getPosition());
             }
         }
-        
-        // 只在可以攻击时更新战斗
-        if (canAttack) {
-            updateUnitCombatEfficiently(unit, allUnits);
+    }
+
+    private void decideAttack(int index) {
+        if (!store.isAlive(index)) {
+            intentTargets[index] = SKIP;
+            return;
+        }
+        intentTargets[index] = NO_ATTACK;
+        Unit unit = store.get(index);
+        if (!unit.canAttack()) {
+            return;
         }
-        
-        unit.updateState();
+        double range = store.attackRange[index];
+        // 使用空间索引快速查找范围内的单位
+        List<Unit> nearbyUnits = CANDIDATES.get();
+        nearbyUnits.clear();
+        // 只取敌方单位，全是友军的区域不会被访问
+        spatialIndex.retrieveEnemies(nearbyUnits, store.x[index] - range, store.y[index] - range, range * 2, range * 2,
+                store.team[index]);
+        // 攻击者造成等于自身血量的伤害，并受到最后一个目标血量的反伤
+        if (unit.isMany()) {
+            List<Unit> targets = unit.selectAttackTargets(nearbyUnits);
+            if (!targets.isEmpty()) {
+                multiTargets[index] = targets;
+                intentTargets[index] = MULTI_TARGET;
+                intentRecoil[index] = targets.get(targets.size() - 1).getHp();
+            }
+        } else {
+            Unit target = unit.findAttackTarget(nearbyUnits);
+            if (target != null) {
+                intentTargets[index] = target.getIndex();
+                intentRecoil[index] = store.hp[target.getIndex()];
+            }
+        }
+        intentDamage[index] = store.hp[index];
+        nearbyUnits.clear();
     }
 
-    private void updateUnitCombatEfficiently(Unit unit, List<Unit> allUnits) {
-        double range = unit.getAttackRange();
-        QuadTree.Rectangle searchArea = new QuadTree.Rectangle(
-                unit.getPosition().getX() - range,
-                unit.getPosition().getY() - range,
-                range * 2,
-                range * 2
-        );
+    @SuppressWarnings("unchecked")
+    private void applyAttack(int index) {
+        Unit unit = store.get(index);
+        double damage = intentDamage[index];
+        if (intentTargets[index] == MULTI_TARGET) {
+            List<Unit> targets = (List<Unit>) multiTargets[index];
+            multiTargets[index] = null;
+            unit.beginAttack(targets);
+            for (int i = 0; i < targets.size(); i++) {
+                hit(unit, targets.get(i), damage);
+            }
+        } else {
+            unit.beginAttack();
+            hit(unit, store.get(intentTargets[index]), damage);
+        }
+        boolean wasAlive = store.isAlive(index);
+        unit.takeDamage(intentRecoil[index]);
+        if (wasAlive && !store.isAlive(index)) {
+            eventQueue.enqueue(new BattleEventQueue.BattleEvent(BattleEventQueue.EventType.UNIT_DIED, unit));
+        }
+    }
 
-        // 使用空间索引快速查找范围内的单位
-        List<Unit> nearbyUnits = new ArrayList<>();
-        quadTree.retrieve(nearbyUnits, searchArea);
-
-        // 使用快速过滤找到第一个可攻击目标
-        nearbyUnits.stream()
-                .filter(target -> target.getTeam() != unit.getTeam()
-                        && target.isAlive()
-                        && unit.isInAttackRange(target))
-                .findFirst()
-                .ifPresent(target -> {
-                    double damage = unit.getAttackDamage();
-                    unit.attack(target, allUnits);
-                    notifyUnitAttacked(unit, target, damage);
-                });
+    private void hit(Unit attacker, Unit target, double damage) {
+        boolean wasAlive = target.isAlive();
+        target.takeDamage(damage);
+        notifyUnitAttacked(attacker, target, attacker.getAttackDamage());
+        if (wasAlive && !target.isAlive()) {
+            eventQueue.enqueue(new BattleEventQueue.BattleEvent(BattleEventQueue.EventType.UNIT_DIED, target));
+        }
+    }
+
+    private void notifyTick(long tick) {
+        for (BattleEventListener listener : listeners) {
+            listener.onTick(tick);
+        }
     }
 
     private void notifyUnitMoved(Unit unit, Node from, Node to) {
@@ -193,6 +363,8 @@ public class BattleSystem {
     }
 
     private void notifyUnitAttacked(Unit attacker, Unit target, double damage) {
+        eventQueue.enqueue(new BattleEventQueue.BattleEvent(BattleEventQueue.EventType.UNIT_ATTACKED,
+                attacker, target, damage));
         for (BattleEventListener listener : listeners) {
             listener.onUnitAttacked(attacker, target, damage);
         }
@@ -203,19 +375,26 @@ public class BattleSystem {
         int winningTeam = -1;
 
         for (Map.Entry<Integer, List<Unit>> entry : teams.entrySet()) {
-            if (entry.getValue().stream().anyMatch(Unit::isAlive)) {
-                aliveTeams++;
-                winningTeam = entry.getKey();
+            List<Unit> members = entry.getValue();
+            for (int i = 0; i < members.size(); i++) {
+                if (members.get(i).isAlive()) {
+                    aliveTeams++;
+                    winningTeam = entry.getKey();
+                    break;
+                }
             }
         }
 
-        if (aliveTeams == 1) {
+        // 同归于尽时以平局(-1)结束，否则无头模式会一直空转到maxTicks
+        if (aliveTeams == 1 || (aliveTeams == 0 && !teams.isEmpty())) {
             running = false;
+            this.winningTeam = winningTeam;
             notifyBattleEnd(winningTeam);
         }
     }
 
     private void notifyBattleEnd(int winningTeam) {
+        eventQueue.enqueue(new BattleEventQueue.BattleEvent(BattleEventQueue.EventType.BATTLE_ENDED, winningTeam));
         for (BattleEventListener listener : listeners) {
             listener.onBattleEnd(winningTeam);
         }
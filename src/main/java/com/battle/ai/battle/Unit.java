@@ -1,15 +1,18 @@
 package com.battle.ai.battle;
 
+import com.battle.ai.FlowField;
 import com.battle.ai.Node;
+import com.battle.ai.Waypoints;
 import com.battle.ai.battle.config.UnitConfig;
 import com.battle.ai.battle.skill.Skill;
+import com.battle.ai.battle.spatial.SpatialQuery;
+import com.battle.ai.battle.terrain.Grid;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 @Slf4j
 public class Unit {
@@ -20,19 +23,20 @@ public class Unit {
 
     private String id;
     private int tempId;
-    private Node position;
-    private double hp;
-    private int team;
-    private double attackRange;
+    // 坐标、血量、队伍、射程、移速、状态和攻击时间在store的index处，Unit只保留冷数据
+    private UnitStore store;
+    private int index;
     private List<Skill> skills;
     private UnitConfig config;
     private boolean isAttackCooldown;
-    private double moveSpeed;
-    private List<Node> path;
+    // 路径点和游标，走过的点不删除
+    private Waypoints path;
+    // 与其他单位共享的流场，没有路径时按流场方向移动
+    private FlowField flowField;
     private double attackDamage;
-    private UnitState state;
     private Map<Skill, Long> skillCooldowns;
-    private long lastAttackTime;
+    // 战斗的逻辑时钟，冷却都按逻辑时间计算；未加入战斗时退回系统时间
+    private BattleClock clock;
     //特殊固定掉血量,百分比
     private double fixedDamageHp;
     //设定某些node不能攻击
@@ -44,35 +48,66 @@ public class Unit {
 
     public Unit(String id,int tempId, Node position, UnitConfig config) {
         this.id = id;
-        this.position = position;
+        this.store = new UnitStore(1);
+        this.index = store.allocate(this);
         this.config = config;
-        this.hp = config.getMaxHp();
-        this.attackRange = config.getAttackRange();
-        this.moveSpeed = config.getMoveSpeed();
+        setPosition(position);
+        store.hp[index] = config.getMaxHp();
+        store.attackRange[index] = config.getAttackRange();
+        store.moveSpeed[index] = config.getMoveSpeed();
         this.attackDamage = config.getAttackDamage();
         this.skills = new ArrayList<>(INITIAL_SKILL_CAPACITY);
         this.isAttackCooldown = false;
-        this.path = new ArrayList<>();
-        this.state = UnitState.IDLE;
+        this.path = Waypoints.of(new ArrayList<>());
+        store.setState(index, UnitState.IDLE);
         this.skillCooldowns = new HashMap<>();
-        this.lastAttackTime = 0;
+        store.lastAttackTime[index] = Long.MIN_VALUE / 2; // 从未攻击过
         this.tempId = tempId;
     }
 
     // Getters and setters
     public String getId() { return id; }
-    public Node getPosition() { return position; }
-    public void setPosition(Node position) { this.position = position; }
-    public double getHp() { return hp; }
-    public void setHp(double hp) { this.hp = hp; }
-    public int getTeam() { return team; }
-    public void setTeam(int team) { this.team = team; }
-    public double getAttackRange() { return attackRange; }
-    public boolean isAlive() { return hp > 0; }
-    public double getMoveSpeed() { return moveSpeed; }
-    public List<Node> getPath() { return path; }
-    public void setPath(List<Node> path) { this.path = path; }
+    // 返回当前位置的快照，热路径上用getX/getY
+    public Node getPosition() { return new Node(store.x[index], store.y[index]); }
+    public void setPosition(Node position) { setPosition(position.getX(), position.getY()); }
+    public void setPosition(double x, double y) { store.x[index] = x; store.y[index] = y; }
+    public double getX() { return store.x[index]; }
+    public double getY() { return store.y[index]; }
+    public double getHp() { return store.hp[index]; }
+    public void setHp(double hp) { store.hp[index] = hp; }
+    public int getTeam() { return store.team[index]; }
+    public void setTeam(int team) { store.team[index] = team; }
+    public double getAttackRange() { return store.attackRange[index]; }
+    public boolean isAlive() { return store.hp[index] > 0; }
+    public double getMoveSpeed() { return store.moveSpeed[index]; }
+    // 剩余路径点的只读视图，第一个元素是出发点或刚到达的路径点
+    public List<Node> getPath() { return path == null ? null : path.asList(); }
+    // 复制一份路径点，之后修改传入的列表不影响单位
+    public void setPath(List<Node> path) { this.path = path == null ? null : Waypoints.of(path); }
+    public Waypoints getWaypoints() { return path; }
+    public void setWaypoints(Waypoints waypoints) { this.path = waypoints; }
+    public boolean hasPath() { return path != null && !path.isEmpty(); }
+    public FlowField getFlowField() { return flowField; }
+    public void setFlowField(FlowField flowField) { this.flowField = flowField; }
     public double getAttackDamage() { return attackDamage; }
+    public BattleClock getClock() { return clock; }
+    public void setClock(BattleClock clock) { this.clock = clock; }
+    public UnitStore getStore() { return store; }
+    public int getIndex() { return index; }
+
+    // 搬到战斗的存储中，之后的读写都落在新的数组上
+    void moveTo(UnitStore target) {
+        if (target == store) {
+            return;
+        }
+        int newIndex = target.adopt(this, store, index);
+        store = target;
+        index = newIndex;
+    }
+
+    private long now() {
+        return clock != null ? clock.now() : System.currentTimeMillis();
+    }
 
     public void addSkill(Skill skill) {
         skills.add(skill);
@@ -83,31 +118,37 @@ public class Unit {
     }
 
     public double distanceTo(Node other) {
-        double dx = this.position.getX() - other.getX();
-        double dy = this.position.getY() - other.getY();
+        double dx = store.x[index] - other.getX();
+        double dy = store.y[index] - other.getY();
         return Math.sqrt(dx * dx + dy * dy);
     }
 
     public boolean isInAttackRange(Unit target) {
         if (target == null || !target.isAlive()) return false;
-        double distance = distanceTo(target.getPosition());
-        log.debug("[检查攻击范围] %s -> %s 距离: %.2f, 攻击范围: %.2f%n",
-                id, target.getId(), distance, attackRange);
-        return distance <= attackRange;
+        double dx = store.x[index] - target.getX();
+        double dy = store.y[index] - target.getY();
+        double attackRange = store.attackRange[index];
+        if (log.isDebugEnabled()) {
+            log.debug("[检查攻击范围] {} -> {} 距离: {}, 攻击范围: {}",
+                    id, target.getId(), Math.sqrt(dx * dx + dy * dy), attackRange);
+        }
+        return dx * dx + dy * dy <= attackRange * attackRange;
     }
 
     public boolean canAttack() {
         if (!isAttack) {
             return false;
         }
-        long currentTime = System.currentTimeMillis();
+        long currentTime = now();
+        UnitState state = getState();
+        long lastAttackTime = store.lastAttackTime[index];
         boolean canAttack =
                 state != UnitState.DEAD &&
                 state != UnitState.STUNNED &&
                 (currentTime - lastAttackTime >= ATTACK_COOLDOWN_TIME);
 
-        if (!canAttack) {
-            log.debug("[攻击检查] %s 无法攻击: 冷却=%b, 状态=%s, 冷却剩余时间=%.1f秒%n",
+        if (!canAttack && log.isDebugEnabled()) {
+            log.debug("[攻击检查] {} 无法攻击: 冷却={}, 状态={}, 冷却剩余时间={}秒",
                     id, isAttackCooldown, state,
                     (ATTACK_COOLDOWN_TIME - (currentTime - lastAttackTime)) / 1000.0);
         }
@@ -115,54 +156,120 @@ public class Unit {
     }
 
     public void attack(Unit target, List<Unit> allUnits) {
-        if (canAttack()) {
-            state = UnitState.ATTACKING;
-            lastAttackTime = System.currentTimeMillis();
-            isAttackCooldown = true;
+        attack(target, SpatialQuery.of(allUnits));
+    }
 
+    // 通过空间查询选目标，代价只和射程内的单位数有关
+    public void attack(Unit target, SpatialQuery query) {
+        if (canAttack()) {
             // 获取攻击范围内的所有敌方单位
-            List<Unit> targetsInRange =  new ArrayList<>();
-            if(isMany) {
-                targetsInRange = allUnits.stream()
-                        .filter(unit -> unit.getTeam() != this.team && // 是敌方单位
-                                unit.isAlive() && // 存活
-                                isInAttackRange(unit)) // 在攻击范围内
-                        .collect(Collectors.toList());
-            }else{
-                allUnits.stream()
-                        .filter(unit -> unit.getTeam() != this.team && // 是敌方单位
-                                unit.isAlive() && // 存活
-                                isInAttackRange(unit)) // 在攻击范围内
-                        .findFirst().ifPresent(targetsInRange::add);
-            }
+            List<Unit> targetsInRange = selectAttackTargets(query);
+            beginAttack(targetsInRange);
 
             double tempAttackDamage = 0.0d;
             // 对范围内所有目标造成全额伤害
             for (Unit rangeTarget : targetsInRange) {
                 tempAttackDamage = rangeTarget.getHp();
-                rangeTarget.takeDamage(hp);
+                rangeTarget.takeDamage(getHp());
                 log.debug("[攻击] %s 攻击 %s，造成 %.1f 伤害%n",
                         id, rangeTarget.getId(), attackDamage);
             }
             takeDamage(tempAttackDamage);
+        }
+    }
 
-            if (!targetsInRange.isEmpty()) {
-                log.debug("[范围攻击] %s 的攻击影响了 %d 个目标%n",
-                        id, targetsInRange.size());
-                attackTargets = targetsInRange;
+    // 只读: 从候选单位中选出这次攻击会命中的目标，多体攻击时为范围内全部敌人，否则为最近的一个
+    public List<Unit> selectAttackTargets(List<Unit> candidates) {
+        if (!isMany) {
+            Unit target = findAttackTarget(candidates);
+            List<Unit> targetsInRange = new ArrayList<>(1);
+            if (target != null) {
+                targetsInRange.add(target);
             }
+            return targetsInRange;
         }
+        // 多体攻击: 射程内全部存活的敌人
+        List<Unit> targetsInRange = new ArrayList<>();
+        for (Unit unit : candidates) {
+            if (unit.getTeam() != getTeam() && isInAttackRange(unit)) {
+                targetsInRange.add(unit);
+            }
+        }
+        return targetsInRange;
+    }
+
+    // 只读: 多体攻击时为射程内全部存活敌人，否则为最近的一个
+    public List<Unit> selectAttackTargets(SpatialQuery query) {
+        double range = getAttackRange();
+        List<Unit> targetsInRange = new ArrayList<>();
+        if (isMany) {
+            query.forEachEnemyInRadius(getX(), getY(), range, getTeam(), unit -> {
+                if (unit.isAlive()) {
+                    targetsInRange.add(unit);
+                }
+            });
+        } else {
+            Unit nearest = query.nearestEnemy(getX(), getY(), getTeam(), range);
+            if (nearest != null) {
+                targetsInRange.add(nearest);
+            }
+        }
+        return targetsInRange;
+    }
+
+    // 只读: 候选单位中射程内最近的存活敌人，距离相同时取先出现的，不分配对象，没有时返回null。
+    // 单体攻击统一按这个规则选目标，和selectAttackTargets(SpatialQuery)用的nearestEnemy一致
+    public Unit findAttackTarget(List<Unit> candidates) {
+        int team = getTeam();
+        double x = store.x[index];
+        double y = store.y[index];
+        double range = store.attackRange[index];
+        Unit best = null;
+        double bestSq = range * range;
+        for (int i = 0; i < candidates.size(); i++) {
+            Unit unit = candidates.get(i);
+            if (unit.getTeam() == team || !unit.isAlive()) {
+                continue;
+            }
+            double dx = unit.getX() - x;
+            double dy = unit.getY() - y;
+            double d = dx * dx + dy * dy;
+            if (d <= bestSq && (best == null || d < bestSq)) {
+                best = unit;
+                bestSq = d;
+            }
+        }
+        return best;
+    }
+
+    // 记录一次攻击的状态和冷却，伤害由调用方结算
+    public void beginAttack(List<Unit> targetsInRange) {
+        beginAttack();
+        if (!targetsInRange.isEmpty()) {
+            log.debug("[范围攻击] %s 的攻击影响了 %d 个目标%n",
+                    id, targetsInRange.size());
+            attackTargets = targetsInRange;
+        }
+    }
+
+    // 只记录状态和冷却，不保留目标列表，供每个tick的单体攻击使用
+    public void beginAttack() {
+        store.setState(index, UnitState.ATTACKING);
+        store.lastAttackTime[index] = now();
+        isAttackCooldown = true;
     }
 
     public void takeDamage(double damage) {
         //如果是不动的node,按照固定的扣血量计算
-        this.hp -= damage;
-        log.debug("[受伤] %s 受到 %.1f 伤害，剩余血量: %.1f%n",
-                id, damage, hp);
-        if (this.hp <= 0) {
-            this.hp = 0;
-            this.state = UnitState.DEAD;
-            log.debug("[死亡] %s 被击败!%n", id);
+        double hp = store.hp[index] - damage;
+        store.hp[index] = hp;
+        if (log.isDebugEnabled()) {
+            log.debug("[受伤] {} 受到 {} 伤害，剩余血量: {}", id, damage, hp);
+        }
+        if (hp <= 0) {
+            store.hp[index] = 0;
+            store.setState(index, UnitState.DEAD);
+            log.debug("[死亡] {} 被击败!", id);
         }
     }
 
@@ -171,49 +278,79 @@ public class Unit {
     }
 
     public void move(Node destination) {
-        this.position = destination;
+        setPosition(destination);
     }
 
     public void updatePathMovement() {
         if (path != null && path.size() > 1) {
-            Node nextNode = path.get(1);
-            double distance = position.distanceTo(nextNode);
+            double nextX = path.getX(1);
+            double nextY = path.getY(1);
+            double x = store.x[index];
+            double y = store.y[index];
+            double dx = nextX - x;
+            double dy = nextY - y;
+            double distance = Math.sqrt(dx * dx + dy * dy);
+            double moveSpeed = store.moveSpeed[index];
 
             if (distance <= moveSpeed) {
                 // 可以直接到达下一个节点
-                position = nextNode;
-                path.remove(0);
+                setPosition(nextX, nextY);
+                path.advance();
             } else {
                 // 按照移动速度移动
                 double ratio = moveSpeed / distance;
-                double newX = position.getX() + (nextNode.getX() - position.getX()) * ratio;
-                double newY = position.getY() + (nextNode.getY() - position.getY()) * ratio;
-                position = new Node(newX, newY);
+                setPosition(x + dx * ratio, y + dy * ratio);
             }
+        } else if (flowField != null) {
+            updateFlowFieldMovement();
+        }
+    }
+
+    private void updateFlowFieldMovement() {
+        if (flowField.isStale()) {
+            // 地形变了，等下一次决策重新选路
+            flowField = null;
+            return;
+        }
+        int next = flowField.nextCell(Grid.pixelToGrid(store.x[index]), Grid.pixelToGrid(store.y[index]));
+        if (next < 0) {
+            // 已经到达目标格子或者流场不可达
+            flowField = null;
+            return;
         }
+        moveTowards(Grid.gridToPixel(flowField.cellX(next)), Grid.gridToPixel(flowField.cellY(next)));
     }
 
     public void moveTowards(Node target) {
-        double dx = target.getX() - position.getX();
-        double dy = target.getY() - position.getY();
+        moveTowards(target.getX(), target.getY());
+    }
+
+    public void moveTowards(double targetX, double targetY) {
+        double x = store.x[index];
+        double y = store.y[index];
+        double dx = targetX - x;
+        double dy = targetY - y;
         double distance = Math.sqrt(dx * dx + dy * dy);
+        double moveSpeed = store.moveSpeed[index];
 
         if (distance > moveSpeed) {
             double ratio = moveSpeed / distance;
-            double newX = position.getX() + dx * ratio;
-            double newY = position.getY() + dy * ratio;
-            position = new Node(newX, newY);
+            setPosition(x + dx * ratio, y + dy * ratio);
         } else {
-            position = target;
+            setPosition(targetX, targetY);
         }
     }
 
     public void useSkill(Skill skill, Unit target, List<Unit> allUnits) {
+        useSkill(skill, target, SpatialQuery.of(allUnits));
+    }
+
+    public void useSkill(Skill skill, Unit target, SpatialQuery query) {
         if (!skillCooldowns.containsKey(skill) ||
-                System.currentTimeMillis() - skillCooldowns.get(skill) >= skill.getCooldownTime()) {
-            state = UnitState.CASTING;
-            skill.use(this, target, allUnits);
-            skillCooldowns.put(skill, System.currentTimeMillis());
+                now() - skillCooldowns.get(skill) >= skill.getCooldownTime()) {
+            store.setState(index, UnitState.CASTING);
+            skill.use(this, target, query);
+            skillCooldowns.put(skill, now());
             log.debug("[技能] %s 使用技能 %s 目标 %s%n",
                     id, skill.getName(), target.getId());
         } else {
@@ -223,7 +360,7 @@ public class Unit {
     }
 
     public void updateState() {
-        state = determineNewState();
+        store.setState(index, determineNewState());
     }
 
     private UnitState determineNewState() {
@@ -235,25 +372,33 @@ public class Unit {
     }
 
     private boolean isMoving() {
-        return path != null && !path.isEmpty();
+        return hasPath() || flowField != null;
     }
 
     private boolean isAttacking() {
-        return System.currentTimeMillis() - lastAttackTime < ATTACK_COOLDOWN_TIME;
+        return now() - store.lastAttackTime[index] < ATTACK_COOLDOWN_TIME;
     }
 
     private boolean isCasting() {
-        return skillCooldowns.values().stream()
-                .anyMatch(time -> System.currentTimeMillis() - time < 1000);
+        if (skillCooldowns.isEmpty()) {
+            return false;
+        }
+        long currentTime = now();
+        for (Long time : skillCooldowns.values()) {
+            if (currentTime - time < 1000) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public void setMoveSpeed(double moveSpeed) {
-        this.moveSpeed = moveSpeed;
+        store.moveSpeed[index] = moveSpeed;
     }
 
     public void updateCooldowns() {
-        long currentTime = System.currentTimeMillis();
-        if (isAttackCooldown && currentTime - lastAttackTime >= ATTACK_COOLDOWN_TIME) {
+        long currentTime = now();
+        if (isAttackCooldown && currentTime - store.lastAttackTime[index] >= ATTACK_COOLDOWN_TIME) {
             isAttackCooldown = false;
             log.debug("[冷却] %s 攻击冷却结束%n", id);
         }
@@ -269,7 +414,7 @@ public class Unit {
     }
 
     public UnitState getState() {
-        return state;
+        return store.getState(index);
     }
 
     public List<Unit> getAttackTargets() {
@@ -0,0 +1,110 @@
+package com.battle.ai.battle;
+
+import java.util.Arrays;
+
+// 单位热数据的列式存储(坐标、血量、队伍、状态、攻击时间等各自一个数组)。
+// Unit只是某个下标上的视图，战斗循环直接按下标遍历这些连续的基本类型数组，每个tick不分配对象。
+// 单位加入战斗时从原来的存储搬到战斗的存储里；单独创建的Unit各自有一个只容纳自己的存储。
+// 不是线程安全的: 增加单位只能在tick之外进行。
+public class UnitStore {
+    private static final UnitState[] STATES = UnitState.values();
+
+    double[] x;
+    double[] y;
+    double[] hp;
+    double[] attackRange;
+    double[] moveSpeed;
+    int[] team;
+    byte[] state;
+    long[] lastAttackTime;
+    private Unit[] units;
+    private int size;
+
+    public UnitStore() {
+        this(16);
+    }
+
+    public UnitStore(int capacity) {
+        capacity = Math.max(capacity, 1);
+        x = new double[capacity];
+        y = new double[capacity];
+        hp = new double[capacity];
+        attackRange = new double[capacity];
+        moveSpeed = new double[capacity];
+        team = new int[capacity];
+        state = new byte[capacity];
+        lastAttackTime = new long[capacity];
+        units = new Unit[capacity];
+    }
+
+    // 分配一个新下标，由Unit在构造或迁移时调用
+    int allocate(Unit unit) {
+        if (size == units.length) {
+            grow(size * 2);
+        }
+        units[size] = unit;
+        return size++;
+    }
+
+    // 把单位从原来的存储复制到这里，返回新下标
+    int adopt(Unit unit, UnitStore from, int fromIndex) {
+        int index = allocate(unit);
+        x[index] = from.x[fromIndex];
+        y[index] = from.y[fromIndex];
+        hp[index] = from.hp[fromIndex];
+        attackRange[index] = from.attackRange[fromIndex];
+        moveSpeed[index] = from.moveSpeed[fromIndex];
+        team[index] = from.team[fromIndex];
+        state[index] = from.state[fromIndex];
+        lastAttackTime[index] = from.lastAttackTime[fromIndex];
+        return index;
+    }
+
+    private void grow(int capacity) {
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        hp = Arrays.copyOf(hp, capacity);
+        attackRange = Arrays.copyOf(attackRange, capacity);
+        moveSpeed = Arrays.copyOf(moveSpeed, capacity);
+        team = Arrays.copyOf(team, capacity);
+        state = Arrays.copyOf(state, capacity);
+        lastAttackTime = Arrays.copyOf(lastAttackTime, capacity);
+        units = Arrays.copyOf(units, capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Unit get(int index) {
+        return units[index];
+    }
+
+    public double getX(int index) {
+        return x[index];
+    }
+
+    public double getY(int index) {
+        return y[index];
+    }
+
+    public double getHp(int index) {
+        return hp[index];
+    }
+
+    public int getTeam(int index) {
+        return team[index];
+    }
+
+    public boolean isAlive(int index) {
+        return hp[index] > 0;
+    }
+
+    UnitState getState(int index) {
+        return STATES[state[index]];
+    }
+
+    void setState(int index, UnitState unitState) {
+        state[index] = (byte) unitState.ordinal();
+    }
+}
@@ -0,0 +1,104 @@
+package com.battle.ai.battle.ai;
+
+import com.battle.ai.FlowField;
+import com.battle.ai.Waypoints;
+import com.battle.ai.battle.Unit;
+import com.battle.ai.battle.skill.Skill;
+import com.battle.ai.battle.spatial.SpatialQuery;
+
+// 一次AI决策的结果: 决策阶段只读地算出要做什么，记录在这里；apply在单个线程上按固定顺序执行，
+// 修改单位的位置、路径和血量。和BattleSystem的攻击意图一样，并行决策时互不可见对方的修改。
+public final class AIIntent {
+    private final Unit unit;
+    private boolean clearFlowField;
+    private FlowField flowField;
+    private boolean clearPath;
+    private Waypoints waypoints;
+    private boolean moveTowards;
+    private double moveX;
+    private double moveY;
+    private Unit attackTarget;
+    private SpatialQuery attackQuery;
+    // 不支持只读决策的UnitAI把整个决策推迟到apply
+    private Runnable deferred;
+
+    AIIntent(Unit unit) {
+        this.unit = unit;
+    }
+
+    public static AIIntent deferred(Unit unit, Runnable decision) {
+        AIIntent intent = new AIIntent(unit);
+        intent.deferred = decision;
+        return intent;
+    }
+
+    public Unit getUnit() {
+        return unit;
+    }
+
+    void clearFlowField() {
+        clearFlowField = true;
+    }
+
+    void followFlowField(FlowField field) {
+        flowField = field;
+    }
+
+    void clearPath() {
+        clearPath = true;
+    }
+
+    void followWaypoints(Waypoints path) {
+        waypoints = path;
+    }
+
+    // 坐标在决策时取好，apply时目标可能已经移动
+    void moveTowards(double x, double y) {
+        moveTowards = true;
+        moveX = x;
+        moveY = y;
+    }
+
+    void attack(Unit target, SpatialQuery query) {
+        attackTarget = target;
+        attackQuery = query;
+    }
+
+    public Unit getAttackTarget() {
+        return attackTarget;
+    }
+
+    public boolean isMoving() {
+        return moveTowards || waypoints != null || flowField != null;
+    }
+
+    // 只能在结算线程上调用
+    public void apply() {
+        if (deferred != null) {
+            deferred.run();
+            return;
+        }
+        if (clearFlowField) {
+            unit.setFlowField(null);
+        }
+        if (flowField != null) {
+            unit.setFlowField(flowField);
+        }
+        if (clearPath) {
+            unit.setPath(null);
+        }
+        if (waypoints != null) {
+            unit.setWaypoints(waypoints);
+        }
+        if (moveTowards) {
+            unit.moveTowards(moveX, moveY);
+        }
+        // 前面的意图可能已经杀死了攻击者，攻击本身按当前状态重新选射程内的目标
+        if (attackTarget != null && unit.canAttack()) {
+            unit.attack(attackTarget, attackQuery);
+            for (Skill skill : unit.getSkills()) {
+                unit.useSkill(skill, attackTarget, attackQuery);
+            }
+        }
+    }
+}
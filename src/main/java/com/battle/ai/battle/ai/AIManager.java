@@ -2,53 +2,43 @@ package com.battle.ai.battle.ai;
 
 import com.battle.ai.battle.Unit;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.*;
 
 public class AIManager {
-    private final ExecutorService aiExecutor;
-    private final Map<Unit, SimpleAI> unitAIs;
-    
+    private final BatchedAIExecutor aiExecutor;
+    // 决策间隔取BattleConfig.aiUpdateInterval
+    private final AIScheduler scheduler;
+
     public AIManager(Map<Unit, SimpleAI> unitAIs) {
-        this.aiExecutor = Executors.newFixedThreadPool(2);
-        this.unitAIs = unitAIs;
+        this(unitAIs, new BatchedAIExecutor());
+    }
+
+    public AIManager(Map<Unit, SimpleAI> unitAIs, BatchedAIExecutor aiExecutor) {
+        this(new AIScheduler(unitAIs), aiExecutor);
     }
-    
-    public void processAIDecisions(List<Unit> units, List<Unit> allies, List<Unit> enemies) {
-        List<Future<?>> futures = new ArrayList<>();
-        
-        for (Unit unit : units) {
-            if (unit.isAlive()) {
-                futures.add(aiExecutor.submit(() -> {
-                    SimpleAI ai = unitAIs.get(unit);
-                    ai.makeDecision(unit, allies, enemies);
-                }));
-            }
-        }
-        
-        // 等待所有AI决策完成
-        for (Future<?> future : futures) {
-            try {
-                future.get(100, TimeUnit.MILLISECONDS);
-            } catch (TimeoutException e) {
-                // 处理超时
-                System.out.println("AI决策超时");
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
+
+    public AIManager(AIScheduler scheduler, BatchedAIExecutor aiExecutor) {
+        this.aiExecutor = aiExecutor;
+        this.scheduler = scheduler;
+    }
+
+    // 每个tick调用一次: 调度器挑出到期的单位，分批并行做只读决策，再在调用线程上按顺序结算，全部完成后返回
+    public BatchedAIExecutor.BatchReport processAIDecisions(long tick, List<Unit> units) {
+        scheduler.update(tick, units, aiExecutor);
+        return aiExecutor.getLastReport();
     }
-    
+
+    // 路径失效的单位下一个tick优先决策
+    public void invalidatePath(Unit unit) {
+        scheduler.invalidatePath(unit);
+    }
+
+    public AIScheduler getScheduler() {
+        return scheduler;
+    }
+
     public void shutdown() {
-        aiExecutor.shutdown();
-        try {
-            if (!aiExecutor.awaitTermination(800, TimeUnit.MILLISECONDS)) {
-                aiExecutor.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            aiExecutor.shutdownNow();
-        }
+        aiExecutor.close();
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,288 @@
+package com.battle.ai.battle.ai;
+
+import com.battle.ai.battle.Unit;
+import com.battle.ai.battle.config.BattleConfig;
+import com.battle.ai.battle.spatial.SpatialQuery;
+import com.battle.ai.battle.terrain.Grid;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// 按tick分摊AI决策。每个单位每interval个tick决策一次，起始tick按id错开，避免所有单位挤在同一个tick；
+// 附近没有敌人的单位间隔放大FAR_INTERVAL_MULTIPLIER倍。
+// 每个tick先处理路径失效的单位，再处理上个tick没做完的，然后是靠近敌人的，最后是远处的；
+// 超出时间预算或决策数上限后剩下的单位排到下个tick继续，所以每个tick的AI开销基本不随单位数增长。
+// update(tick, units, executor)把本tick到期的单位交给BatchedAIExecutor分批并行做只读决策(UnitAI.decide)，
+// 再在调用线程上按固定顺序结算意图，AIManager就是这样用的。
+// 调度本身不是线程安全的，应在tick线程上调用，例如BattleEventListener.onTick。
+@Slf4j
+public class AIScheduler {
+    public static final long DEFAULT_BUDGET_NANOS = 2_000_000L;
+    private static final int FAR_INTERVAL_MULTIPLIER = 4;
+    // 这个距离内有敌人的单位按正常间隔决策
+    private static final double DEFAULT_ENGAGE_RADIUS = Grid.gridToPixel(12);
+
+    private final Map<Unit, ? extends UnitAI> unitAIs;
+    private final int interval;
+    private long budgetNanos = DEFAULT_BUDGET_NANOS;
+    // 0表示不限
+    private int maxDecisionsPerTick;
+    private double engageRadius = DEFAULT_ENGAGE_RADIUS;
+    // 不为空时用它判断附近有没有敌人，否则扫描敌人列表
+    private SpatialQuery spatialQuery;
+
+    private final Map<Unit, Entry> entries = new HashMap<>();
+    private final ArrayDeque<Entry> carryOver = new ArrayDeque<>();
+    private final List<Entry> urgent = new ArrayList<>();
+    private final List<Entry> near = new ArrayList<>();
+    private final List<Entry> far = new ArrayList<>();
+    private final List<Entry> ready = new ArrayList<>();
+    private final Map<Integer, TeamView> teams = new HashMap<>();
+    private long viewVersion;
+    private int lastDecisions;
+    // 上一次并行决策平均每个单位占用的时间，用来把时间预算换算成决策数
+    private long nanosPerDecision;
+
+    public AIScheduler(Map<Unit, ? extends UnitAI> unitAIs) {
+        this(unitAIs, BattleConfig.getInstance().getAiUpdateInterval());
+    }
+
+    public AIScheduler(Map<Unit, ? extends UnitAI> unitAIs, int interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval must be positive");
+        }
+        this.unitAIs = unitAIs;
+        this.interval = interval;
+    }
+
+    public void setBudgetNanos(long budgetNanos) {
+        this.budgetNanos = budgetNanos;
+    }
+
+    public void setMaxDecisionsPerTick(int maxDecisionsPerTick) {
+        this.maxDecisionsPerTick = maxDecisionsPerTick;
+    }
+
+    public void setEngageRadius(double engageRadius) {
+        this.engageRadius = engageRadius;
+    }
+
+    public void setSpatialQuery(SpatialQuery spatialQuery) {
+        this.spatialQuery = spatialQuery;
+    }
+
+    // 路径失效(地形变化、目标消失等)时调用，单位在下一次update时优先决策
+    public void invalidatePath(Unit unit) {
+        entry(unit, 0).invalidated = true;
+    }
+
+    // 为units中到期的单位做决策，同队的单位是allies，其余是enemies；返回本tick决策的单位数
+    public int update(long tick, List<Unit> units) {
+        long start = System.nanoTime();
+        collect(tick, units);
+        viewVersion++;
+
+        int decided = 0;
+        for (int i = 0; i < ready.size(); i++) {
+            Entry entry = ready.get(i);
+            if (decided > 0 && overBudget(decided, start)) {
+                // 剩下的单位留到下个tick，保持原来的顺序
+                for (int j = i; j < ready.size(); j++) {
+                    ready.get(j).queued = true;
+                    carryOver.add(ready.get(j));
+                }
+                break;
+            }
+            decide(entry, tick, units);
+            decided++;
+        }
+        return finishTick(tick, decided);
+    }
+
+    // 调度和update相同，决策交给executor分批并行执行。并行时无法中途检查时间预算，
+    // 按上一次的平均耗时把预算换算成本tick的决策数，超出的单位同样排到下个tick
+    public int update(long tick, List<Unit> units, BatchedAIExecutor executor) {
+        collect(tick, units);
+        viewVersion++;
+
+        int limit = ready.size();
+        if (maxDecisionsPerTick > 0) {
+            limit = Math.min(limit, maxDecisionsPerTick);
+        }
+        if (budgetNanos > 0 && nanosPerDecision > 0) {
+            limit = (int) Math.min(limit, Math.max(1, budgetNanos / nanosPerDecision));
+        }
+        for (int i = limit; i < ready.size(); i++) {
+            ready.get(i).queued = true;
+            carryOver.add(ready.get(i));
+        }
+        // 各队的allies/enemies在并行之前分好，决策线程只读
+        for (int i = 0; i < limit; i++) {
+            teamView(ready.get(i).unit.getTeam(), units);
+        }
+        // 并行阶段只读，意图写在各自的Entry上；结算按ready的顺序单线程进行，结果与线程数和批次无关
+        List<Entry> batch = ready.subList(0, limit);
+        BatchedAIExecutor.BatchReport report = executor.execute(batch, entry -> {
+            UnitAI ai = unitAIs.get(entry.unit);
+            if (ai != null) {
+                TeamView view = teams.get(entry.unit.getTeam());
+                entry.intent = ai.decide(entry.unit, view.allies, view.enemies);
+            }
+        });
+        if (limit > 0) {
+            nanosPerDecision = Math.max(1, report.getElapsedNanos() / limit);
+        }
+        for (int i = 0; i < limit; i++) {
+            Entry entry = ready.get(i);
+            if (entry.intent != null) {
+                entry.intent.apply();
+                entry.intent = null;
+            }
+        }
+        for (int i = 0; i < limit; i++) {
+            Entry entry = ready.get(i);
+            reschedule(entry, tick, teams.get(entry.unit.getTeam()));
+        }
+        return finishTick(tick, limit);
+    }
+
+    private int finishTick(long tick, int decided) {
+        ready.clear();
+        lastDecisions = decided;
+        if (!carryOver.isEmpty() && log.isDebugEnabled()) {
+            log.debug("[AI调度] tick {} 决策 {} 个单位, {} 个推迟到下个tick", tick, decided, carryOver.size());
+        }
+        return decided;
+    }
+
+    private boolean overBudget(int decided, long start) {
+        if (maxDecisionsPerTick > 0 && decided >= maxDecisionsPerTick) {
+            return true;
+        }
+        return budgetNanos > 0 && System.nanoTime() - start >= budgetNanos;
+    }
+
+    // 按优先级排好本tick要决策的单位: 路径失效、上个tick遗留、靠近敌人、远处
+    private void collect(long tick, List<Unit> units) {
+        for (int i = 0; i < units.size(); i++) {
+            Unit unit = units.get(i);
+            if (!unit.isAlive()) {
+                entries.remove(unit);
+                continue;
+            }
+            Entry entry = entry(unit, tick);
+            // 路径失效的单位即使已经在carryOver里也提到最前面，取carryOver时跳过它
+            if (entry.invalidated) {
+                urgent.add(entry);
+            } else if (!entry.queued && tick >= entry.nextTick) {
+                (entry.near ? near : far).add(entry);
+            }
+        }
+        ready.addAll(urgent);
+        while (!carryOver.isEmpty()) {
+            Entry entry = carryOver.poll();
+            entry.queued = false;
+            if (entry.unit.isAlive() && !entry.invalidated) {
+                ready.add(entry);
+            }
+        }
+        ready.addAll(near);
+        ready.addAll(far);
+        urgent.clear();
+        near.clear();
+        far.clear();
+    }
+
+    // 第一次见到的单位按id错开起始tick
+    private Entry entry(Unit unit, long tick) {
+        Entry entry = entries.get(unit);
+        if (entry == null) {
+            entry = new Entry(unit);
+            entry.nextTick = tick + Math.floorMod(unit.getId().hashCode(), interval);
+            entries.put(unit, entry);
+        }
+        return entry;
+    }
+
+    private void decide(Entry entry, long tick, List<Unit> units) {
+        Unit unit = entry.unit;
+        TeamView view = teamView(unit.getTeam(), units);
+        UnitAI ai = unitAIs.get(unit);
+        if (ai != null) {
+            ai.makeDecision(unit, view.allies, view.enemies);
+        }
+        reschedule(entry, tick, view);
+    }
+
+    private void reschedule(Entry entry, long tick, TeamView view) {
+        entry.invalidated = false;
+        entry.near = hasEnemyNearby(entry.unit, view.enemies);
+        entry.nextTick = tick + (entry.near ? interval : (long) interval * FAR_INTERVAL_MULTIPLIER);
+    }
+
+    private boolean hasEnemyNearby(Unit unit, List<Unit> enemies) {
+        if (spatialQuery != null) {
+            return spatialQuery.nearestEnemy(unit.getX(), unit.getY(), unit.getTeam(), engageRadius) != null;
+        }
+        double radiusSq = engageRadius * engageRadius;
+        for (int i = 0; i < enemies.size(); i++) {
+            Unit enemy = enemies.get(i);
+            double dx = enemy.getX() - unit.getX();
+            double dy = enemy.getY() - unit.getY();
+            if (enemy.isAlive() && dx * dx + dy * dy <= radiusSq) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 每次update里每个队伍只分一次allies/enemies，列表在多次update之间复用
+    private TeamView teamView(int team, List<Unit> units) {
+        TeamView view = teams.computeIfAbsent(team, k -> new TeamView());
+        if (view.version != viewVersion) {
+            view.allies.clear();
+            view.enemies.clear();
+            for (int i = 0; i < units.size(); i++) {
+                Unit unit = units.get(i);
+                (unit.getTeam() == team ? view.allies : view.enemies).add(unit);
+            }
+            view.version = viewVersion;
+        }
+        return view;
+    }
+
+    // 上一次update决策的单位数
+    public int getLastDecisionCount() {
+        return lastDecisions;
+    }
+
+    // 推迟到下个tick的单位数
+    public int getBacklog() {
+        return carryOver.size();
+    }
+
+    private static class Entry {
+        final Unit unit;
+        long nextTick;
+        boolean near = true;
+        boolean invalidated;
+        // 已经在carryOver里
+        boolean queued;
+        // 并行决策的结果，结算后清空
+        AIIntent intent;
+
+        Entry(Unit unit) {
+            this.unit = unit;
+        }
+    }
+
+    private static class TeamView {
+        final List<Unit> allies = new ArrayList<>();
+        final List<Unit> enemies = new ArrayList<>();
+        long version = -1;
+    }
+}
@@ -0,0 +1,216 @@
+package com.battle.ai.battle.ai;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// 分批执行AI决策。单位列表按下标切成连续的批次，每个批次是一个任务，
+// 决策很便宜时也不会被逐个提交任务的开销淹没；同一批次的单位在UnitStore里通常也是相邻的。
+// 默认在工作窃取线程池上运行，所有批次完成后才返回，只有这一个等待点。
+// 单个单位的决策抛出异常时记录下来继续执行其余单位，不影响同批次的其他单位。
+// action在多个线程上同时执行，不能修改其他任务会读到的状态；AI决策用UnitAI.decide只产出意图，由调用方单线程结算。
+@Slf4j
+public class BatchedAIExecutor implements AutoCloseable {
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    // 二者只有一个不为空
+    private final ForkJoinPool pool;
+    private final ExecutorService virtualThreads;
+    private final int batchSize;
+    private volatile BatchReport lastReport = new BatchReport(0, new long[0], 0, 0);
+
+    public BatchedAIExecutor() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_BATCH_SIZE);
+    }
+
+    public BatchedAIExecutor(int parallelism, int batchSize) {
+        this(new ForkJoinPool(parallelism), null, batchSize);
+    }
+
+    private BatchedAIExecutor(ForkJoinPool pool, ExecutorService virtualThreads, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.pool = pool;
+        this.virtualThreads = virtualThreads;
+        this.batchSize = batchSize;
+    }
+
+    // JDK 21及以上每个批次一个虚拟线程，更早的JDK退回到ForkJoinPool
+    public static BatchedAIExecutor withVirtualThreads(int batchSize) {
+        ExecutorService executor = newVirtualThreadExecutor();
+        if (executor == null) {
+            log.info("[AI执行] 当前JDK不支持虚拟线程，使用ForkJoinPool");
+            return new BatchedAIExecutor(Runtime.getRuntime().availableProcessors(), batchSize);
+        }
+        return new BatchedAIExecutor(null, executor, batchSize);
+    }
+
+    // 通过反射调用，保持Java 8可以编译
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads != null;
+    }
+
+    // 对每个元素执行action，全部完成后返回；只有一个批次时直接在调用线程执行
+    public <T> BatchReport execute(List<T> items, Consumer<? super T> action) {
+        long start = System.nanoTime();
+        int batches = (items.size() + batchSize - 1) / batchSize;
+        long[] batchNanos = new long[batches];
+        AtomicInteger failures = new AtomicInteger();
+        if (batches == 1) {
+            runBatch(0, batchSize, items, action, batchNanos, failures);
+        } else if (batches > 1) {
+            if (pool != null) {
+                pool.invoke(new BatchTask<>(0, batches, batchSize, items, action, batchNanos, failures));
+            } else {
+                runOnVirtualThreads(batches, items, action, batchNanos, failures);
+            }
+        }
+        BatchReport report = new BatchReport(items.size(), batchNanos, failures.get(), System.nanoTime() - start);
+        lastReport = report;
+        if (log.isDebugEnabled()) {
+            log.debug("[AI执行] {} 个单位, {} 批, 总耗时 {} us, 最慢批次 {} us",
+                    items.size(), batches, report.getElapsedNanos() / 1000, report.getMaxBatchNanos() / 1000);
+        }
+        return report;
+    }
+
+    private <T> void runOnVirtualThreads(int batches, List<T> items, Consumer<? super T> action,
+                                         long[] batchNanos, AtomicInteger failures) {
+        CountDownLatch done = new CountDownLatch(batches);
+        for (int b = 0; b < batches; b++) {
+            int batch = b;
+            virtualThreads.execute(() -> {
+                try {
+                    runBatch(batch, batchSize, items, action, batchNanos, failures);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static <T> void runBatch(int batch, int batchSize, List<T> items, Consumer<? super T> action,
+                                     long[] batchNanos, AtomicInteger failures) {
+        long start = System.nanoTime();
+        int to = Math.min(items.size(), (batch + 1) * batchSize);
+        for (int i = batch * batchSize; i < to; i++) {
+            try {
+                action.accept(items.get(i));
+            } catch (RuntimeException e) {
+                if (failures.getAndIncrement() == 0) {
+                    log.warn("[AI执行] 决策失败", e);
+                }
+            }
+        }
+        batchNanos[batch] = System.nanoTime() - start;
+    }
+
+    public BatchReport getLastReport() {
+        return lastReport;
+    }
+
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdown();
+        } else {
+            virtualThreads.shutdown();
+        }
+    }
+
+    // 二分批次区间，叶子任务执行一个批次
+    private static class BatchTask<T> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int batchSize;
+        private final List<T> items;
+        private final Consumer<? super T> action;
+        private final long[] batchNanos;
+        private final AtomicInteger failures;
+
+        BatchTask(int from, int to, int batchSize, List<T> items, Consumer<? super T> action,
+                  long[] batchNanos, AtomicInteger failures) {
+            this.from = from;
+            this.to = to;
+            this.batchSize = batchSize;
+            this.items = items;
+            this.action = action;
+            this.batchNanos = batchNanos;
+            this.failures = failures;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                runBatch(from, batchSize, items, action, batchNanos, failures);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new BatchTask<>(from, mid, batchSize, items, action, batchNanos, failures),
+                    new BatchTask<>(mid, to, batchSize, items, action, batchNanos, failures));
+        }
+    }
+
+    public static class BatchReport {
+        private final int unitCount;
+        private final long[] batchNanos;
+        private final int failedCount;
+        private final long elapsedNanos;
+
+        BatchReport(int unitCount, long[] batchNanos, int failedCount, long elapsedNanos) {
+            this.unitCount = unitCount;
+            this.batchNanos = batchNanos;
+            this.failedCount = failedCount;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getUnitCount() { return unitCount; }
+        public int getBatchCount() { return batchNanos.length; }
+        public long getBatchNanos(int batch) { return batchNanos[batch]; }
+        public int getFailedCount() { return failedCount; }
+        public long getElapsedNanos() { return elapsedNanos; }
+
+        public long getMaxBatchNanos() {
+            long max = 0;
+            for (long nanos : batchNanos) {
+                max = Math.max(max, nanos);
+            }
+            return max;
+        }
+
+        public long getAverageBatchNanos() {
+            if (batchNanos.length == 0) {
+                return 0;
+            }
+            long sum = 0;
+            for (long nanos : batchNanos) {
+                sum += nanos;
+            }
+            return sum / batchNanos.length;
+        }
+    }
+}
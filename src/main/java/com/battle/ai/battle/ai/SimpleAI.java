@@ -1,9 +1,16 @@
 package com.battle.ai.battle.ai;
 
 import com.battle.ai.AStar;
+import com.battle.ai.FlowField;
+import com.battle.ai.FlowFieldService;
+import com.battle.ai.IncrementalPlanner;
 import com.battle.ai.Node;
+import com.battle.ai.PathFinder;
+import com.battle.ai.PathRequestService;
+import com.battle.ai.PathSmoother;
+import com.battle.ai.Waypoints;
 import com.battle.ai.battle.Unit;
-import com.battle.ai.battle.skill.Skill;
+import com.battle.ai.battle.spatial.SpatialQuery;
 import com.battle.ai.battle.terrain.Grid;
 import lombok.extern.slf4j.Slf4j;
 
@@ -12,50 +19,116 @@ import java.util.List;
 
 @Slf4j
 public class SimpleAI implements UnitAI {
-    private final AStar pathFinder;
+    private final PathFinder pathFinder;
+    // 不为空时走向不动的目标(建筑、据点)共享按目标格子缓存的流场，代替逐个单位寻路
+    private final FlowFieldService flowFields;
+    // 不为空时选目标、攻击和技能都走空间查询，否则扫描传入的单位列表
+    private final SpatialQuery spatialQuery;
+    // 不为空时寻路交给异步队列，路径到达前直线靠近目标
+    private final PathRequestService pathRequests;
+    // 不为空时追击用增量规划，目标移动后在上一次的搜索结果上修复路径
+    private final IncrementalPlanner planner;
     private static final double ATTACK_RANGE_BUFFER = 16.0;
+    // 目标被地形隔开时，在其周围这么多格内找一个能到达的格子
+    private static final int NEAREST_REACHABLE_RADIUS = 8;
 
     public SimpleAI() {
-        this.pathFinder = new AStar(Grid.getInstance());
+        this(new AStar(Grid.getInstance()));
+    }
+
+    public SimpleAI(PathFinder pathFinder) {
+        this(builder(pathFinder));
+    }
+
+    private SimpleAI(Builder builder) {
+        this.pathFinder = builder.pathFinder;
+        this.flowFields = builder.flowFields;
+        this.spatialQuery = builder.spatialQuery;
+        this.pathRequests = builder.pathRequests;
+        this.planner = builder.planner;
+    }
+
+    // 可选组件都默认为空，只设置需要的:
+    // SimpleAI.builder(pathFinder).spatialQuery(battle.getSpatialIndex()).planner(planner).build()
+    public static Builder builder(PathFinder pathFinder) {
+        return new Builder(pathFinder);
     }
 
     @Override
     public void makeDecision(Unit unit, List<Unit> allies, List<Unit> enemies) {
-        if (!unit.isAlive()) return;
+        decide(unit, allies, enemies).apply();
+    }
 
-        Unit target = findNearestTarget(unit, enemies);
+    // 只读: 不修改任何单位，攻击、技能和移动都记录在意图里。
+    // 规划器、寻路请求队列和流场缓存本身是线程安全的，每个单位的规划状态只在决策它的线程上使用
+    @Override
+    public AIIntent decide(Unit unit, List<Unit> allies, List<Unit> enemies) {
+        AIIntent intent = new AIIntent(unit);
+        if (!unit.isAlive()) {
+            if (planner != null) {
+                planner.forget(unit);
+            }
+            return intent;
+        }
+
+        Unit target = spatialQuery != null
+                ? spatialQuery.nearestEnemy(unit.getX(), unit.getY(), unit.getTeam(), Double.POSITIVE_INFINITY)
+                : findNearestTarget(unit, enemies);
         if (target != null) {
-            double distance = unit.getPosition().distanceTo(target.getPosition());
-            log.debug("[AI决策] %s -> %s 距离: %.2f, 攻击范围: %.2f%n",
-                    unit.getId(), target.getId(), distance, unit.getAttackRange());
+            double dx = target.getX() - unit.getX();
+            double dy = target.getY() - unit.getY();
+            double distance = Math.sqrt(dx * dx + dy * dy);
+            if (log.isDebugEnabled()) {
+                log.debug("[AI决策] {} -> {} 距离: {}, 攻击范围: {}",
+                        unit.getId(), target.getId(), distance, unit.getAttackRange());
+            }
 
             if (distance <= unit.getAttackRange()) {
                 // 在攻击范围内
+                intent.clearFlowField();
+                if (planner != null) {
+                    // 不再追击，搜索状态没有用了
+                    planner.forget(unit);
+                }
                 if (unit.canAttack()) {
-                    // 获取所有单位列表用于范围攻击
-                    List<Unit> allUnits = new ArrayList<>(allies);
-                    allUnits.addAll(enemies);
-
-                    // 执行攻击，传入所有单位列表
-                    unit.attack(target, allUnits);
-
-                    // 尝试使用技能
-                    for (Skill skill : unit.getSkills()) {
-                        unit.useSkill(skill, target, allUnits);
+                    SpatialQuery query = spatialQuery;
+                    if (query == null) {
+                        // 获取所有单位列表用于范围攻击
+                        List<Unit> allUnits = new ArrayList<>(allies);
+                        allUnits.addAll(enemies);
+                        query = SpatialQuery.of(allUnits);
                     }
+
+                    // 攻击和技能在apply时执行
+                    intent.attack(target, query);
                 }
             } else {
                 // 需要移动
-                moveTowardsTarget(unit, target);
+                moveTowardsTarget(unit, target, intent);
             }
+        } else if (planner != null) {
+            planner.forget(unit);
         }
+        return intent;
     }
 
-    private void moveTowardsTarget(Unit unit, Unit target) {
+    private void moveTowardsTarget(Unit unit, Unit target, AIIntent intent) {
+        // 之前走向不动目标的流场不再适用，下面选中流场时会重新设置
+        intent.clearFlowField();
+        if (planner != null) {
+            chase(unit, target, intent);
+            return;
+        }
+
         // 如果已经有路径且路径有效，继续沿着路径移动
-        if (unit.getPath() != null && !unit.getPath().isEmpty()) {
+        if (unit.hasPath()) {
             log.debug("[AI移动] %s 继续沿路径移动，剩余路径点: %d%n",
-                    unit.getId(), unit.getPath().size());
+                    unit.getId(), unit.getWaypoints().size());
+            return;
+        }
+
+        // 流场按目标格子缓存，只用于不会移动的目标；追击会移动的单位时每走一格都要重算整张地图
+        if (flowFields != null && target.getMoveSpeed() <= 0 && moveByFlowField(unit, target, intent)) {
             return;
         }
 
@@ -63,19 +136,56 @@ public class SimpleAI implements UnitAI {
         double effectiveRange = unit.getAttackRange() - ATTACK_RANGE_BUFFER;
         Node targetPos = calculateTargetPosition(unit, target, effectiveRange);
 
+        if (pathRequests != null) {
+            // 请求已提交或不可达时都先直线靠近，路径在之后某个tick开始时送达；
+            // 边走边重复请求时，终点没有明显移动就沿用正在进行的搜索
+            pathRequests.request(unit, targetPos);
+            intent.moveTowards(target.getX(), target.getY());
+            return;
+        }
+
         // 寻找路径
-        List<Node> path = pathFinder.findPath(unit.getPosition(), targetPos);
+        List<Node> path = pathFinder.findPathToNearestReachable(unit.getPosition(), targetPos, NEAREST_REACHABLE_RADIUS);
         if (path != null && !path.isEmpty()) {
-            unit.setPath(path);
+            // 只保留拐角处的路径点
+            Grid grid = pathFinder.getGrid();
+            intent.followWaypoints(grid != null ? PathSmoother.smooth(grid, path) : Waypoints.of(path));
             log.debug("[AI路径] %s 找到通向 %s 的路径，长度: %d%n",
                     unit.getId(), target.getId(), path.size());
         } else {
             // 如果找不到路径，直接移动向目标
-            unit.moveTowards(target.getPosition());
+            intent.moveTowards(target.getX(), target.getY());
             log.debug("[AI直线] %s 直线移动向 %s%n", unit.getId(), target.getId());
         }
     }
 
+    // 目标还在规划时的格子里就沿现有路径走，否则在上一次的搜索结果上修复路径
+    private void chase(Unit unit, Unit target, AIIntent intent) {
+        Node goal = target.getPosition();
+        Waypoints current = unit.getWaypoints();
+        if (current != null && current.size() > 1 && planner.isCurrent(unit, goal)) {
+            return;
+        }
+        List<Node> path = planner.plan(unit, goal);
+        if (path != null && path.size() > 1) {
+            intent.followWaypoints(PathSmoother.smooth(planner.getGrid(), path));
+        } else {
+            intent.clearPath();
+            intent.moveTowards(goal.getX(), goal.getY());
+        }
+    }
+
+    private boolean moveByFlowField(Unit unit, Unit target, AIIntent intent) {
+        FlowField field = flowFields.getField(target.getPosition());
+        if (field == null || !field.isReachable(Grid.pixelToGrid(unit.getPosition().getX()),
+                Grid.pixelToGrid(unit.getPosition().getY()))) {
+            return false;
+        }
+        intent.followFlowField(field);
+        log.debug("[AI流场] {} 沿流场移动向 {}", unit.getId(), target.getId());
+        return true;
+    }
+
     public Unit findNearestTarget(Unit source, List<Unit> targets) {
         if (targets == null || targets.isEmpty()) {
             return null;
@@ -83,13 +193,19 @@ public class SimpleAI implements UnitAI {
 
         Unit nearestTarget = null;
         double minDistance = Double.MAX_VALUE;
+        double x = source.getX();
+        double y = source.getY();
 
-        for (Unit target : targets) {
+        // 按下标遍历并比较距离的平方，不分配迭代器和Node
+        for (int i = 0; i < targets.size(); i++) {
+            Unit target = targets.get(i);
             if (!target.isAlive()) {
                 continue;
             }
 
-            double distance = source.getPosition().distanceTo(target.getPosition());
+            double dx = target.getX() - x;
+            double dy = target.getY() - y;
+            double distance = dx * dx + dy * dy;
             if (distance < minDistance) {
                 minDistance = distance;
                 nearestTarget = target;
@@ -99,6 +215,11 @@ public class SimpleAI implements UnitAI {
         return nearestTarget;
     }
 
+    // 用空间索引代替线性扫描，只看maxRadius以内的敌人
+    public Unit findNearestTarget(Unit source, SpatialQuery index, double maxRadius) {
+        return index.nearestEnemy(source.getX(), source.getY(), source.getTeam(), maxRadius);
+    }
+
     private Node calculateTargetPosition(Unit unit, Unit target, double effectiveRange) {
         double dx = target.getPosition().getX() - unit.getPosition().getX();
         double dy = target.getPosition().getY() - unit.getPosition().getY();
@@ -115,4 +236,41 @@ public class SimpleAI implements UnitAI {
 
         return new Node(targetX, targetY);
     }
-} 
\ No newline at end of file
+
+    public static final class Builder {
+        private final PathFinder pathFinder;
+        private FlowFieldService flowFields;
+        private SpatialQuery spatialQuery;
+        private PathRequestService pathRequests;
+        private IncrementalPlanner planner;
+
+        private Builder(PathFinder pathFinder) {
+            this.pathFinder = pathFinder;
+        }
+
+        public Builder flowFields(FlowFieldService flowFields) {
+            this.flowFields = flowFields;
+            return this;
+        }
+
+        // 通常是BattleSystem.getSpatialIndex()
+        public Builder spatialQuery(SpatialQuery spatialQuery) {
+            this.spatialQuery = spatialQuery;
+            return this;
+        }
+
+        public Builder pathRequests(PathRequestService pathRequests) {
+            this.pathRequests = pathRequests;
+            return this;
+        }
+
+        public Builder planner(IncrementalPlanner planner) {
+            this.planner = planner;
+            return this;
+        }
+
+        public SimpleAI build() {
+            return new SimpleAI(this);
+        }
+    }
+}
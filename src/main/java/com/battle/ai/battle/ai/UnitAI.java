@@ -6,4 +6,10 @@ import java.util.List;
 
 public interface UnitAI {
     void makeDecision(Unit unit, List<Unit> allies, List<Unit> enemies);
-} 
\ No newline at end of file
+
+    // 只读决策，可以在多个线程上同时调用，修改都记录在返回的意图里，由调用方单线程apply。
+    // 默认把makeDecision整个推迟到apply，没有并行收益但仍然安全
+    default AIIntent decide(Unit unit, List<Unit> allies, List<Unit> enemies) {
+        return AIIntent.deferred(unit, () -> makeDecision(unit, allies, enemies));
+    }
+}
@@ -3,21 +3,26 @@ package com.battle.ai.battle.event;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Consumer;
 
+// 每场战斗各自持有一个事件队列，多场战斗同时运行时互不干扰
 public class BattleEventQueue {
-    private static final ConcurrentLinkedQueue<BattleEvent> eventQueue = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<BattleEvent> eventQueue = new ConcurrentLinkedQueue<>();
     
-    public static void enqueue(BattleEvent event) {
+    public void enqueue(BattleEvent event) {
         eventQueue.offer(event);
     }
     
-    public static void processEvents(Consumer<BattleEvent> handler) {
+    public void processEvents(Consumer<BattleEvent> handler) {
         BattleEvent event;
         while ((event = eventQueue.poll()) != null) {
             handler.accept(event);
         }
     }
     
-    public static void clear() {
+    public boolean isEmpty() {
+        return eventQueue.isEmpty();
+    }
+    
+    public void clear() {
         eventQueue.clear();
     }
     
@@ -2,32 +2,36 @@ package com.battle.ai.battle.monitoring;
 
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// 单位决策阶段会并行查询四叉树，统计值都用原子类型
 @Slf4j
 public class SpatialMonitor {
-    private static long queryCount = 0;
-    private static long totalQueryTime = 0;
-    private static long maxQueryTime = 0;
+    private static final AtomicLong queryCount = new AtomicLong();
+    private static final LongAdder totalQueryTime = new LongAdder();
+    private static final AtomicLong maxQueryTime = new AtomicLong();
     
     public static void recordQuery(long queryTime) {
-        queryCount++;
-        totalQueryTime += queryTime;
-        maxQueryTime = Math.max(maxQueryTime, queryTime);
+        long count = queryCount.incrementAndGet();
+        totalQueryTime.add(queryTime);
+        maxQueryTime.accumulateAndGet(queryTime, Math::max);
         
-        if (queryCount % 1000 == 0) {
+        if (count % 1000 == 0) {
             printStats();
         }
     }
     
     public static void printStats() {
         log.debug("[空间查询统计] 总查询次数: %d, 平均查询时间: %.2fms, 最大查询时间: %dms%n",
-            queryCount,
-            totalQueryTime / (double)queryCount,
-            maxQueryTime);
+            queryCount.get(),
+            totalQueryTime.sum() / (double)queryCount.get(),
+            maxQueryTime.get());
     }
     
     public static void reset() {
-        queryCount = 0;
-        totalQueryTime = 0;
-        maxQueryTime = 0;
+        queryCount.set(0);
+        totalQueryTime.reset();
+        maxQueryTime.set(0);
     }
 } 
\ No newline at end of file
@@ -1,10 +1,11 @@
 package com.battle.ai.battle.skill;
 
 import com.battle.ai.battle.Unit;
+import com.battle.ai.battle.spatial.SpatialQuery;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 @Slf4j
 public class FireballSkill implements Skill {
@@ -15,21 +16,26 @@ public class FireballSkill implements Skill {
     private boolean isOnCooldown = false;
     
     @Override
-    public void use(Unit caster, Unit target, List<Unit> allUnits) {
+    public void use(Unit caster, Unit target, SpatialQuery query) {
         if (isOnCooldown || caster.distanceTo(target.getPosition()) > RANGE) {
             return;
         }
         
-        // 获取溅射范围内的所有敌方单位
-        List<Unit> targetsInRange = allUnits.stream()
-            .filter(unit -> unit.getTeam() != caster.getTeam() // 不同队伍
-                       && unit.isAlive() // 存活
-                       && unit.getPosition().distanceTo(target.getPosition()) <= SPLASH_RADIUS) // 在溅射范围内
-            .collect(Collectors.toList());
+        // 获取溅射范围内的所有敌方单位，只查询目标附近，先收集再结算伤害
+        double targetX = target.getX();
+        double targetY = target.getY();
+        List<Unit> targetsInRange = new ArrayList<>();
+        query.forEachEnemyInRadius(targetX, targetY, SPLASH_RADIUS, caster.getTeam(), unit -> {
+            if (unit.isAlive()) {
+                targetsInRange.add(unit);
+            }
+        });
         
         // 对范围内所有目标造成伤害
         for (Unit splashTarget : targetsInRange) {
-            double distance = splashTarget.getPosition().distanceTo(target.getPosition());
+            double dx = splashTarget.getX() - targetX;
+            double dy = splashTarget.getY() - targetY;
+            double distance = Math.sqrt(dx * dx + dy * dy);
             // 根据距离计算衰减伤害
             double damageMultiplier = 1.0 - (distance / SPLASH_RADIUS) * 0.5; // 最远处伤害衰减50%
             double actualDamage = DAMAGE * damageMultiplier;
@@ -1,12 +1,20 @@
 package com.battle.ai.battle.skill;
 
 import com.battle.ai.battle.Unit;
+import com.battle.ai.battle.spatial.SpatialQuery;
 
 import java.util.List;
 
 public interface Skill {
-    void use(Unit caster, Unit target, List<Unit> allUnits);
+    // 通过空间查询找范围内的目标
+    void use(Unit caster, Unit target, SpatialQuery query);
+
+    // 没有空间索引时对整个单位列表线性扫描
+    default void use(Unit caster, Unit target, List<Unit> allUnits) {
+        use(caster, target, SpatialQuery.of(allUnits));
+    }
+
     String getName();
     void resetCooldown();
     long getCooldownTime();
-} 
\ No newline at end of file
+}
@@ -0,0 +1,28 @@
+package com.battle.ai.battle.spatial;
+
+import com.battle.ai.battle.Unit;
+
+// SpatialIndex.nearest的结果缓冲由调用方提供，各索引用同一个插入排序维护前k个
+final class NearestUnits {
+
+    private NearestUnits() {
+    }
+
+    // 插入排序维护前k个，返回新的个数
+    static int offer(Unit unit, double d, int k, Unit[] out, double[] distanceSq, int found) {
+        int i = found < k ? found++ : k - 1;
+        while (i > 0 && distanceSq[i - 1] > d) {
+            out[i] = out[i - 1];
+            distanceSq[i] = distanceSq[i - 1];
+            i--;
+        }
+        out[i] = unit;
+        distanceSq[i] = d;
+        return found;
+    }
+
+    // k不超过两个缓冲的长度
+    static int limit(int k, Unit[] out, double[] distanceSq) {
+        return Math.min(k, Math.min(out.length, distanceSq.length));
+    }
+}
@@ -0,0 +1,94 @@
+package com.battle.ai.battle.spatial;
+
+import com.battle.ai.battle.Unit;
+import com.battle.ai.battle.UnitStore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// 记录增量索引里每个单位的位置，sync时与UnitStore逐个比较，只把移动过或生死变化的单位交给索引。
+// 位置可能在tick之外被AI或调用方修改，所以和上次记录的位置比较，而不是只跟踪战斗系统内的移动。
+// 先处理所有移除和原地移动，再统一插入: 插入引起的分裂会按当前坐标重新分配单位，
+// 如果还有未处理的单位留在索引里，它们会被放到和记录位置不一致的地方。
+class PositionTracker {
+    interface Changes {
+        void added(Unit unit);
+
+        void removed(Unit unit, double x, double y);
+
+        // 索引能原地更新时返回true；返回false表示已经按旧位置移除，稍后通过added重新插入
+        boolean moved(Unit unit, double oldX, double oldY);
+    }
+
+    private boolean loaded;
+    private boolean[] indexed = new boolean[0];
+    private double[] indexedX = new double[0];
+    private double[] indexedY = new double[0];
+
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    void reset() {
+        loaded = false;
+        Arrays.fill(indexed, false);
+    }
+
+    // 第一次同步: 记录所有存活单位并返回它们，由索引批量加载
+    List<Unit> load(UnitStore store) {
+        int count = store.size();
+        ensureCapacity(count);
+        List<Unit> alive = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            indexed[i] = store.isAlive(i);
+            if (indexed[i]) {
+                alive.add(store.get(i));
+                indexedX[i] = store.getX(i);
+                indexedY[i] = store.getY(i);
+            }
+        }
+        loaded = true;
+        return alive;
+    }
+
+    void sync(UnitStore store, Changes changes) {
+        int count = store.size();
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            if (!indexed[i]) {
+                continue;
+            }
+            double x = store.getX(i);
+            double y = store.getY(i);
+            if (!store.isAlive(i)) {
+                changes.removed(store.get(i), indexedX[i], indexedY[i]);
+                indexed[i] = false;
+            } else if (indexedX[i] != x || indexedY[i] != y) {
+                if (changes.moved(store.get(i), indexedX[i], indexedY[i])) {
+                    indexedX[i] = x;
+                    indexedY[i] = y;
+                } else {
+                    indexed[i] = false;
+                }
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            if (!indexed[i] && store.isAlive(i)) {
+                changes.added(store.get(i));
+                indexed[i] = true;
+                indexedX[i] = store.getX(i);
+                indexedY[i] = store.getY(i);
+            }
+        }
+    }
+
+    private void ensureCapacity(int count) {
+        if (indexed.length < count) {
+            int capacity = Math.max(count, indexed.length * 2);
+            indexed = Arrays.copyOf(indexed, capacity);
+            indexedX = Arrays.copyOf(indexedX, capacity);
+            indexedY = Arrays.copyOf(indexedY, capacity);
+        }
+    }
+}
@@ -1,66 +1,168 @@
 package com.battle.ai.battle.spatial;
 
-import com.battle.ai.Node;
 import com.battle.ai.battle.Unit;
+import com.battle.ai.battle.UnitStore;
 import com.battle.ai.battle.monitoring.SpatialMonitor;
+import com.battle.ai.battle.pool.ObjectPool;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
 
-public class QuadTree {
+// 单位的四叉树索引。除了每次清空重建，也支持增量维护: update只移动跨节点的单位，
+// remove后子树单位数不超过MAX_OBJECTS时合并回父节点，子节点从对象池取用和归还。
+// 修改操作在根节点上同步，查询不加锁，调用方需保证查询期间没有修改(例如战斗的决策阶段)。
+public class QuadTree implements SpatialIndex {
     private static final int MAX_OBJECTS = 10;
     private static final int MAX_LEVELS = 5;
+    private static final int POOL_SIZE = 1024;
+    // nearestEnemy用的单元素缓冲，每个线程一份
+    private static final ThreadLocal<NearestScratch> NEAREST_SCRATCH = ThreadLocal.withInitial(NearestScratch::new);
     
     private int level;
     private List<Unit> units;
     private Rectangle bounds;
     private QuadTree[] nodes;
+    // 子树中的单位总数，用于判断是否可以合并
+    private int count;
+    // 子树中每个队伍的单位数，count减去本队人数为0时敌人查询跳过整棵子树。
+    // 队伍数很少，用两个并列的小数组线性查找；单位在树中时不能修改队伍
+    private int[] teamIds = new int[2];
+    private int[] teamCounts = new int[2];
+    private int teamSlots;
+    // 整棵树共用的节点池
+    private ObjectPool<QuadTree> pool;
+    // 是否把查询耗时计入全局的SpatialMonitor，批量跑战斗时关闭以免互相干扰
+    private boolean monitored = true;
+    // 只在根节点上使用，记录sync时每个单位的位置
+    private PositionTracker tracker;
+    private PositionTracker.Changes changes;
     
     public QuadTree(int level, Rectangle bounds) {
         this.level = level;
         this.bounds = bounds;
         this.units = new ArrayList<>();
         this.nodes = new QuadTree[4];
+        this.pool = new ObjectPool<>(() -> new QuadTree(this.pool), POOL_SIZE);
     }
     
-    public void clear() {
+    private QuadTree(ObjectPool<QuadTree> pool) {
+        this.units = new ArrayList<>();
+        this.nodes = new QuadTree[4];
+        this.bounds = new Rectangle(0, 0, 0, 0);
+        this.pool = pool;
+    }
+    
+    @Override
+    public synchronized void clear() {
+        reset();
+        if (tracker != null) {
+            tracker.reset();
+        }
+    }
+    
+    private void reset() {
         units.clear();
+        count = 0;
+        teamSlots = 0;
+        releaseChildren();
+    }
+    
+    // 第一次批量加载，之后只处理位置或存活状态变化的单位
+    @Override
+    public synchronized void sync(UnitStore store) {
+        if (tracker == null) {
+            tracker = new PositionTracker();
+            changes = new PositionTracker.Changes() {
+                @Override
+                public void added(Unit unit) {
+                    doInsert(unit);
+                }
+                
+                @Override
+                public void removed(Unit unit, double x, double y) {
+                    doRemove(unit, x, y);
+                }
+                
+                // 换节点的单位先移除，等所有移除完成后再插入
+                @Override
+                public boolean moved(Unit unit, double oldX, double oldY) {
+                    if (locate(oldX, oldY) == locate(unit.getX(), unit.getY())) {
+                        return true;
+                    }
+                    doRemove(unit, oldX, oldY);
+                    return false;
+                }
+            };
+        }
+        if (!tracker.isLoaded()) {
+            loadAll(tracker.load(store));
+        } else {
+            tracker.sync(store, changes);
+        }
+    }
+    
+    // 子树中的单位总数
+    @Override
+    public int size() {
+        return count;
+    }
+    
+    private void releaseChildren() {
         for (int i = 0; i < nodes.length; i++) {
             if (nodes[i] != null) {
-                nodes[i].clear();
+                nodes[i].units.clear();
+                nodes[i].count = 0;
+                nodes[i].teamSlots = 0;
+                nodes[i].releaseChildren();
+                pool.release(nodes[i]);
                 nodes[i] = null;
             }
         }
     }
     
+    private QuadTree obtain(int level, double x, double y, double width, double height) {
+        QuadTree node = pool.acquire();
+        node.level = level;
+        node.bounds.x = x;
+        node.bounds.y = y;
+        node.bounds.width = width;
+        node.bounds.height = height;
+        return node;
+    }
+    
     private void split() {
         int subWidth = (int)(bounds.width / 2);
         int subHeight = (int)(bounds.height / 2);
         int x = (int)bounds.x;
         int y = (int)bounds.y;
         
-        nodes[0] = new QuadTree(level + 1, new Rectangle(x + subWidth, y, subWidth, subHeight));
-        nodes[1] = new QuadTree(level + 1, new Rectangle(x, y, subWidth, subHeight));
-        nodes[2] = new QuadTree(level + 1, new Rectangle(x, y + subHeight, subWidth, subHeight));
-        nodes[3] = new QuadTree(level + 1, new Rectangle(x + subWidth, y + subHeight, subWidth, subHeight));
+        nodes[0] = obtain(level + 1, x + subWidth, y, subWidth, subHeight);
+        nodes[1] = obtain(level + 1, x, y, subWidth, subHeight);
+        nodes[2] = obtain(level + 1, x, y + subHeight, subWidth, subHeight);
+        nodes[3] = obtain(level + 1, x + subWidth, y + subHeight, subWidth, subHeight);
     }
     
     private int getIndex(Unit unit) {
-        Node pos = unit.getPosition();
+        return getIndex(unit.getX(), unit.getY());
+    }
+    
+    private int getIndex(double x, double y) {
         int index = -1;
         double verticalMidpoint = bounds.x + bounds.width / 2;
         double horizontalMidpoint = bounds.y + bounds.height / 2;
         
-        boolean topQuadrant = pos.getY() < horizontalMidpoint;
-        boolean bottomQuadrant = pos.getY() > horizontalMidpoint;
+        boolean topQuadrant = y < horizontalMidpoint;
+        boolean bottomQuadrant = y > horizontalMidpoint;
         
-        if (pos.getX() < verticalMidpoint) {
+        if (x < verticalMidpoint) {
             if (topQuadrant) {
                 index = 1;
             } else if (bottomQuadrant) {
                 index = 2;
             }
-        } else if (pos.getX() > verticalMidpoint) {
+        } else if (x > verticalMidpoint) {
             if (topQuadrant) {
                 index = 0;
             } else if (bottomQuadrant) {
@@ -71,11 +173,17 @@ public class QuadTree {
         return index;
     }
     
-    public void insert(Unit unit) {
+    public synchronized void insert(Unit unit) {
+        doInsert(unit);
+    }
+    
+    private void doInsert(Unit unit) {
+        count++;
+        addTeam(unit.getTeam(), 1);
         if (nodes[0] != null) {
             int index = getIndex(unit);
             if (index != -1) {
-                nodes[index].insert(unit);
+                nodes[index].doInsert(unit);
                 return;
             }
         }
@@ -91,7 +199,7 @@ public class QuadTree {
             while (i < units.size()) {
                 int index = getIndex(units.get(i));
                 if (index != -1) {
-                    nodes[index].insert(units.remove(i));
+                    nodes[index].doInsert(units.remove(i));
                 } else {
                     i++;
                 }
@@ -99,11 +207,181 @@ public class QuadTree {
         }
     }
     
+    // 单位从(oldX, oldY)移动到当前位置后调用；仍落在同一个节点时什么都不做
+    public synchronized void update(Unit unit, double oldX, double oldY) {
+        if (locate(oldX, oldY) == locate(unit.getX(), unit.getY())) {
+            return;
+        }
+        if (doRemove(unit, oldX, oldY)) {
+            doInsert(unit);
+        }
+    }
+    
+    // 按单位当前位置移除，单位已经移动过时用remove(unit, x, y)传入插入时的位置
+    public synchronized boolean remove(Unit unit) {
+        return doRemove(unit, unit.getX(), unit.getY());
+    }
+    
+    public synchronized boolean remove(Unit unit, double x, double y) {
+        return doRemove(unit, x, y);
+    }
+    
+    // 坐标为(x, y)的单位所在的节点
+    private QuadTree locate(double x, double y) {
+        QuadTree node = this;
+        while (node.nodes[0] != null) {
+            int index = node.getIndex(x, y);
+            if (index == -1) {
+                break;
+            }
+            node = node.nodes[index];
+        }
+        return node;
+    }
+    
+    private boolean doRemove(Unit unit, double x, double y) {
+        if (nodes[0] != null) {
+            int index = getIndex(x, y);
+            if (index != -1) {
+                if (!nodes[index].doRemove(unit, x, y)) {
+                    return false;
+                }
+                count--;
+                addTeam(unit.getTeam(), -1);
+                mergeIfUnderflow();
+                return true;
+            }
+        }
+        if (!units.remove(unit)) {
+            return false;
+        }
+        count--;
+        addTeam(unit.getTeam(), -1);
+        mergeIfUnderflow();
+        return true;
+    }
+    
+    private void addTeam(int team, int delta) {
+        for (int i = 0; i < teamSlots; i++) {
+            if (teamIds[i] == team) {
+                teamCounts[i] += delta;
+                return;
+            }
+        }
+        if (teamSlots == teamIds.length) {
+            teamIds = Arrays.copyOf(teamIds, teamSlots * 2);
+            teamCounts = Arrays.copyOf(teamCounts, teamSlots * 2);
+        }
+        teamIds[teamSlots] = team;
+        teamCounts[teamSlots++] = delta;
+    }
+    
+    // 子树中是否有不属于team的单位
+    private boolean hasEnemies(int team) {
+        for (int i = 0; i < teamSlots; i++) {
+            if (teamIds[i] == team) {
+                return count > teamCounts[i];
+            }
+        }
+        return count > 0;
+    }
+    
+    // 子树的单位不超过一个节点的容量时，把子节点的单位收回来并归还子节点
+    private void mergeIfUnderflow() {
+        if (nodes[0] == null || count > MAX_OBJECTS) {
+            return;
+        }
+        for (QuadTree node : nodes) {
+            node.collect(units);
+        }
+        releaseChildren();
+    }
+    
+    private void collect(List<Unit> target) {
+        target.addAll(units);
+        if (nodes[0] != null) {
+            for (QuadTree node : nodes) {
+                node.collect(target);
+            }
+        }
+    }
+    
+    // 初始批量加载: 清空后自顶向下按象限划分一次建好整棵树，不必逐个插入再反复分裂
+    public synchronized void bulkLoad(List<Unit> loadUnits) {
+        clear();
+        loadAll(loadUnits);
+    }
+    
+    private void loadAll(List<Unit> loadUnits) {
+        reset();
+        Unit[] items = loadUnits.toArray(new Unit[0]);
+        build(items, new Unit[items.length], new int[items.length], 0, items.length);
+    }
+    
+    private void build(Unit[] items, Unit[] scratch, int[] quadrants, int from, int to) {
+        count = to - from;
+        for (int i = from; i < to; i++) {
+            addTeam(items[i].getTeam(), 1);
+        }
+        if (count <= MAX_OBJECTS || level >= MAX_LEVELS) {
+            for (int i = from; i < to; i++) {
+                units.add(items[i]);
+            }
+            return;
+        }
+        split();
+        // 计数排序: 先放压在分界线上留在本节点的单位，再依次放四个象限
+        int[] starts = new int[6];
+        for (int i = from; i < to; i++) {
+            quadrants[i] = getIndex(items[i]) + 1;
+            starts[quadrants[i] + 1]++;
+        }
+        starts[0] = from;
+        for (int q = 1; q < starts.length; q++) {
+            starts[q] += starts[q - 1];
+        }
+        int[] next = starts.clone();
+        for (int i = from; i < to; i++) {
+            scratch[next[quadrants[i]]++] = items[i];
+        }
+        System.arraycopy(scratch, from, items, from, to - from);
+        for (int i = starts[0]; i < starts[1]; i++) {
+            units.add(items[i]);
+        }
+        for (int q = 0; q < 4; q++) {
+            nodes[q].build(items, scratch, quadrants, starts[q + 1], starts[q + 2]);
+        }
+    }
+    
+    public void setMonitored(boolean monitored) {
+        this.monitored = monitored;
+    }
+    
     public List<Unit> retrieve(List<Unit> returnUnits, Rectangle range) {
+        return retrieve(returnUnits, range.x, range.y, range.width, range.height);
+    }
+    
+    // 不分配Rectangle的版本，供每个tick的战斗查询使用
+    public List<Unit> retrieve(List<Unit> returnUnits, double x, double y, double width, double height) {
+        return doRetrieve(returnUnits, x, y, width, height, false, 0);
+    }
+    
+    // 只返回不属于team的单位，全是本队单位的子树整棵跳过
+    @Override
+    public List<Unit> retrieveEnemies(List<Unit> returnUnits, double x, double y, double width, double height, int team) {
+        return doRetrieve(returnUnits, x, y, width, height, true, team);
+    }
+    
+    private List<Unit> doRetrieve(List<Unit> returnUnits, double x, double y, double width, double height,
+                                  boolean enemiesOnly, int team) {
+        if (!monitored) {
+            visit(x, y, width, height, 0, 0, -1, enemiesOnly, team, returnUnits, null);
+            return returnUnits;
+        }
         long startTime = System.currentTimeMillis();
         
         try {
-            doRetrieve(returnUnits, range);
+            visit(x, y, width, height, 0, 0, -1, enemiesOnly, team, returnUnits, null);
             return returnUnits;
         } finally {
             long queryTime = System.currentTimeMillis() - startTime;
@@ -111,54 +389,151 @@ public class QuadTree {
         }
     }
     
-    private void doRetrieve(List<Unit> returnUnits, Rectangle range) {
-        int index = getQuadrant(range);
-        if (index != -1 && nodes[0] != null) {
-            nodes[index].doRetrieve(returnUnits, range);
-        } else if (nodes[0] != null) {
-            for (QuadTree node : nodes) {
-                if (node != null && node.bounds.intersects(range)) {
-                    node.doRetrieve(returnUnits, range);
-                }
+    // 按访问者遍历矩形内的单位，不分配任何对象；访问期间不能修改四叉树
+    @Override
+    public void forEachInRect(double x, double y, double width, double height, Consumer<Unit> visitor) {
+        visit(x, y, width, height, 0, 0, -1, false, 0, null, visitor);
+    }
+    
+    // 按访问者遍历以(centerX, centerY)为圆心、radius为半径的圆内的单位
+    @Override
+    public void forEachInRadius(double centerX, double centerY, double radius, Consumer<Unit> visitor) {
+        visit(centerX - radius, centerY - radius, radius * 2, radius * 2,
+                centerX, centerY, radius * radius, false, 0, null, visitor);
+    }
+    
+    // 圆内不属于team的单位
+    @Override
+    public void forEachEnemyInRadius(double centerX, double centerY, double radius, int team, Consumer<Unit> visitor) {
+        visit(centerX - radius, centerY - radius, radius * 2, radius * 2,
+                centerX, centerY, radius * radius, true, team, null, visitor);
+    }
+    
+    // 子节点按父节点的中线划分(和insert一致)，而不是按取整后的子节点边界判断，避免漏掉落在取整缝隙里的单位。
+    // radiusSq小于0时只按矩形过滤；enemiesOnly时跳过team的单位；结果加入returnUnits，或者在returnUnits为null时交给visitor
+    private void visit(double x, double y, double width, double height,
+                       double centerX, double centerY, double radiusSq, boolean enemiesOnly, int team,
+                       List<Unit> returnUnits, Consumer<Unit> visitor) {
+        if (enemiesOnly && !hasEnemies(team)) {
+            return;
+        }
+        if (nodes[0] != null) {
+            double verticalMidpoint = bounds.x + bounds.width / 2;
+            double horizontalMidpoint = bounds.y + bounds.height / 2;
+            boolean left = x <= verticalMidpoint;
+            boolean right = x + width >= verticalMidpoint;
+            boolean top = y <= horizontalMidpoint;
+            boolean bottom = y + height >= horizontalMidpoint;
+            if (right && top) {
+                nodes[0].visit(x, y, width, height, centerX, centerY, radiusSq, enemiesOnly, team, returnUnits, visitor);
+            }
+            if (left && top) {
+                nodes[1].visit(x, y, width, height, centerX, centerY, radiusSq, enemiesOnly, team, returnUnits, visitor);
+            }
+            if (left && bottom) {
+                nodes[2].visit(x, y, width, height, centerX, centerY, radiusSq, enemiesOnly, team, returnUnits, visitor);
+            }
+            if (right && bottom) {
+                nodes[3].visit(x, y, width, height, centerX, centerY, radiusSq, enemiesOnly, team, returnUnits, visitor);
             }
         }
         
         // 使用快速过滤
-        for (Unit unit : units) {
-            if (isInRange(unit, range)) {
+        for (int i = 0; i < units.size(); i++) {
+            Unit unit = units.get(i);
+            if (enemiesOnly && unit.getTeam() == team) {
+                continue;
+            }
+            double unitX = unit.getX();
+            double unitY = unit.getY();
+            if (unitX < x || unitX > x + width || unitY < y || unitY > y + height) {
+                continue;
+            }
+            if (radiusSq >= 0) {
+                double dx = unitX - centerX;
+                double dy = unitY - centerY;
+                if (dx * dx + dy * dy > radiusSq) {
+                    continue;
+                }
+            }
+            if (returnUnits != null) {
                 returnUnits.add(unit);
+            } else {
+                visitor.accept(unit);
             }
         }
     }
     
-    private boolean isInRange(Unit unit, Rectangle range) {
-        Node pos = unit.getPosition();
-        return pos.getX() >= range.x && pos.getX() <= range.x + range.width &&
-               pos.getY() >= range.y && pos.getY() <= range.y + range.height;
+    @Override
+    public int nearest(double x, double y, int k, Unit[] out, double[] distanceSq) {
+        k = NearestUnits.limit(k, out, distanceSq);
+        if (k <= 0) {
+            return 0;
+        }
+        return search(x, y, k, out, distanceSq, 0, Double.POSITIVE_INFINITY, false, 0,
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+    
+    // 离(x, y)最近的存活敌人(队伍不等于team)，超过maxRadius时返回null
+    @Override
+    public Unit nearestEnemy(double x, double y, int team, double maxRadius) {
+        NearestScratch scratch = NEAREST_SCRATCH.get();
+        int found = search(x, y, 1, scratch.units, scratch.distanceSq, 0, maxRadius * maxRadius, true, team,
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+        Unit result = found > 0 ? scratch.units[0] : null;
+        scratch.units[0] = null;
+        return result;
+    }
+    
+    private static class NearestScratch {
+        final Unit[] units = new Unit[1];
+        final double[] distanceSq = new double[1];
     }
     
-    private int getQuadrant(Rectangle range) {
+    // 分支限界: 先走查询点所在的子节点，子区域的最近距离超过当前第k近时整棵子树跳过。
+    // 区域(minX, minY, maxX, maxY)由各级中线确定，根节点为整个平面
+    private int search(double x, double y, int k, Unit[] out, double[] distanceSq, int found, double limitSq,
+                       boolean enemiesOnly, int team, double minX, double minY, double maxX, double maxY) {
+        for (int i = 0; i < units.size(); i++) {
+            Unit unit = units.get(i);
+            if (enemiesOnly && (unit.getTeam() == team || !unit.isAlive())) {
+                continue;
+            }
+            double dx = unit.getX() - x;
+            double dy = unit.getY() - y;
+            double d = dx * dx + dy * dy;
+            if (d <= limitSq && (found < k || d < distanceSq[found - 1])) {
+                found = NearestUnits.offer(unit, d, k, out, distanceSq, found);
+            }
+        }
+        if (nodes[0] == null) {
+            return found;
+        }
         double verticalMidpoint = bounds.x + bounds.width / 2;
         double horizontalMidpoint = bounds.y + bounds.height / 2;
-        
-        boolean topQuadrant = range.y < horizontalMidpoint && range.y + range.height < horizontalMidpoint;
-        boolean bottomQuadrant = range.y > horizontalMidpoint;
-        
-        if (range.x < verticalMidpoint && range.x + range.width < verticalMidpoint) {
-            if (topQuadrant) {
-                return 1;
-            } else if (bottomQuadrant) {
-                return 2;
-            }
-        } else if (range.x > verticalMidpoint) {
-            if (topQuadrant) {
-                return 0;
-            } else if (bottomQuadrant) {
-                return 3;
+        int first = getIndex(x, y);
+        if (first == -1) {
+            first = 0;
+        }
+        for (int n = 0; n < 4; n++) {
+            int index = (first + n) & 3;
+            boolean east = index == 0 || index == 3;
+            boolean north = index == 0 || index == 1;
+            double childMinX = east ? verticalMidpoint : minX;
+            double childMaxX = east ? maxX : verticalMidpoint;
+            double childMinY = north ? minY : horizontalMidpoint;
+            double childMaxY = north ? horizontalMidpoint : maxY;
+            double dx = x < childMinX ? childMinX - x : (x > childMaxX ? x - childMaxX : 0);
+            double dy = y < childMinY ? childMinY - y : (y > childMaxY ? y - childMaxY : 0);
+            double bound = found < k ? limitSq : Math.min(limitSq, distanceSq[found - 1]);
+            if (dx * dx + dy * dy > bound || nodes[index].count == 0
+                    || (enemiesOnly && !nodes[index].hasEnemies(team))) {
+                continue;
             }
+            found = nodes[index].search(x, y, k, out, distanceSq, found, limitSq, enemiesOnly, team,
+                    childMinX, childMinY, childMaxX, childMaxY);
         }
-        
-        return -1;
+        return found;
     }
     
     public static class Rectangle {
@@ -172,10 +547,14 @@ public class QuadTree {
         }
         
         public boolean intersects(Rectangle other) {
-            return !(other.x > this.x + this.width ||
-                    other.x + other.width < this.x ||
-                    other.y > this.y + this.height ||
-                    other.y + other.height < this.y);
+            return intersects(other.x, other.y, other.width, other.height);
+        }
+        
+        boolean intersects(double x, double y, double width, double height) {
+            return !(x > this.x + this.width ||
+                    x + width < this.x ||
+                    y > this.y + this.height ||
+                    y + height < this.y);
         }
     }
 } 
\ No newline at end of file
@@ -2,69 +2,370 @@ package com.battle.ai.battle.spatial;
 
 import com.battle.ai.Node;
 import com.battle.ai.battle.Unit;
+import com.battle.ai.battle.UnitStore;
 
 import java.util.*;
+import java.util.function.Consumer;
 
-public class SpatialHashGrid {
+public class SpatialHashGrid implements SpatialIndex {
     private static final int CELL_SIZE = 128; // 4个格子大小作为一个分区
-    private final Map<Long, List<Unit>> grid = new HashMap<>();
+    private static final int ALL_TEAMS = Integer.MIN_VALUE;
+    private final Map<Long, Cell> grid = new HashMap<>();
+    private int size;
+    // 出现过单位的分区范围，只增不减，clear时重置；限制无半径的最近敌人查询向外找的圈数
+    private int minCellX = Integer.MAX_VALUE;
+    private int minCellY = Integer.MAX_VALUE;
+    private int maxCellX = Integer.MIN_VALUE;
+    private int maxCellY = Integer.MIN_VALUE;
+    private final PositionTracker tracker = new PositionTracker();
+    private final PositionTracker.Changes changes = new PositionTracker.Changes() {
+        @Override
+        public void added(Unit unit) {
+            addUnit(unit);
+        }
+        
+        @Override
+        public void removed(Unit unit, double x, double y) {
+            removeUnit(unit, x, y);
+        }
+        
+        @Override
+        public boolean moved(Unit unit, double oldX, double oldY) {
+            updateUnit(unit, oldX, oldY);
+            return true;
+        }
+    };
     
     public void addUnit(Unit unit) {
-        long cellId = getCellId(unit.getPosition());
-        grid.computeIfAbsent(cellId, k -> new ArrayList<>()).add(unit);
+        int cellX = (int)(unit.getX() / CELL_SIZE);
+        int cellY = (int)(unit.getY() / CELL_SIZE);
+        grid.computeIfAbsent(getCellId(cellX, cellY), k -> new Cell()).bucket(unit.getTeam()).add(unit);
+        size++;
+        minCellX = Math.min(minCellX, cellX);
+        minCellY = Math.min(minCellY, cellY);
+        maxCellX = Math.max(maxCellX, cellX);
+        maxCellY = Math.max(maxCellY, cellY);
+    }
+    
+    // 第一次全部加入，之后只处理位置或存活状态变化的单位
+    @Override
+    public void sync(UnitStore store) {
+        if (!tracker.isLoaded()) {
+            for (Unit unit : tracker.load(store)) {
+                addUnit(unit);
+            }
+        } else {
+            tracker.sync(store, changes);
+        }
+    }
+    
+    @Override
+    public int size() {
+        return size;
     }
     
     public void updateUnit(Unit unit, Node oldPosition) {
-        long oldCellId = getCellId(oldPosition);
-        long newCellId = getCellId(unit.getPosition());
+        updateUnit(unit, oldPosition.getX(), oldPosition.getY());
+    }
+    
+    public void updateUnit(Unit unit, double oldX, double oldY) {
+        long oldCellId = getCellId(oldX, oldY);
+        long newCellId = getCellId(unit.getX(), unit.getY());
         
         if (oldCellId != newCellId) {
-            grid.get(oldCellId).remove(unit);
+            Cell cell = grid.get(oldCellId);
+            if (cell != null && cell.remove(unit)) {
+                size--;
+            }
             addUnit(unit);
         }
     }
     
     public void removeUnit(Unit unit) {
-        long cellId = getCellId(unit.getPosition());
-        List<Unit> cell = grid.get(cellId);
-        if (cell != null) {
-            cell.remove(unit);
+        removeUnit(unit, unit.getX(), unit.getY());
+    }
+    
+    // 单位已经移动过时按加入时的位置移除
+    public void removeUnit(Unit unit, double x, double y) {
+        Cell cell = grid.get(getCellId(x, y));
+        if (cell != null && cell.remove(unit)) {
+            size--;
         }
     }
     
     public List<Unit> getNearbyUnits(Node position, double radius) {
-        Set<Unit> result = new HashSet<>();
+        return getNearbyUnits(position, radius, new ArrayList<>());
+    }
+    
+    // 每个单位只在一个分区里，不需要去重；结果追加到调用方提供的列表
+    public List<Unit> getNearbyUnits(Node position, double radius, List<Unit> result) {
+        double centerX = position.getX();
+        double centerY = position.getY();
         int cellRadius = (int)(radius / CELL_SIZE) + 1;
-        int baseX = (int)(position.getX() / CELL_SIZE);
-        int baseY = (int)(position.getY() / CELL_SIZE);
+        int baseX = (int)(centerX / CELL_SIZE);
+        int baseY = (int)(centerY / CELL_SIZE);
         
         for (int x = -cellRadius; x <= cellRadius; x++) {
             for (int y = -cellRadius; y <= cellRadius; y++) {
-                long cellId = getCellId(baseX + x, baseY + y);
-                List<Unit> cell = grid.get(cellId);
+                Cell cell = grid.get(getCellId(baseX + x, baseY + y));
                 if (cell != null) {
-                    for (Unit unit : cell) {
-                        if (unit.getPosition().distanceTo(position) <= radius) {
-                            result.add(unit);
+                    cell.scan(ALL_TEAMS, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                            Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                            centerX, centerY, radius * radius, result, null);
+                }
+            }
+        }
+        
+        return result;
+    }
+    
+    // 按访问者遍历圆内的单位，访问期间不能修改网格
+    @Override
+    public void forEachInRadius(double centerX, double centerY, double radius, Consumer<Unit> visitor) {
+        forEachInRect(centerX - radius, centerY - radius, radius * 2, radius * 2, centerX, centerY, radius * radius,
+                ALL_TEAMS, null, visitor);
+    }
+    
+    // 圆内不属于team的单位，本队的分桶整个跳过
+    @Override
+    public void forEachEnemyInRadius(double centerX, double centerY, double radius, int team, Consumer<Unit> visitor) {
+        forEachInRect(centerX - radius, centerY - radius, radius * 2, radius * 2, centerX, centerY, radius * radius,
+                team, null, visitor);
+    }
+    
+    @Override
+    public void forEachInRect(double x, double y, double width, double height, Consumer<Unit> visitor) {
+        forEachInRect(x, y, width, height, 0, 0, -1, ALL_TEAMS, null, visitor);
+    }
+    
+    @Override
+    public List<Unit> retrieveEnemies(List<Unit> returnUnits, double x, double y, double width, double height, int team) {
+        forEachInRect(x, y, width, height, 0, 0, -1, team, returnUnits, null);
+        return returnUnits;
+    }
+    
+    private void forEachInRect(double x, double y, double width, double height,
+                               double centerX, double centerY, double radiusSq, int excludedTeam,
+                               List<Unit> result, Consumer<Unit> visitor) {
+        int minCellX = (int)Math.floor(x / CELL_SIZE);
+        int maxCellX = (int)Math.floor((x + width) / CELL_SIZE);
+        int minCellY = (int)Math.floor(y / CELL_SIZE);
+        int maxCellY = (int)Math.floor((y + height) / CELL_SIZE);
+        // 分区号按(int)截断，负坐标和0号分区重叠，多扫一圈
+        if (x < 0) {
+            minCellX = Math.min(minCellX, 0);
+            maxCellX = Math.max(maxCellX, 0);
+        }
+        if (y < 0) {
+            minCellY = Math.min(minCellY, 0);
+            maxCellY = Math.max(maxCellY, 0);
+        }
+        for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+            for (int cellY = minCellY; cellY <= maxCellY; cellY++) {
+                Cell cell = grid.get(getCellId(cellX, cellY));
+                if (cell != null) {
+                    cell.scan(excludedTeam, x, y, x + width, y + height, centerX, centerY, radiusSq, result, visitor);
+                }
+            }
+        }
+    }
+    
+    // 从所在分区一圈圈向外找最近的存活敌人，已找到的距离不超过下一圈的最近可能距离时停止
+    @Override
+    public Unit nearestEnemy(double x, double y, int team, double maxRadius) {
+        if (size == 0) {
+            return null;
+        }
+        int baseX = (int)(x / CELL_SIZE);
+        int baseY = (int)(y / CELL_SIZE);
+        long extent = Math.max(Math.max((long) baseX - minCellX, (long) maxCellX - baseX),
+                Math.max((long) baseY - minCellY, (long) maxCellY - baseY));
+        int maxRing = (int) Math.min(extent, maxRadius / CELL_SIZE + 1);
+        Unit best = null;
+        double bestSq = maxRadius * maxRadius;
+        for (int ring = 0; ring <= maxRing; ring++) {
+            if (best != null) {
+                double reach = (ring - 1) * (double) CELL_SIZE;
+                if (reach > 0 && reach * reach >= bestSq) {
+                    break;
+                }
+            }
+            // 只走这一圈的边，并限制在有单位的分区范围内
+            long minY = Math.max((long) baseY - ring, minCellY);
+            long maxY = Math.min((long) baseY + ring, maxCellY);
+            for (long cy = minY; cy <= maxY; cy++) {
+                boolean edgeRow = cy == (long) baseY - ring || cy == (long) baseY + ring;
+                // 中间的行只看这一圈左右两端的格子
+                long step = edgeRow ? 1 : Math.max(2L * ring, 1);
+                for (long cx = (long) baseX - ring; cx <= (long) baseX + ring; cx += step) {
+                    if (cx < minCellX || cx > maxCellX) {
+                        continue;
+                    }
+                    Cell cell = grid.get(getCellId((int) cx, (int) cy));
+                    if (cell == null) {
+                        continue;
+                    }
+                    for (int b = 0; b < cell.size; b++) {
+                        if (cell.teams[b] == team) {
+                            continue;
+                        }
+                        List<Unit> bucket = cell.buckets[b];
+                        for (int i = 0; i < bucket.size(); i++) {
+                            Unit unit = bucket.get(i);
+                            if (!unit.isAlive()) {
+                                continue;
+                            }
+                            double ux = unit.getX() - x;
+                            double uy = unit.getY() - y;
+                            double d = ux * ux + uy * uy;
+                            if (d <= bestSq && (best == null || d < bestSq)) {
+                                best = unit;
+                                bestSq = d;
+                            }
                         }
                     }
                 }
             }
         }
-        
-        return new ArrayList<>(result);
+        return best;
     }
     
-    private long getCellId(Node position) {
-        return getCellId((int)(position.getX() / CELL_SIZE), 
-                        (int)(position.getY() / CELL_SIZE));
+    // 和nearestEnemy一样一圈圈向外找，已找到k个且第k近不超过下一圈的最近可能距离时停止
+    @Override
+    public int nearest(double x, double y, int k, Unit[] out, double[] distanceSq) {
+        k = NearestUnits.limit(k, out, distanceSq);
+        if (k <= 0 || size == 0) {
+            return 0;
+        }
+        int baseX = (int)(x / CELL_SIZE);
+        int baseY = (int)(y / CELL_SIZE);
+        long maxRing = Math.max(Math.max((long) baseX - minCellX, (long) maxCellX - baseX),
+                Math.max((long) baseY - minCellY, (long) maxCellY - baseY));
+        int found = 0;
+        for (long ring = 0; ring <= maxRing; ring++) {
+            if (found == k) {
+                double reach = (ring - 1) * (double) CELL_SIZE;
+                if (reach > 0 && reach * reach >= distanceSq[k - 1]) {
+                    break;
+                }
+            }
+            long minY = Math.max((long) baseY - ring, minCellY);
+            long maxY = Math.min((long) baseY + ring, maxCellY);
+            for (long cy = minY; cy <= maxY; cy++) {
+                boolean edgeRow = cy == (long) baseY - ring || cy == (long) baseY + ring;
+                long step = edgeRow ? 1 : Math.max(2L * ring, 1);
+                for (long cx = (long) baseX - ring; cx <= (long) baseX + ring; cx += step) {
+                    if (cx < minCellX || cx > maxCellX) {
+                        continue;
+                    }
+                    Cell cell = grid.get(getCellId((int) cx, (int) cy));
+                    if (cell == null) {
+                        continue;
+                    }
+                    for (int b = 0; b < cell.size; b++) {
+                        List<Unit> bucket = cell.buckets[b];
+                        for (int i = 0; i < bucket.size(); i++) {
+                            Unit unit = bucket.get(i);
+                            double ux = unit.getX() - x;
+                            double uy = unit.getY() - y;
+                            double d = ux * ux + uy * uy;
+                            if (found < k || d < distanceSq[found - 1]) {
+                                found = NearestUnits.offer(unit, d, k, out, distanceSq, found);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return found;
+    }
+    
+    private long getCellId(double x, double y) {
+        return getCellId((int)(x / CELL_SIZE), (int)(y / CELL_SIZE));
     }
     
     private long getCellId(int x, int y) {
         return ((long)x << 32) | (y & 0xFFFFFFFFL);
     }
     
+    @Override
     public void clear() {
         grid.clear();
+        size = 0;
+        minCellX = Integer.MAX_VALUE;
+        minCellY = Integer.MAX_VALUE;
+        maxCellX = Integer.MIN_VALUE;
+        maxCellY = Integer.MIN_VALUE;
+        tracker.reset();
+    }
+    
+    // 一个分区内按队伍分桶，敌人查询直接跳过本队的桶，不用逐个比较队伍
+    private static class Cell {
+        int[] teams = new int[2];
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        List<Unit>[] buckets = new List[2];
+        int size;
+        
+        List<Unit> bucket(int team) {
+            for (int i = 0; i < size; i++) {
+                if (teams[i] == team) {
+                    return buckets[i];
+                }
+            }
+            if (size == teams.length) {
+                teams = Arrays.copyOf(teams, size * 2);
+                buckets = Arrays.copyOf(buckets, size * 2);
+            }
+            teams[size] = team;
+            buckets[size] = new ArrayList<>();
+            return buckets[size++];
+        }
+        
+        // 先按单位当前的队伍找桶，队伍在加入后被修改过时再找其他桶
+        boolean remove(Unit unit) {
+            int team = unit.getTeam();
+            for (int i = 0; i < size; i++) {
+                if (teams[i] == team && buckets[i].remove(unit)) {
+                    return true;
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                if (teams[i] != team && buckets[i].remove(unit)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        // radiusSq小于0时只按矩形过滤；结果加入result，或者在result为null时交给visitor
+        void scan(int excludedTeam, double minX, double minY, double maxX, double maxY,
+                  double centerX, double centerY, double radiusSq, List<Unit> result, Consumer<Unit> visitor) {
+            for (int b = 0; b < size; b++) {
+                if (teams[b] == excludedTeam) {
+                    continue;
+                }
+                List<Unit> bucket = buckets[b];
+                for (int i = 0; i < bucket.size(); i++) {
+                    Unit unit = bucket.get(i);
+                    double unitX = unit.getX();
+                    double unitY = unit.getY();
+                    if (unitX < minX || unitX > maxX || unitY < minY || unitY > maxY) {
+                        continue;
+                    }
+                    if (radiusSq >= 0) {
+                        double dx = unitX - centerX;
+                        double dy = unitY - centerY;
+                        if (dx * dx + dy * dy > radiusSq) {
+                            continue;
+                        }
+                    }
+                    if (result != null) {
+                        result.add(unit);
+                    } else {
+                        visitor.accept(unit);
+                    }
+                }
+            }
+        }
     }
-} 
\ No newline at end of file
+}
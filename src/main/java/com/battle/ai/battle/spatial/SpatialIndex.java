@@ -0,0 +1,30 @@
+package com.battle.ai.battle.spatial;
+
+import com.battle.ai.battle.Unit;
+import com.battle.ai.battle.UnitStore;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+// 战斗使用的空间索引，QuadTree、SpatialHashGrid和UniformGridIndex都实现了它，BattleSystem按Broadphase只用其中一个。
+// sync之后到下一次sync之前，查询按单位当前坐标过滤，但单位移动太远时可能漏掉；查询期间不能修改索引。
+public interface SpatialIndex extends SpatialQuery {
+    // 与UnitStore中的存活单位同步；增量结构只处理变化的单位，重建型结构整体重建
+    void sync(UnitStore store);
+
+    void clear();
+
+    // 索引中的单位数
+    int size();
+
+    void forEachInRect(double x, double y, double width, double height, Consumer<Unit> visitor);
+
+    void forEachInRadius(double centerX, double centerY, double radius, Consumer<Unit> visitor);
+
+    // 矩形内不属于team的单位追加到调用方的列表
+    List<Unit> retrieveEnemies(List<Unit> returnUnits, double x, double y, double width, double height, int team);
+
+    // 离(x, y)最近的k个单位(不分队伍)按距离从近到远写入调用方提供的out和distanceSq，返回找到的个数；
+    // k不超过两个数组的长度，查询本身不分配对象
+    int nearest(double x, double y, int k, Unit[] out, double[] distanceSq);
+}
@@ -0,0 +1,63 @@
+package com.battle.ai.battle.spatial;
+
+import com.battle.ai.battle.Unit;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+// 攻击和技能选目标用的空间查询，由QuadTree或SpatialHashGrid提供，代价取决于附近的单位密度而不是战场规模。
+// 没有空间索引时可以用of(List)包装单位列表，退回线性扫描。
+public interface SpatialQuery {
+    // 圆内不属于team的单位(包括已死亡的，由调用方过滤)
+    void forEachEnemyInRadius(double centerX, double centerY, double radius, int team, Consumer<Unit> visitor);
+
+    // 离(x, y)最近的存活敌人，超过maxRadius时返回null
+    Unit nearestEnemy(double x, double y, int team, double maxRadius);
+
+    static SpatialQuery of(List<Unit> units) {
+        return new ListQuery(units);
+    }
+
+    class ListQuery implements SpatialQuery {
+        private final List<Unit> units;
+
+        ListQuery(List<Unit> units) {
+            this.units = units;
+        }
+
+        @Override
+        public void forEachEnemyInRadius(double centerX, double centerY, double radius, int team, Consumer<Unit> visitor) {
+            for (int i = 0; i < units.size(); i++) {
+                Unit unit = units.get(i);
+                if (unit.getTeam() == team) {
+                    continue;
+                }
+                double dx = unit.getX() - centerX;
+                double dy = unit.getY() - centerY;
+                if (dx * dx + dy * dy <= radius * radius) {
+                    visitor.accept(unit);
+                }
+            }
+        }
+
+        @Override
+        public Unit nearestEnemy(double x, double y, int team, double maxRadius) {
+            Unit best = null;
+            double bestSq = maxRadius * maxRadius;
+            for (int i = 0; i < units.size(); i++) {
+                Unit unit = units.get(i);
+                if (unit.getTeam() == team || !unit.isAlive()) {
+                    continue;
+                }
+                double dx = unit.getX() - x;
+                double dy = unit.getY() - y;
+                double d = dx * dx + dy * dy;
+                if (d <= bestSq && (best == null || d < bestSq)) {
+                    best = unit;
+                    bestSq = d;
+                }
+            }
+            return best;
+        }
+    }
+}
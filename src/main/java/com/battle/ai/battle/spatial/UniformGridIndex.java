@@ -0,0 +1,277 @@
+package com.battle.ai.battle.spatial;
+
+import com.battle.ai.battle.Unit;
+import com.battle.ai.battle.UnitStore;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+// 稠密的均匀网格粗筛。每个tick按格子对UnitStore的下标做一次计数排序，
+// 得到一个连续的下标数组和每个格子的起始偏移，重建是O(N)且不分配对象；
+// 同一行相邻格子的单位在数组里也是相邻的，邻域扫描基本是顺序读。
+// 世界范围外的单位归到最近的边缘格子。重建之后单位又移动过时，查询仍按单位当前坐标过滤。
+public class UniformGridIndex implements SpatialIndex {
+    private final double cellSize;
+    private final int columns;
+    private final int rows;
+    // 第c个格子的单位是sorted[cellStart[c]]到sorted[cellStart[c + 1] - 1]
+    private final int[] cellStart;
+    private final int[] cursor;
+    private int[] cellOf = new int[0];
+    private int[] sorted = new int[0];
+    private int size;
+    private UnitStore store;
+    // sync时是否并行计算格子
+    private boolean parallel;
+
+    public UniformGridIndex(double width, double height, double cellSize) {
+        if (width <= 0 || height <= 0 || cellSize <= 0) {
+            throw new IllegalArgumentException("width, height and cellSize must be positive");
+        }
+        this.cellSize = cellSize;
+        this.columns = Math.max(1, (int) Math.ceil(width / cellSize));
+        this.rows = Math.max(1, (int) Math.ceil(height / cellSize));
+        this.cellStart = new int[columns * rows + 1];
+        this.cursor = new int[columns * rows];
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    // 重建型结构，每次同步都整体重建
+    @Override
+    public void sync(UnitStore store) {
+        rebuild(store, parallel);
+    }
+
+    public void rebuild(UnitStore store) {
+        rebuild(store, false);
+    }
+
+    @Override
+    public void clear() {
+        store = null;
+        size = 0;
+    }
+
+    // 只收录存活的单位。parallel时并行计算每个单位的格子，计数和分发仍然顺序进行以保持同一格内按下标排序
+    public void rebuild(UnitStore store, boolean parallel) {
+        this.store = store;
+        int count = store.size();
+        if (cellOf.length < count) {
+            int capacity = Math.max(count, cellOf.length * 2);
+            cellOf = new int[capacity];
+            sorted = new int[capacity];
+        }
+        if (parallel) {
+            IntStream.range(0, count).parallel().forEach(i -> cellOf[i] = cellIndex(store, i));
+        } else {
+            for (int i = 0; i < count; i++) {
+                cellOf[i] = cellIndex(store, i);
+            }
+        }
+
+        Arrays.fill(cellStart, 0);
+        for (int i = 0; i < count; i++) {
+            if (cellOf[i] >= 0) {
+                cellStart[cellOf[i] + 1]++;
+            }
+        }
+        for (int c = 1; c < cellStart.length; c++) {
+            cellStart[c] += cellStart[c - 1];
+        }
+        System.arraycopy(cellStart, 0, cursor, 0, cursor.length);
+        for (int i = 0; i < count; i++) {
+            if (cellOf[i] >= 0) {
+                sorted[cursor[cellOf[i]]++] = i;
+            }
+        }
+        size = cellStart[cellStart.length - 1];
+    }
+
+    private int cellIndex(UnitStore store, int index) {
+        if (!store.isAlive(index)) {
+            return -1;
+        }
+        return row(store.getY(index)) * columns + column(store.getX(index));
+    }
+
+    private int column(double x) {
+        int column = (int) Math.floor(x / cellSize);
+        return column < 0 ? 0 : (column >= columns ? columns - 1 : column);
+    }
+
+    private int row(double y) {
+        int row = (int) Math.floor(y / cellSize);
+        return row < 0 ? 0 : (row >= rows ? rows - 1 : row);
+    }
+
+    // 最近一次重建时收录的单位数
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void forEachInRect(double x, double y, double width, double height, Consumer<Unit> visitor) {
+        scan(x, y, width, height, 0, 0, -1, false, 0, null, visitor);
+    }
+
+    @Override
+    public void forEachInRadius(double centerX, double centerY, double radius, Consumer<Unit> visitor) {
+        scan(centerX - radius, centerY - radius, radius * 2, radius * 2, centerX, centerY, radius * radius,
+                false, 0, null, visitor);
+    }
+
+    @Override
+    public void forEachEnemyInRadius(double centerX, double centerY, double radius, int team, Consumer<Unit> visitor) {
+        scan(centerX - radius, centerY - radius, radius * 2, radius * 2, centerX, centerY, radius * radius,
+                true, team, null, visitor);
+    }
+
+    // 矩形内不属于team的单位追加到调用方的列表
+    @Override
+    public List<Unit> retrieveEnemies(List<Unit> returnUnits, double x, double y, double width, double height, int team) {
+        scan(x, y, width, height, 0, 0, -1, true, team, returnUnits, null);
+        return returnUnits;
+    }
+
+    // 一行内相邻格子在sorted里是连续的一段，按行扫描
+    private void scan(double x, double y, double width, double height,
+                      double centerX, double centerY, double radiusSq, boolean enemiesOnly, int team,
+                      List<Unit> returnUnits, Consumer<Unit> visitor) {
+        if (store == null || size == 0) {
+            return;
+        }
+        int minColumn = column(x);
+        int maxColumn = column(x + width);
+        int minRow = row(y);
+        int maxRow = row(y + height);
+        double maxX = x + width;
+        double maxY = y + height;
+        for (int r = minRow; r <= maxRow; r++) {
+            int from = cellStart[r * columns + minColumn];
+            int to = cellStart[r * columns + maxColumn + 1];
+            for (int k = from; k < to; k++) {
+                int index = sorted[k];
+                if (enemiesOnly && store.getTeam(index) == team) {
+                    continue;
+                }
+                double unitX = store.getX(index);
+                double unitY = store.getY(index);
+                if (unitX < x || unitX > maxX || unitY < y || unitY > maxY) {
+                    continue;
+                }
+                if (radiusSq >= 0) {
+                    double dx = unitX - centerX;
+                    double dy = unitY - centerY;
+                    if (dx * dx + dy * dy > radiusSq) {
+                        continue;
+                    }
+                }
+                if (returnUnits != null) {
+                    returnUnits.add(store.get(index));
+                } else {
+                    visitor.accept(store.get(index));
+                }
+            }
+        }
+    }
+
+    // 从所在格子一圈圈向外找，已找到的距离不超过下一圈的最近可能距离时停止
+    @Override
+    public Unit nearestEnemy(double x, double y, int team, double maxRadius) {
+        if (store == null || size == 0) {
+            return null;
+        }
+        int baseColumn = column(x);
+        int baseRow = row(y);
+        int maxRing = Math.max(columns, rows);
+        if (maxRadius < Double.POSITIVE_INFINITY) {
+            maxRing = Math.min(maxRing, (int) (maxRadius / cellSize) + 1);
+        }
+        int best = -1;
+        double bestSq = maxRadius * maxRadius;
+        for (int ring = 0; ring <= maxRing; ring++) {
+            if (best >= 0) {
+                double reach = (ring - 1) * cellSize;
+                if (reach > 0 && reach * reach >= bestSq) {
+                    break;
+                }
+            }
+            int minRow = Math.max(0, baseRow - ring);
+            int maxRow = Math.min(rows - 1, baseRow + ring);
+            for (int r = minRow; r <= maxRow; r++) {
+                boolean edgeRow = r == baseRow - ring || r == baseRow + ring;
+                // 中间的行只看这一圈左右两端的格子
+                int step = edgeRow ? 1 : 2 * ring;
+                for (int c = baseColumn - ring; c <= baseColumn + ring; c += Math.max(step, 1)) {
+                    if (c < 0 || c >= columns) {
+                        continue;
+                    }
+                    int cell = r * columns + c;
+                    for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                        int index = sorted[k];
+                        if (store.getTeam(index) == team || !store.isAlive(index)) {
+                            continue;
+                        }
+                        double dx = store.getX(index) - x;
+                        double dy = store.getY(index) - y;
+                        double d = dx * dx + dy * dy;
+                        if (d <= bestSq && (best < 0 || d < bestSq)) {
+                            best = index;
+                            bestSq = d;
+                        }
+                    }
+                }
+            }
+        }
+        return best >= 0 ? store.get(best) : null;
+    }
+
+    // 和nearestEnemy一样一圈圈向外找，已找到k个且第k近不超过下一圈的最近可能距离时停止
+    @Override
+    public int nearest(double x, double y, int k, Unit[] out, double[] distanceSq) {
+        k = NearestUnits.limit(k, out, distanceSq);
+        if (k <= 0 || store == null || size == 0) {
+            return 0;
+        }
+        int baseColumn = column(x);
+        int baseRow = row(y);
+        int maxRing = Math.max(columns, rows);
+        int found = 0;
+        for (int ring = 0; ring <= maxRing; ring++) {
+            if (found == k) {
+                double reach = (ring - 1) * cellSize;
+                if (reach > 0 && reach * reach >= distanceSq[k - 1]) {
+                    break;
+                }
+            }
+            int minRow = Math.max(0, baseRow - ring);
+            int maxRow = Math.min(rows - 1, baseRow + ring);
+            for (int r = minRow; r <= maxRow; r++) {
+                boolean edgeRow = r == baseRow - ring || r == baseRow + ring;
+                int step = edgeRow ? 1 : 2 * ring;
+                for (int c = baseColumn - ring; c <= baseColumn + ring; c += Math.max(step, 1)) {
+                    if (c < 0 || c >= columns) {
+                        continue;
+                    }
+                    int cell = r * columns + c;
+                    for (int n = cellStart[cell]; n < cellStart[cell + 1]; n++) {
+                        int index = sorted[n];
+                        double dx = store.getX(index) - x;
+                        double dy = store.getY(index) - y;
+                        double d = dx * dx + dy * dy;
+                        if (found < k || d < distanceSq[found - 1]) {
+                            found = NearestUnits.offer(store.get(index), d, k, out, distanceSq, found);
+                        }
+                    }
+                }
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,380 @@
+package com.battle.ai.battle.terrain;
+
+import java.util.Arrays;
+
+// 每个格子所属的连通区域编号(8连通，与Grid.getNeighbors一致)，不可通行的格子为-1。
+// 第一次使用时用两遍扫描的并查集整体标记，之后随地形修改增量维护:
+// 新增可通行格子时把相邻的区域合并进最大的那个，新增障碍时只有周围一圈的可通行格子
+// 断成多段才搜索是否真的被切断。所有修改都在Grid的地形锁内进行。
+class ComponentLabels {
+    static final int NONE = -1;
+
+    // 周围一圈按顺时针排列: 上、右上、右、右下、下、左下、左、左上
+    private static final int[] RING_DX = {0, 1, 1, 1, 0, -1, -1, -1};
+    private static final int[] RING_DY = {-1, -1, 0, 1, 1, 1, 0, -1};
+    // 环上与第i个格子相邻的格子: 环上相邻的格子彼此相邻；两个正交方向的格子(偶数下标)之间也是斜向相邻
+    private static final int[][] RING_NEIGHBORS = new int[8][];
+
+    static {
+        for (int i = 0; i < 8; i++) {
+            RING_NEIGHBORS[i] = (i & 1) == 0
+                    ? new int[] {(i + 1) & 7, (i + 7) & 7, (i + 2) & 7, (i + 6) & 7}
+                    : new int[] {(i + 1) & 7, (i + 7) & 7};
+        }
+    }
+
+    private final int width;
+    private final int height;
+    private final int[] labels;
+    private int[] sizes = new int[16];
+    private int nextLabel;
+    private int[] stack = new int[64];
+    // splitIfDisconnected的访问标记: visitStamp等于当前代数时visitGroup有效，第一次切分时才分配
+    private int[] visitStamp;
+    private int[] visitGroup;
+    private int generation;
+
+    private ComponentLabels(int width, int height, int[] labels) {
+        this.width = width;
+        this.height = height;
+        this.labels = labels;
+    }
+
+    static ComponentLabels build(Grid grid) {
+        int width = grid.getWidth();
+        int height = grid.getHeight();
+        int[] labels = new int[width * height];
+        // 第一遍: labels作为并查集的父指针，总是把大的根挂到小的根下面，因此父节点下标一定更小
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int cell = y * width + x;
+                if (!grid.isWalkable(cell)) {
+                    labels[cell] = NONE;
+                    continue;
+                }
+                labels[cell] = cell;
+                if (x > 0 && labels[cell - 1] != NONE) {
+                    union(labels, cell, cell - 1);
+                }
+                if (y > 0) {
+                    int up = cell - width;
+                    if (labels[up] != NONE) {
+                        union(labels, cell, up);
+                    }
+                    if (x > 0 && labels[up - 1] != NONE) {
+                        union(labels, cell, up - 1);
+                    }
+                    if (x < width - 1 && labels[up + 1] != NONE) {
+                        union(labels, cell, up + 1);
+                    }
+                }
+            }
+        }
+
+        ComponentLabels components = new ComponentLabels(width, height, labels);
+        // 第二遍: 父节点先于子节点处理，根格子暂存编码后的编号 -(label+2)
+        for (int cell = 0; cell < labels.length; cell++) {
+            int parent = labels[cell];
+            if (parent == NONE) {
+                continue;
+            }
+            int label;
+            if (parent == cell) {
+                label = components.newLabel();
+                labels[cell] = -(label + 2);
+            } else {
+                int root = labels[parent];
+                label = root >= 0 ? root : -(root + 2);
+                labels[cell] = label;
+            }
+            components.sizes[label]++;
+        }
+        for (int cell = 0; cell < labels.length; cell++) {
+            if (labels[cell] < NONE) {
+                labels[cell] = -(labels[cell] + 2);
+            }
+        }
+        return components;
+    }
+
+    // 从地图文件恢复已算好的编号
+    static ComponentLabels restore(int width, int height, int[] labels) {
+        ComponentLabels components = new ComponentLabels(width, height, labels);
+        for (int label : labels) {
+            if (label == NONE) {
+                continue;
+            }
+            while (label >= components.nextLabel) {
+                components.newLabel();
+            }
+            components.sizes[label]++;
+        }
+        return components;
+    }
+
+    private static void union(int[] parents, int a, int b) {
+        int rootA = find(parents, a);
+        int rootB = find(parents, b);
+        if (rootA < rootB) {
+            parents[rootB] = rootA;
+        } else if (rootB < rootA) {
+            parents[rootA] = rootB;
+        }
+    }
+
+    private static int find(int[] parents, int cell) {
+        while (parents[cell] != cell) {
+            parents[cell] = parents[parents[cell]];
+            cell = parents[cell];
+        }
+        return cell;
+    }
+
+    int get(int cell) {
+        return labels[cell];
+    }
+
+    int size(int label) {
+        return label >= 0 && label < nextLabel ? sizes[label] : 0;
+    }
+
+    int[] labels() {
+        return labels;
+    }
+
+    void onWalkabilityChanged(int x, int y, boolean walkable) {
+        if (walkable) {
+            addCell(x, y);
+        } else {
+            removeCell(x, y);
+        }
+    }
+
+    private void addCell(int x, int y) {
+        int cell = y * width + x;
+        int largest = NONE;
+        for (int i = 0; i < 8; i++) {
+            int label = labelAt(x + RING_DX[i], y + RING_DY[i]);
+            if (label != NONE && (largest == NONE || sizes[label] > sizes[largest])) {
+                largest = label;
+            }
+        }
+        if (largest == NONE) {
+            int label = newLabel();
+            labels[cell] = label;
+            sizes[label] = 1;
+            return;
+        }
+        labels[cell] = largest;
+        sizes[largest]++;
+        // 其余相邻区域并入最大的区域，只需重写较小区域的格子
+        for (int i = 0; i < 8; i++) {
+            int nx = x + RING_DX[i];
+            int ny = y + RING_DY[i];
+            int label = labelAt(nx, ny);
+            if (label != NONE && label != largest) {
+                sizes[largest] += flood(ny * width + nx, label, largest);
+                sizes[label] = 0;
+            }
+        }
+    }
+
+    private void removeCell(int x, int y) {
+        int cell = y * width + x;
+        int label = labels[cell];
+        if (label == NONE) {
+            return;
+        }
+        labels[cell] = NONE;
+        sizes[label]--;
+
+        // 周围一圈可通行格子彼此8连通的段数，只有一段时区域不可能被切断
+        int[] groupOf = new int[8];
+        int groups = 0;
+        for (int i = 0; i < 8; i++) {
+            groupOf[i] = NONE;
+        }
+        for (int i = 0; i < 8; i++) {
+            if (labelAt(x + RING_DX[i], y + RING_DY[i]) == NONE || groupOf[i] != NONE) {
+                continue;
+            }
+            markRingGroup(x, y, i, groups, groupOf);
+            groups++;
+        }
+        if (groups <= 1) {
+            return;
+        }
+
+        splitIfDisconnected(x, y, label, groups, groupOf);
+    }
+
+    // 从各段同时做广度优先搜索，两个搜索相遇就合并；某个搜索先耗尽说明它是被切出去的区域，
+    // 只重写这部分格子。剩下最后一个搜索时停止，它保留原编号，因此代价取决于较小的一侧
+    private void splitIfDisconnected(int x, int y, int label, int groups, int[] groupOf) {
+        int[][] queues = new int[groups][];
+        int[] heads = new int[groups];
+        int[] tails = new int[groups];
+        int[] owners = new int[groups];
+        int[] starts = new int[groups];
+        nextGeneration();
+        for (int group = 0; group < groups; group++) {
+            queues[group] = new int[16];
+            owners[group] = group;
+        }
+        for (int i = 0; i < 8; i++) {
+            int group = groupOf[i];
+            if (group == NONE) {
+                continue;
+            }
+            int cell = (y + RING_DY[i]) * width + x + RING_DX[i];
+            visit(cell, group);
+            if (tails[group] == queues[group].length) {
+                queues[group] = Arrays.copyOf(queues[group], tails[group] * 2);
+            }
+            queues[group][tails[group]++] = cell;
+            starts[group] = cell;
+        }
+
+        int live = groups;
+        while (live > 1) {
+            for (int group = 0; group < groups && live > 1; group++) {
+                if (heads[group] == tails[group]) {
+                    continue;
+                }
+                int cell = queues[group][heads[group]++];
+                int cx = cell % width;
+                int cy = cell / width;
+                for (int i = 0; i < 8; i++) {
+                    int nx = cx + RING_DX[i];
+                    int ny = cy + RING_DY[i];
+                    if (labelAt(nx, ny) != label) {
+                        continue;
+                    }
+                    int neighbor = ny * width + nx;
+                    if (visitStamp[neighbor] != generation) {
+                        visit(neighbor, group);
+                        if (tails[group] == queues[group].length) {
+                            queues[group] = Arrays.copyOf(queues[group], tails[group] * 2);
+                        }
+                        queues[group][tails[group]++] = neighbor;
+                    } else {
+                        int ownerA = owner(owners, group);
+                        int ownerB = owner(owners, visitGroup[neighbor]);
+                        if (ownerA != ownerB) {
+                            owners[ownerB] = ownerA;
+                            live--;
+                        }
+                    }
+                }
+                if (heads[group] == tails[group] && isExhausted(owners, heads, tails, group)) {
+                    // 这一侧已经走完且没有和其他搜索相遇，成为新的区域
+                    int newLabel = newLabel();
+                    int root = owner(owners, group);
+                    for (int member = 0; member < groups; member++) {
+                        if (owner(owners, member) == root && labels[starts[member]] == label) {
+                            sizes[newLabel] += flood(starts[member], label, newLabel);
+                        }
+                    }
+                    sizes[label] -= sizes[newLabel];
+                    live--;
+                }
+            }
+        }
+    }
+
+    private void nextGeneration() {
+        if (visitStamp == null) {
+            visitStamp = new int[labels.length];
+            visitGroup = new int[labels.length];
+        }
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            // 代数溢出时才真正清空
+            Arrays.fill(visitStamp, 0);
+            generation = 1;
+        }
+    }
+
+    private void visit(int cell, int group) {
+        visitStamp[cell] = generation;
+        visitGroup[cell] = group;
+    }
+
+    private static int owner(int[] owners, int group) {
+        while (owners[group] != group) {
+            group = owners[group];
+        }
+        return group;
+    }
+
+    private static boolean isExhausted(int[] owners, int[] heads, int[] tails, int group) {
+        int root = owner(owners, group);
+        for (int member = 0; member < owners.length; member++) {
+            if (owner(owners, member) == root && heads[member] != tails[member]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void markRingGroup(int x, int y, int first, int group, int[] groupOf) {
+        int count = 0;
+        int[] pending = new int[8];
+        pending[count++] = first;
+        groupOf[first] = group;
+        while (count > 0) {
+            int i = pending[--count];
+            for (int j : RING_NEIGHBORS[i]) {
+                if (groupOf[j] == NONE && labelAt(x + RING_DX[j], y + RING_DY[j]) != NONE) {
+                    groupOf[j] = group;
+                    pending[count++] = j;
+                }
+            }
+        }
+    }
+
+    // 把与start连通、编号为from的格子全部改为to，返回改动的格子数
+    private int flood(int start, int from, int to) {
+        int count = 0;
+        int top = 0;
+        labels[start] = to;
+        stack[top++] = start;
+        while (top > 0) {
+            int cell = stack[--top];
+            count++;
+            int x = cell % width;
+            int y = cell / width;
+            for (int i = 0; i < 8; i++) {
+                int nx = x + RING_DX[i];
+                int ny = y + RING_DY[i];
+                if (nx < 0 || nx >= width || ny < 0 || ny >= height) {
+                    continue;
+                }
+                int neighbor = ny * width + nx;
+                if (labels[neighbor] == from) {
+                    labels[neighbor] = to;
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top * 2);
+                    }
+                    stack[top++] = neighbor;
+                }
+            }
+        }
+        return count;
+    }
+
+    private int labelAt(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            return NONE;
+        }
+        return labels[y * width + x];
+    }
+
+    private int newLabel() {
+        if (nextLabel == sizes.length) {
+            sizes = Arrays.copyOf(sizes, sizes.length * 2);
+        }
+        sizes[nextLabel] = 0;
+        return nextLabel++;
+    }
+}
@@ -3,29 +3,80 @@ package com.battle.ai.battle.terrain;
 
 import com.battle.ai.Node;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
 
 public class Grid {
     private static final int GRID_SIZE = 32; // 每个格子的像素大小
+    private static final int DEFAULT_WIDTH = 20;
+    private static final int DEFAULT_HEIGHT = 20;
+    private static final int REGION_SIZE = 16; // 地形版本号按 16x16 格子的区域记录
+    private static final TerrainType[] TERRAIN_TYPES = TerrainType.values();
+    // 8个方向
+    private static final int[] NEIGHBOR_DX = {-1, 0, 1, -1, 1, -1, 0, 1};
+    private static final int[] NEIGHBOR_DY = {-1, -1, -1, 0, 0, 1, 1, 1};
     private static Grid instance;
-    private TerrainType[][] terrain;
-    private static final int WIDTH = 20;
-    private static final int HEIGHT = 20;
+
+    private final int width;
+    private final int height;
+    // 按 y*width+x 平铺存放的地形序号，以及预先算好的可通行位图
+    // 从地图文件加载时terrain是只读的映射内存，第一次修改地形时才复制到堆上
+    private volatile ByteBuffer terrain;
+    private final long[] walkable;
+    private final int regionsX;
+    private final long[] regionVersions;
+    private volatile long terrainVersion;
+    // 连通区域编号，第一次查询时才计算，之后随setTerrain增量维护
+    private volatile ComponentLabels components;
+    private final List<TerrainListener> listeners = new CopyOnWriteArrayList<>();
+    // 与这张地图绑定的寻路数据(分层图等)，随Grid一起释放
+    private final Map<Class<?>, Object> attachments = new HashMap<>();
     
-    private Grid() {
-        terrain = new TerrainType[WIDTH][HEIGHT];
+    public Grid(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid grid size: " + width + "x" + height);
+        }
+        byte[] cells = new byte[width * height];
         // 初始化为普通地形
-        for (int x = 0; x < WIDTH; x++) {
-            for (int y = 0; y < HEIGHT; y++) {
-                terrain[x][y] = TerrainType.PLAIN;
+        Arrays.fill(cells, (byte) TerrainType.PLAIN.ordinal());
+        this.width = width;
+        this.height = height;
+        this.terrain = ByteBuffer.wrap(cells);
+        this.walkable = new long[(width * height + 63) >>> 6];
+        this.regionsX = (width + REGION_SIZE - 1) / REGION_SIZE;
+        this.regionVersions = new long[regionsX * ((height + REGION_SIZE - 1) / REGION_SIZE)];
+        for (int cell = 0; cell < width * height; cell++) {
+            walkable[cell >>> 6] |= 1L << cell;
+        }
+    }
+    
+    // 供MapFile使用：直接包装已有的地形数据，walkable为null时按地形重新计算
+    Grid(int width, int height, ByteBuffer terrain, long[] walkable) {
+        this.width = width;
+        this.height = height;
+        this.terrain = terrain;
+        this.regionsX = (width + REGION_SIZE - 1) / REGION_SIZE;
+        this.regionVersions = new long[regionsX * ((height + REGION_SIZE - 1) / REGION_SIZE)];
+        if (walkable == null) {
+            walkable = new long[(width * height + 63) >>> 6];
+            for (int cell = 0; cell < width * height; cell++) {
+                if (TERRAIN_TYPES[terrain.get(cell)].isWalkable()) {
+                    walkable[cell >>> 6] |= 1L << cell;
+                }
             }
         }
+        this.walkable = walkable;
     }
     
     public static Grid getInstance() {
         if (instance == null) {
-            instance = new Grid();
+            instance = new Grid(DEFAULT_WIDTH, DEFAULT_HEIGHT);
         }
         return instance;
     }
@@ -36,24 +87,246 @@ public class Grid {
     
     public TerrainType getTerrain(int x, int y) {
         if (isValidPosition(x, y)) {
-            return terrain[x][y];
+            return TERRAIN_TYPES[terrain.get(y * width + x)];
         }
         return TerrainType.WALL; // 边界外视为墙
     }
     
     public void setTerrain(int x, int y, TerrainType type) {
         if (isValidPosition(x, y)) {
-            terrain[x][y] = type;
+            int cell = y * width + x;
+            TerrainType oldType;
+            synchronized (regionVersions) {
+                oldType = TERRAIN_TYPES[terrain.get(cell)];
+                if (oldType == type) {
+                    return;
+                }
+                if (terrain.isReadOnly()) {
+                    terrain = copyToHeap(terrain);
+                }
+                terrain.put(cell, (byte) type.ordinal());
+                if (type.isWalkable()) {
+                    walkable[cell >>> 6] |= 1L << cell;
+                } else {
+                    walkable[cell >>> 6] &= ~(1L << cell);
+                }
+                if (components != null && oldType.isWalkable() != type.isWalkable()) {
+                    components.onWalkabilityChanged(x, y, type.isWalkable());
+                }
+                long version = terrainVersion + 1;
+                regionVersions[getRegion(x, y)] = version;
+                terrainVersion = version;
+            }
+            for (TerrainListener listener : listeners) {
+                listener.onTerrainChanged(x, y, oldType, type);
+            }
+        }
+    }
+    
+    private static ByteBuffer copyToHeap(ByteBuffer source) {
+        byte[] cells = new byte[source.capacity()];
+        ByteBuffer view = source.duplicate();
+        view.clear();
+        view.get(cells);
+        return ByteBuffer.wrap(cells);
+    }
+    
+    // 地形数据是否仍与地图文件共享映射内存
+    public boolean isMapped() {
+        return terrain.isReadOnly();
+    }
+    
+    // 地形序号的只读视图，供MapFile写出
+    ByteBuffer terrainView() {
+        ByteBuffer view = terrain.asReadOnlyBuffer();
+        view.clear();
+        return view;
+    }
+    
+    long[] walkableBits() {
+        return walkable;
+    }
+    
+    private ComponentLabels components() {
+        ComponentLabels labels = components;
+        if (labels == null) {
+            synchronized (regionVersions) {
+                labels = components;
+                if (labels == null) {
+                    labels = ComponentLabels.build(this);
+                    components = labels;
+                }
+            }
+        }
+        return labels;
+    }
+    
+    // 连通区域编号，不可通行或越界时返回-1
+    public int getComponent(int x, int y) {
+        if (!isValidPosition(x, y)) {
+            return ComponentLabels.NONE;
+        }
+        return components().get(y * width + x);
+    }
+    
+    public int getComponentSize(int component) {
+        return components().size(component);
+    }
+    
+    // 两个格子是否可以互相到达，O(1)
+    public boolean isConnected(int x1, int y1, int x2, int y2) {
+        int component = getComponent(x1, y1);
+        return component != ComponentLabels.NONE && component == getComponent(x2, y2);
+    }
+    
+    // 在(x, y)周围maxRadius格内找属于component的最近格子，返回格子索引，找不到返回-1
+    public int findNearestInComponent(int component, int x, int y, int maxRadius) {
+        if (component == ComponentLabels.NONE) {
+            return -1;
+        }
+        ComponentLabels labels = components();
+        int best = -1;
+        long bestDistance = Long.MAX_VALUE;
+        for (int radius = 0; radius <= maxRadius; radius++) {
+            // 更外层的格子距离至少是radius，不可能比已找到的更近
+            if ((long) radius * radius >= bestDistance) {
+                break;
+            }
+            for (int dy = -radius; dy <= radius; dy++) {
+                int step = (dy == -radius || dy == radius) ? 1 : 2 * radius;
+                for (int dx = -radius; dx <= radius; dx += Math.max(step, 1)) {
+                    int cx = x + dx;
+                    int cy = y + dy;
+                    if (!isValidPosition(cx, cy) || labels.get(cy * width + cx) != component) {
+                        continue;
+                    }
+                    long distance = (long) dx * dx + (long) dy * dy;
+                    if (distance < bestDistance) {
+                        bestDistance = distance;
+                        best = cy * width + cx;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+    
+    int[] componentLabels() {
+        return components().labels();
+    }
+    
+    void restoreComponents(int[] labels) {
+        synchronized (regionVersions) {
+            components = ComponentLabels.restore(width, height, labels);
         }
     }
     
+    // 每次地形变化都会递增的全局版本号
+    public long getTerrainVersion() {
+        return terrainVersion;
+    }
+    
+    // 区域最后一次发生地形变化时的全局版本号
+    public long getRegionVersion(int region) {
+        return regionVersions[region];
+    }
+    
+    public int getRegion(int x, int y) {
+        return (y / REGION_SIZE) * regionsX + x / REGION_SIZE;
+    }
+    
+    public void addListener(TerrainListener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeListener(TerrainListener listener) {
+        listeners.remove(listener);
+    }
+    
+    public synchronized <T> T getAttachment(Class<T> type, Function<Grid, T> factory) {
+        Object attachment = attachments.get(type);
+        if (attachment == null) {
+            attachment = factory.apply(this);
+            attachments.put(type, attachment);
+        }
+        return type.cast(attachment);
+    }
+    
     public boolean isWalkable(int x, int y) {
-        TerrainType terrainType = getTerrain(x, y);
-        return isValidPosition(x, y) && terrainType.isWalkable();
+        return isValidPosition(x, y) && isWalkable(y * width + x);
+    }
+    
+    // 按格子索引(y*width+x)查询，不做边界检查
+    public boolean isWalkable(int cell) {
+        return (walkable[cell >>> 6] & (1L << cell)) != 0;
     }
     
     private boolean isValidPosition(int x, int y) {
-        return x >= 0 && x < WIDTH && y >= 0 && y < HEIGHT;
+        return x >= 0 && x < width && y >= 0 && y < height;
+    }
+
+    // 单位从像素坐标(fromX, fromY)直线走到(toX, toY)时所在的格子(按pixelToGrid)是否都可通行。
+    // 连线在途中恰好穿过格子角点时，角点周围的四个格子都必须可通行，不能从两堵斜对角的墙之间挤过去
+    public boolean hasLineOfSight(double fromX, double fromY, double toX, double toY) {
+        double x0 = fromX / GRID_SIZE;
+        double y0 = fromY / GRID_SIZE;
+        double dx = toX / GRID_SIZE - x0;
+        double dy = toY / GRID_SIZE - y0;
+        int x = (int) Math.floor(x0);
+        int y = (int) Math.floor(y0);
+        if (!isWalkable(x, y)) {
+            return false;
+        }
+        int sx = dx > 0 ? 1 : -1;
+        int sy = dy > 0 ? 1 : -1;
+        while (true) {
+            // 连线下一次跨过竖直/水平格线的参数t(0..1)，每次重新算，格子角点上的比较不受累积误差影响。
+            // 往正方向走时落在格线上就算进了下一格，往负方向走时要越过格线才算
+            double tMaxX = dx > 0 ? (x + 1 - x0) / dx : dx < 0 ? (x0 - x) / -dx : Double.POSITIVE_INFINITY;
+            double tMaxY = dy > 0 ? (y + 1 - y0) / dy : dy < 0 ? (y0 - y) / -dy : Double.POSITIVE_INFINITY;
+            boolean stepX = dx > 0 ? tMaxX <= 1 : tMaxX < 1;
+            boolean stepY = dy > 0 ? tMaxY <= 1 : tMaxY < 1;
+            if (stepX && stepY && tMaxX != tMaxY) {
+                // 只先跨过更近的那条格线
+                stepX = tMaxX < tMaxY;
+                stepY = !stepX;
+            }
+            if (!stepX && !stepY) {
+                return true;
+            }
+            if (stepX && stepY && tMaxX < 1) {
+                int cornerX = sx > 0 ? x + 1 : x;
+                int cornerY = sy > 0 ? y + 1 : y;
+                if (!isWalkable(cornerX - 1, cornerY - 1) || !isWalkable(cornerX, cornerY - 1)
+                        || !isWalkable(cornerX - 1, cornerY) || !isWalkable(cornerX, cornerY)) {
+                    return false;
+                }
+            }
+            if (stepX) {
+                x += sx;
+            }
+            if (stepY) {
+                y += sy;
+            }
+            if (!isWalkable(x, y)) {
+                return false;
+            }
+        }
+    }
+
+    // 把可通行的相邻格子索引写入out(长度至少为8)，返回个数，不分配对象
+    public int getNeighbors(int cell, int[] out) {
+        int x = cell % width;
+        int y = cell / width;
+        int count = 0;
+        for (int dir = 0; dir < 8; dir++) {
+            int newX = x + NEIGHBOR_DX[dir];
+            int newY = y + NEIGHBOR_DY[dir];
+            if (isWalkable(newX, newY)) {
+                out[count++] = newY * width + newX;
+            }
+        }
+        return count;
     }
     
     public List<Node> getNeighbors(Node node) {
@@ -61,16 +334,9 @@ public class Grid {
         int gridX = pixelToGrid((int)node.getX());
         int gridY = pixelToGrid((int)node.getY());
         
-        // 8个方向
-        int[][] directions = {
-            {-1,-1}, {0,-1}, {1,-1},
-            {-1,0},          {1,0},
-            {-1,1},  {0,1},  {1,1}
-        };
-        
-        for (int[] dir : directions) {
-            int newX = gridX + dir[0];
-            int newY = gridY + dir[1];
+        for (int dir = 0; dir < 8; dir++) {
+            int newX = gridX + NEIGHBOR_DX[dir];
+            int newY = gridY + NEIGHBOR_DY[dir];
             
             if (isWalkable(newX, newY)) {
                 neighbors.add(new Node(gridToPixel(newX), gridToPixel(newY)));
@@ -88,6 +354,7 @@ public class Grid {
         return (int)(pixelCoord / GRID_SIZE);
     }
     
-    public int getWidth() { return WIDTH; }
-    public int getHeight() { return HEIGHT; }
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public int getCellCount() { return width * height; }
 } 
\ No newline at end of file
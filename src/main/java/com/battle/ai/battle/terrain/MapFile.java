@@ -0,0 +1,213 @@
+package com.battle.ai.battle.terrain;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// 二进制地图文件。
+//
+// 格式(小端):
+//   头部: magic "BMAP", 版本号, 宽, 高, 段数量
+//   段表: 每段 tag(int), offset(long), length(long)
+//   段数据: 按8字节对齐
+//
+// TERRAIN 段是 y*width+x 排列的地形序号，必须存在；WALKABLE 段是预先算好的可通行位图，
+// COMPONENTS 段是每个格子的连通区域编号(int)，加载后不必重新标记，编号和可通行性对不上的文件直接拒绝；
+// 其余段读取方可以通过 getSection(int) 按需取用，不认识的段直接跳过。
+// 加载时通过 FileChannel.map 映射，地形数据不复制，多个进程打开同一文件时共享只读页。
+public class MapFile {
+    public static final int MAGIC = 0x50414D42; // "BMAP"
+    public static final int VERSION = 1;
+
+    public static final int SECTION_TERRAIN = 1;
+    public static final int SECTION_WALKABLE = 2;
+    public static final int SECTION_COMPONENTS = 3;
+
+    private static final int HEADER_SIZE = 20;
+    private static final int SECTION_ENTRY_SIZE = 20;
+
+    private final int width;
+    private final int height;
+    private final Map<Integer, ByteBuffer> sections;
+
+    private MapFile(int width, int height, Map<Integer, ByteBuffer> sections) {
+        this.width = width;
+        this.height = height;
+        this.sections = sections;
+    }
+
+    public static Grid load(Path path) throws IOException {
+        return open(path).createGrid();
+    }
+
+    public static MapFile open(Path path) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // 映射在通道关闭后依然有效
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a map file: " + path);
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported map version " + version + ": " + path);
+        }
+        int width = buffer.getInt(8);
+        int height = buffer.getInt(12);
+        int sectionCount = buffer.getInt(16);
+        if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE
+                || sectionCount < 0 || HEADER_SIZE + (long) sectionCount * SECTION_ENTRY_SIZE > buffer.capacity()) {
+            throw new IOException("Corrupt map header: " + path);
+        }
+
+        Map<Integer, ByteBuffer> sections = new LinkedHashMap<>();
+        for (int i = 0; i < sectionCount; i++) {
+            int entry = HEADER_SIZE + i * SECTION_ENTRY_SIZE;
+            int tag = buffer.getInt(entry);
+            long offset = buffer.getLong(entry + 4);
+            long length = buffer.getLong(entry + 12);
+            if (offset < 0 || length < 0 || offset + length > buffer.capacity()) {
+                throw new IOException("Corrupt map section " + tag + ": " + path);
+            }
+            ByteBuffer section = buffer.duplicate();
+            section.position((int) offset).limit((int) (offset + length));
+            sections.put(tag, section.slice().order(ByteOrder.LITTLE_ENDIAN));
+        }
+
+        ByteBuffer terrain = sections.get(SECTION_TERRAIN);
+        if (terrain == null || terrain.capacity() != width * height) {
+            throw new IOException("Missing or truncated terrain section: " + path);
+        }
+        return new MapFile(width, height, sections);
+    }
+
+    // 基于映射内存创建Grid，地形在第一次被修改前一直共享文件页。
+    // 地形序号总是逐格校验，存了WALKABLE段时同时核对它和地形是否一致，COMPONENTS段核对编号范围，不一致的文件直接拒绝
+    public Grid createGrid() throws IOException {
+        ByteBuffer terrain = sections.get(SECTION_TERRAIN);
+        int cells = width * height;
+        long[] walkable = null;
+        ByteBuffer walkableSection = sections.get(SECTION_WALKABLE);
+        if (walkableSection != null) {
+            walkable = new long[(cells + 63) >>> 6];
+            if (walkableSection.capacity() != walkable.length * 8) {
+                throw new IOException("Truncated walkable section");
+            }
+            walkableSection.duplicate().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(walkable);
+            // 最后一个long里超出格子数的位必须是0
+            if ((cells & 63) != 0 && (walkable[walkable.length - 1] >>> (cells & 63)) != 0) {
+                throw new IOException("Walkable section has bits beyond the last cell");
+            }
+        }
+        TerrainType[] types = TerrainType.values();
+        for (int cell = 0; cell < cells; cell++) {
+            int ordinal = terrain.get(cell);
+            if (ordinal < 0 || ordinal >= types.length) {
+                throw new IOException("Invalid terrain " + ordinal + " at cell " + cell);
+            }
+            if (walkable != null && ((walkable[cell >>> 6] & (1L << cell)) != 0) != types[ordinal].isWalkable()) {
+                throw new IOException("Walkable section does not match terrain at cell " + cell);
+            }
+        }
+        Grid grid = new Grid(width, height, terrain.asReadOnlyBuffer(), walkable);
+        ByteBuffer componentSection = sections.get(SECTION_COMPONENTS);
+        if (componentSection != null) {
+            if (componentSection.capacity() != width * height * 4) {
+                throw new IOException("Truncated component section");
+            }
+            int[] labels = new int[width * height];
+            componentSection.duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(labels);
+            // 不可通行的格子编号必须是-1，可通行的格子编号在[0, 格子数)内
+            for (int cell = 0; cell < cells; cell++) {
+                int label = labels[cell];
+                boolean valid = grid.isWalkable(cell) ? label >= 0 && label < cells : label == ComponentLabels.NONE;
+                if (!valid) {
+                    throw new IOException("Invalid component label " + label + " at cell " + cell);
+                }
+            }
+            grid.restoreComponents(labels);
+        }
+        return grid;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // 只读的段数据，不存在时返回null
+    public ByteBuffer getSection(int tag) {
+        ByteBuffer section = sections.get(tag);
+        return section == null ? null : section.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public static void save(Grid grid, Path path) throws IOException {
+        save(grid, path, new LinkedHashMap<>());
+    }
+
+    // extraSections: 额外写入的段(tag -> 数据)，数据从position读到limit
+    public static void save(Grid grid, Path path, Map<Integer, ByteBuffer> extraSections) throws IOException {
+        Map<Integer, ByteBuffer> sections = new LinkedHashMap<>();
+        sections.put(SECTION_TERRAIN, grid.terrainView());
+        long[] walkable = grid.walkableBits();
+        ByteBuffer walkableData = ByteBuffer.allocate(walkable.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+        walkableData.asLongBuffer().put(walkable);
+        sections.put(SECTION_WALKABLE, walkableData);
+        int[] labels = grid.componentLabels();
+        ByteBuffer componentData = ByteBuffer.allocate(labels.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        componentData.asIntBuffer().put(labels);
+        sections.put(SECTION_COMPONENTS, componentData);
+        for (Map.Entry<Integer, ByteBuffer> extra : extraSections.entrySet()) {
+            sections.putIfAbsent(extra.getKey(), extra.getValue().duplicate());
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + sections.size() * SECTION_ENTRY_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(grid.getWidth()).putInt(grid.getHeight()).putInt(sections.size());
+        long offset = align(header.capacity());
+        for (Map.Entry<Integer, ByteBuffer> section : sections.entrySet()) {
+            int length = section.getValue().remaining();
+            header.putInt(section.getKey()).putLong(offset).putLong(length);
+            offset = align(offset + length);
+        }
+        header.flip();
+
+        // 先写临时文件再替换，正在映射旧文件的进程不受影响
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(channel, header, 0);
+            long position = align(header.capacity());
+            for (ByteBuffer data : sections.values()) {
+                int length = data.remaining();
+                writeFully(channel, data, position);
+                position = align(position + length);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer data, long position) throws IOException {
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+}
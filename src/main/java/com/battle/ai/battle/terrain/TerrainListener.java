@@ -0,0 +1,5 @@
+package com.battle.ai.battle.terrain;
+
+public interface TerrainListener {
+    void onTerrainChanged(int x, int y, TerrainType oldType, TerrainType newType);
+}
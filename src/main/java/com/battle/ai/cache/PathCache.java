@@ -2,46 +2,483 @@ package com.battle.ai.cache;
 
 
 import com.battle.ai.Node;
+import com.battle.ai.battle.terrain.Grid;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
+// 线程安全的路径缓存：按key哈希分段，每段独立加锁写入、无锁读取，
+// 容量按缓存路径的节点总数计算，使用CLOCK(二次机会)算法淘汰。
+// key为起点/终点所在的格子，同一格子内的单位共用一条路径；
+// 每条路径记录缓存时的地形版本号和经过的区域，区域地形变化后在读取时丢弃。
+// 另外维护 格子 -> (路径, 偏移) 的索引：最优路径的任意一段也是最优的，
+// 起点和终点都在某条缓存路径上时直接截取这一段。只有单次搜索得到的路径进索引，
+// 拼接或分层寻路得到的路径不一定最优，只按完整的起点/终点命中。路径被淘汰或失效时同时从索引中移除
 public class PathCache {
-    private static final int MAX_CACHE_SIZE = 1000;
-    private static final Map<PathKey, List<Node>> cache = new LinkedHashMap<PathKey, List<Node>>(MAX_CACHE_SIZE, 0.75f, true) {
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<PathKey, List<Node>> eldest) {
-            return size() > MAX_CACHE_SIZE;
-        }
-    };
-    
-    public static List<Node> getPath(Node start, Node end) {
-        return cache.get(new PathKey(start, end));
-    }
-    
-    public static void cachePath(Node start, Node end, List<Node> path) {
-        cache.put(new PathKey(start, end), new ArrayList<>(path));
-    }
-    
-    private static class PathKey {
-        private final Node start;
-        private final Node end;
-        
-        PathKey(Node start, Node end) {
-            this.start = start;
-            this.end = end;
-        }
-        
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            PathKey pathKey = (PathKey) o;
-            return start.equals(pathKey.start) && end.equals(pathKey.end);
-        }
-        
-        @Override
-        public int hashCode() {
-            return Objects.hash(start, end);
-        }
-    }
-} 
\ No newline at end of file
+    private static final int DEFAULT_MAX_WEIGHT = 64 * 1024; // 最多缓存的路径节点总数
+    private static final int DEFAULT_SEGMENTS = 16;
+    private static final int MAX_REFS_PER_CELL = 4;
+    private static final int INDEX_LOCK_STRIPES = 64;
+
+    private final Grid grid;
+    private final Segment[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder subPathHits = new LongAdder();
+    // 按格子下标存放经过它的路径，数组在持有对应条带锁时原地修改，读取不加锁
+    private final AtomicReferenceArray<CellRef[]> cellIndex;
+    private final Object[] indexLocks = new Object[INDEX_LOCK_STRIPES];
+    private final AtomicInteger indexedCells = new AtomicInteger();
+
+    public PathCache(Grid grid) {
+        this(grid, DEFAULT_MAX_WEIGHT, DEFAULT_SEGMENTS);
+    }
+
+    public PathCache(Grid grid, int maxWeight, int segmentCount) {
+        if (maxWeight <= 0 || segmentCount <= 0) {
+            throw new IllegalArgumentException("maxWeight and segmentCount must be positive");
+        }
+        this.grid = grid;
+        this.cellIndex = new AtomicReferenceArray<>(grid.getCellCount());
+        for (int i = 0; i < indexLocks.length; i++) {
+            indexLocks[i] = new Object();
+        }
+        this.segments = new Segment[segmentCount];
+        int segmentWeight = Math.max(1, maxWeight / segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(segmentWeight);
+        }
+    }
+
+    // 每张地图一份缓存
+    public static PathCache forGrid(Grid grid) {
+        return grid.getAttachment(PathCache.class, PathCache::new);
+    }
+
+    // 返回的路径以传入的start开头，其余为格子像素坐标
+    public List<Node> getPath(Node start, Node end) {
+        long key = keyOf(start, end);
+        Segment segment = segmentFor(key);
+        Entry entry = segment.map.get(key);
+        if (entry != null && !isValid(entry)) {
+            invalidate(segment, entry);
+            entry = null;
+        }
+        if (entry != null) {
+            entry.referenced = true;
+            hits.increment();
+            return slice(start, entry, 0, entry.cells.length - 1);
+        }
+
+        List<Node> subPath = findSubPath(start, end);
+        if (subPath != null) {
+            hits.increment();
+            subPathHits.increment();
+            return subPath;
+        }
+        misses.increment();
+        return null;
+    }
+
+    // 起点和终点落在同一条缓存路径上时截取中间一段，方向相反时倒序截取
+    private List<Node> findSubPath(Node start, Node end) {
+        int startCell = cellOf(start);
+        int endCell = cellOf(end);
+        CellRef[] startRefs = refsAt(startCell);
+        CellRef[] endRefs = refsAt(endCell);
+        if (startRefs == null || endRefs == null) {
+            return null;
+        }
+        for (CellRef startRef : startRefs) {
+            for (CellRef endRef : endRefs) {
+                if (startRef == null || endRef == null) {
+                    continue;
+                }
+                Entry entry = startRef.entry;
+                if (entry != endRef.entry || !isUsable(entry)) {
+                    continue;
+                }
+                entry.referenced = true;
+                return slice(start, entry, startRef.offset, endRef.offset);
+            }
+        }
+        return null;
+    }
+
+    // 部分命中：终点在某条缓存路径上时，返回该路径上离起点最近的格子到终点的一段。
+    // 结果第一个元素为该路径点，调用方只需从起点搜索到它
+    public List<Node> getPathFromNearestWaypoint(Node start, Node end) {
+        CellRef[] endRefs = refsAt(cellOf(end));
+        if (endRefs == null) {
+            return null;
+        }
+        int width = grid.getWidth();
+        int startX = Grid.pixelToGrid(start.getX());
+        int startY = Grid.pixelToGrid(start.getY());
+        Entry bestEntry = null;
+        int bestOffset = -1;
+        int endOffset = -1;
+        int bestDistance = Integer.MAX_VALUE;
+        for (CellRef ref : endRefs) {
+            if (ref == null) {
+                continue;
+            }
+            Entry entry = ref.entry;
+            if (!isUsable(entry)) {
+                continue;
+            }
+            for (int i = 0; i < entry.cells.length; i++) {
+                int cell = entry.cells[i];
+                int dx = cell % width - startX;
+                int dy = cell / width - startY;
+                int distance = dx * dx + dy * dy;
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    bestEntry = entry;
+                    bestOffset = i;
+                    endOffset = ref.offset;
+                }
+            }
+        }
+        if (bestEntry == null) {
+            return null;
+        }
+        bestEntry.referenced = true;
+        int waypoint = bestEntry.cells[bestOffset];
+        return slice(new Node(Grid.gridToPixel(waypoint % width), Grid.gridToPixel(waypoint / width)),
+                bestEntry, bestOffset, endOffset);
+    }
+
+    private List<Node> slice(Node start, Entry entry, int from, int to) {
+        int step = from <= to ? 1 : -1;
+        List<Node> path = new ArrayList<>(Math.abs(to - from) + 1);
+        path.add(start);
+        int width = grid.getWidth();
+        for (int i = from + step; i != to + step; i += step) {
+            int cell = entry.cells[i];
+            path.add(new Node(Grid.gridToPixel(cell % width), Grid.gridToPixel(cell / width)));
+        }
+        return path;
+    }
+
+    private boolean isUsable(Entry entry) {
+        if (entry.removed) {
+            return false;
+        }
+        if (!isValid(entry)) {
+            invalidate(segmentFor(entry.key), entry);
+            return false;
+        }
+        return true;
+    }
+
+    private void invalidate(Segment segment, Entry entry) {
+        if (segment.remove(entry.key, entry)) {
+            invalidations.increment();
+        }
+    }
+
+    public void cachePath(Node start, Node end, List<Node> path) {
+        cachePath(start, end, path, grid.getTerrainVersion());
+    }
+
+    // terrainVersion 应在寻路开始前读取，寻路期间地形发生变化的路径会在读取时被丢弃
+    public void cachePath(Node start, Node end, List<Node> path, long terrainVersion) {
+        cachePath(start, end, path, terrainVersion, true);
+    }
+
+    // exact为false表示路径不一定最优(拼接了缓存路径或走了分层寻路)，不参与截取子路径
+    public void cachePath(Node start, Node end, List<Node> path, long terrainVersion, boolean exact) {
+        if (path == null || path.isEmpty()) {
+            return;
+        }
+        int[] cells = new int[path.size()];
+        cells[0] = cellOf(start);
+        for (int i = 1; i < path.size(); i++) {
+            cells[i] = cellOf(path.get(i));
+        }
+        for (int cell : cells) {
+            if (cell < 0) {
+                return; // 地图外的路径不缓存
+            }
+        }
+        long key = keyOf(start, end);
+        Entry entry = new Entry(key, cells, regionsOf(cells), terrainVersion);
+        if (segmentFor(key).put(key, entry) && exact) {
+            index(entry);
+        }
+    }
+
+    // 每个格子一个定长数组，原地修改，只保留最近的几条路径
+    private void index(Entry entry) {
+        for (int i = 0; i < entry.cells.length; i++) {
+            int cell = entry.cells[i];
+            if (cell < 0 || cell >= cellIndex.length()) {
+                continue;
+            }
+            synchronized (indexLocks[cell & (INDEX_LOCK_STRIPES - 1)]) {
+                CellRef[] refs = cellIndex.get(cell);
+                if (refs == null) {
+                    refs = new CellRef[MAX_REFS_PER_CELL];
+                    cellIndex.set(cell, refs);
+                    indexedCells.incrementAndGet();
+                }
+                // 顺便去掉已经移除的路径，新的放在最前面，放不下时丢掉最旧的
+                int count = compact(refs, entry);
+                System.arraycopy(refs, 0, refs, 1, Math.min(count, refs.length - 1));
+                refs[0] = new CellRef(entry, i);
+            }
+        }
+        // 索引期间路径已经被淘汰时，淘汰那边可能没看到这里加的引用
+        if (entry.removed) {
+            unindex(entry);
+        }
+    }
+
+    // 地图外的格子没有索引
+    private CellRef[] refsAt(int cell) {
+        return cell >= 0 && cell < cellIndex.length() ? cellIndex.get(cell) : null;
+    }
+
+    private void unindex(Entry entry) {
+        for (int cell : entry.cells) {
+            if (cell < 0 || cell >= cellIndex.length()) {
+                continue;
+            }
+            synchronized (indexLocks[cell & (INDEX_LOCK_STRIPES - 1)]) {
+                CellRef[] refs = cellIndex.get(cell);
+                if (refs != null && compact(refs, entry) == 0) {
+                    cellIndex.set(cell, null);
+                    indexedCells.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    // 去掉属于exclude或已经移除的路径的引用，剩下的移到前面，返回剩下的个数
+    private static int compact(CellRef[] refs, Entry exclude) {
+        int count = 0;
+        for (int i = 0; i < refs.length; i++) {
+            CellRef ref = refs[i];
+            if (ref != null && ref.entry != exclude && !ref.entry.removed) {
+                refs[count++] = ref;
+            }
+        }
+        for (int i = count; i < refs.length; i++) {
+            refs[i] = null;
+        }
+        return count;
+    }
+
+    private boolean isValid(Entry entry) {
+        for (int region : entry.regions) {
+            if (grid.getRegionVersion(region) > entry.terrainVersion) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int[] regionsOf(int[] cells) {
+        int width = grid.getWidth();
+        int[] regions = new int[cells.length];
+        int count = 0;
+        for (int cell : cells) {
+            int region = grid.getRegion(cell % width, cell / width);
+            // 路径是连续的，只需和上一个区域比较
+            if (count == 0 || region != regions[count - 1]) {
+                regions[count++] = region;
+            }
+        }
+        return Arrays.copyOf(regions, count);
+    }
+
+    // 地图外返回-1，不能让越界的坐标折算到另一行的格子上
+    private int cellOf(Node node) {
+        int x = Grid.pixelToGrid(node.getX());
+        int y = Grid.pixelToGrid(node.getY());
+        if (x < 0 || y < 0 || x >= grid.getWidth() || y >= grid.getHeight()) {
+            return -1;
+        }
+        return y * grid.getWidth() + x;
+    }
+
+    private static long keyOf(Node start, Node end) {
+        long startX = Grid.pixelToGrid(start.getX()) & 0xFFFF;
+        long startY = Grid.pixelToGrid(start.getY()) & 0xFFFF;
+        long endX = Grid.pixelToGrid(end.getX()) & 0xFFFF;
+        long endY = Grid.pixelToGrid(end.getY()) & 0xFFFF;
+        return (startX << 48) | (startY << 32) | (endX << 16) | endY;
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+        for (int cell = 0; cell < cellIndex.length(); cell++) {
+            synchronized (indexLocks[cell & (INDEX_LOCK_STRIPES - 1)]) {
+                if (cellIndex.get(cell) != null) {
+                    cellIndex.set(cell, null);
+                    indexedCells.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    // 索引中有引用的格子数
+    public int getIndexedCellCount() {
+        return indexedCells.get();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.map.size();
+        }
+        return size;
+    }
+
+    public long getHitCount() { return hits.sum(); }
+    public long getMissCount() { return misses.sum(); }
+    public long getEvictionCount() { return evictions.sum(); }
+    public long getInvalidationCount() { return invalidations.sum(); }
+    public long getSubPathHitCount() { return subPathHits.sum(); }
+
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : hitCount / (double) total;
+    }
+
+    private Segment segmentFor(long key) {
+        int h = Long.hashCode(key * 0x9E3779B97F4A7C15L);
+        return segments[(h & 0x7fffffff) % segments.length];
+    }
+
+    private static class Entry {
+        final long key;
+        final int[] cells;     // 路径上的所有格子，包括起点
+        final int[] regions;   // 路径经过的区域
+        final long terrainVersion;
+        volatile boolean referenced;
+        volatile boolean removed;
+        // 在所属Segment的clock列表中的下标，只在段锁内读写
+        int clockIndex = -1;
+
+        Entry(long key, int[] cells, int[] regions, long terrainVersion) {
+            this.key = key;
+            this.cells = cells;
+            this.regions = regions;
+            this.terrainVersion = terrainVersion;
+        }
+
+        int weight() {
+            return cells.length;
+        }
+    }
+
+    private static class CellRef {
+        final Entry entry;
+        final int offset;
+
+        CellRef(Entry entry, int offset) {
+            this.entry = entry;
+            this.offset = offset;
+        }
+    }
+
+    private class Segment {
+        final Map<Long, Entry> map = new ConcurrentHashMap<>();
+        private final List<Entry> clock = new ArrayList<>();
+        private final int maxWeight;
+        private int weight;
+        private int hand;
+
+        Segment(int maxWeight) {
+            this.maxWeight = maxWeight;
+        }
+
+        synchronized boolean put(long key, Entry entry) {
+            int entryWeight = entry.weight();
+            if (entryWeight > maxWeight) {
+                return false; // 比整段容量还大的路径不缓存
+            }
+            Entry old = map.remove(key);
+            if (old != null) {
+                old.removed = true;
+                removeFromClock(old);
+                weight -= old.weight();
+                unindex(old);
+            }
+            while (weight + entryWeight > maxWeight && !clock.isEmpty()) {
+                evictOne();
+            }
+            map.put(key, entry);
+            entry.clockIndex = clock.size();
+            clock.add(entry);
+            weight += entryWeight;
+            return true;
+        }
+
+        // 时钟指针扫过被访问过的条目时清除访问标记，遇到未访问的条目就淘汰
+        private void evictOne() {
+            // 最多扫两圈，防止并发读不断设置访问标记导致一直转下去
+            for (int scanned = 0; ; scanned++) {
+                if (hand >= clock.size()) {
+                    hand = 0;
+                }
+                Entry candidate = clock.get(hand);
+                if (candidate.referenced && scanned < clock.size() * 2) {
+                    candidate.referenced = false;
+                    hand++;
+                    continue;
+                }
+                removeFromClock(candidate);
+                map.remove(candidate.key);
+                candidate.removed = true;
+                weight -= candidate.weight();
+                unindex(candidate);
+                evictions.increment();
+                return;
+            }
+        }
+
+        synchronized boolean remove(long key, Entry entry) {
+            entry.removed = true;
+            if (map.remove(key, entry)) {
+                removeFromClock(entry);
+                weight -= entry.weight();
+                unindex(entry);
+                return true;
+            }
+            return false;
+        }
+
+        // 用末尾元素填补空位，O(1)且不整体移动
+        private void removeFromClock(Entry entry) {
+            int index = entry.clockIndex;
+            Entry last = clock.remove(clock.size() - 1);
+            if (last != entry) {
+                clock.set(index, last);
+                last.clockIndex = index;
+            }
+            entry.clockIndex = -1;
+        }
+
+        synchronized void clear() {
+            for (Entry entry : clock) {
+                entry.removed = true;
+                entry.clockIndex = -1;
+            }
+            map.clear();
+            clock.clear();
+            weight = 0;
+            hand = 0;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,173 @@
+package com.test.battle;
+
+import com.battle.ai.battle.Unit;
+import com.battle.ai.battle.ai.AIManager;
+import com.battle.ai.battle.ai.AIScheduler;
+import com.battle.ai.battle.ai.BatchedAIExecutor;
+import com.battle.ai.battle.ai.SimpleAI;
+import com.battle.ai.battle.config.BattleConfig;
+import com.battle.ai.battle.ai.UnitAI;
+import com.battle.ai.battle.terrain.Grid;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.test.spatial.SpatialTestSupport.*;
+import static org.junit.Assert.*;
+
+public class AISchedulerTest {
+
+    @Test
+    public void testUnitsAreStaggeredAcrossTicks() {
+        List<Unit> units = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            units.add(unit("u" + i, i % 2 + 1, Grid.gridToPixel(i % 20), Grid.gridToPixel(i / 20)));
+        }
+        CountingAI ai = new CountingAI();
+        AIScheduler scheduler = new AIScheduler(aiFor(units, ai), 5);
+        scheduler.setBudgetNanos(0);
+
+        int maxPerTick = 0;
+        for (long tick = 0; tick < 50; tick++) {
+            maxPerTick = Math.max(maxPerTick, scheduler.update(tick, units));
+        }
+        // 每个单位每5个tick决策一次，而且不会全部挤在同一个tick
+        for (Unit unit : units) {
+            assertEquals(10, ai.count(unit));
+        }
+        assertTrue(maxPerTick < units.size() / 2);
+    }
+
+    @Test
+    public void testDecisionLimitCarriesOverToNextTick() {
+        List<Unit> units = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            units.add(unit("u" + i, i % 2 + 1, Grid.gridToPixel(i % 10), Grid.gridToPixel(i / 10)));
+        }
+        CountingAI ai = new CountingAI();
+        AIScheduler scheduler = new AIScheduler(aiFor(units, ai), 1);
+        scheduler.setBudgetNanos(0);
+        scheduler.setMaxDecisionsPerTick(30);
+
+        for (long tick = 0; tick < 4; tick++) {
+            assertTrue(scheduler.update(tick, units) <= 30);
+        }
+        // 4个tick共120次决策，推迟的单位先于再次到期的单位处理，所以每个单位至少决策过一次
+        for (Unit unit : units) {
+            assertTrue(ai.count(unit) >= 1);
+            assertTrue(ai.count(unit) <= 2);
+        }
+        assertTrue(scheduler.getBacklog() > 0);
+    }
+
+    @Test
+    public void testInvalidatedPathAndFarUnits() {
+        Unit near = unit("near", 1, 0, 0);
+        Unit enemy = unit("enemy", 2, Grid.gridToPixel(2), 0);
+        Unit far = unit("far", 1, Grid.gridToPixel(200), Grid.gridToPixel(200));
+        List<Unit> units = new ArrayList<>();
+        units.add(near);
+        units.add(enemy);
+        units.add(far);
+        CountingAI ai = new CountingAI();
+        AIScheduler scheduler = new AIScheduler(aiFor(units, ai), 4);
+        scheduler.setBudgetNanos(0);
+
+        for (long tick = 0; tick < 40; tick++) {
+            scheduler.update(tick, units);
+        }
+        assertEquals(10, ai.count(near));
+        assertTrue(ai.count(far) < ai.count(near) / 2);
+
+        // 路径失效的单位在下一个tick就决策，不等间隔到期
+        int before = ai.count(far);
+        scheduler.invalidatePath(far);
+        scheduler.update(40, units);
+        assertEquals(before + 1, ai.count(far));
+    }
+
+    @Test
+    public void testParallelUpdateKeepsSchedule() {
+        List<Unit> units = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            units.add(unit("u" + i, i % 2 + 1, Grid.gridToPixel(i % 20), Grid.gridToPixel(i / 20)));
+        }
+        CountingAI ai = new CountingAI();
+        AIScheduler scheduler = new AIScheduler(aiFor(units, ai), 5);
+        scheduler.setBudgetNanos(0);
+        scheduler.setMaxDecisionsPerTick(30);
+
+        try (BatchedAIExecutor executor = new BatchedAIExecutor(4, 8)) {
+            for (long tick = 0; tick < 4; tick++) {
+                int decided = scheduler.update(tick, units, executor);
+                assertTrue(decided <= 30);
+                assertEquals(decided, executor.getLastReport().getUnitCount());
+            }
+            scheduler.setMaxDecisionsPerTick(0);
+            for (long tick = 4; tick < 50; tick++) {
+                scheduler.update(tick, units, executor);
+            }
+        }
+        // 推迟的单位在后面的tick补上，每个单位决策次数和串行update一样接近50/5
+        for (Unit unit : units) {
+            assertTrue(ai.count(unit) >= 9);
+            assertTrue(ai.count(unit) <= 10);
+        }
+    }
+
+    @Test
+    public void testAIManagerUsesConfiguredInterval() {
+        List<Unit> units = new ArrayList<>();
+        Map<Unit, SimpleAI> unitAIs = new HashMap<>();
+        for (int i = 0; i < 50; i++) {
+            // 同一队，决策时不会互相攻击
+            Unit unit = unit("u" + i, 1, Grid.gridToPixel(i % 10), Grid.gridToPixel(i / 10));
+            units.add(unit);
+            unitAIs.put(unit, new SimpleAI());
+        }
+        int interval = BattleConfig.getInstance().getAiUpdateInterval();
+        AIManager manager = new AIManager(unitAIs, new BatchedAIExecutor(2, 16));
+        try {
+            manager.getScheduler().setBudgetNanos(0);
+            int decided = 0;
+            for (long tick = 0; tick < interval; tick++) {
+                BatchedAIExecutor.BatchReport report = manager.processAIDecisions(tick, units);
+                assertEquals(0, report.getFailedCount());
+                decided += report.getUnitCount();
+            }
+            // 一个间隔内每个单位正好决策一次
+            assertEquals(units.size(), decided);
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    private static Map<Unit, UnitAI> aiFor(List<Unit> units, UnitAI ai) {
+        Map<Unit, UnitAI> unitAIs = new HashMap<>();
+        for (Unit unit : units) {
+            unitAIs.put(unit, ai);
+        }
+        return unitAIs;
+    }
+
+    private static class CountingAI implements UnitAI {
+        // 并行决策时多个线程同时计数
+        private final Map<Unit, Integer> counts = new ConcurrentHashMap<>();
+
+        @Override
+        public void makeDecision(Unit unit, List<Unit> allies, List<Unit> enemies) {
+            for (Unit ally : allies) {
+                assertEquals(unit.getTeam(), ally.getTeam());
+            }
+            counts.merge(unit, 1, Integer::sum);
+        }
+
+        int count(Unit unit) {
+            return counts.getOrDefault(unit, 0);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.test.battle;
+
+import com.battle.ai.GridAStar;
+import com.battle.ai.Node;
+import com.battle.ai.battle.BattleClock;
+import com.battle.ai.battle.Unit;
+import com.battle.ai.battle.ai.AIManager;
+import com.battle.ai.battle.ai.BatchedAIExecutor;
+import com.battle.ai.battle.ai.SimpleAI;
+import com.battle.ai.battle.config.UnitConfig;
+import com.battle.ai.battle.terrain.Grid;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+public class BatchedAIExecutorTest {
+
+    @Test
+    public void testEveryItemRunsOnceAcrossBatches() {
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            items.add(i);
+        }
+        AtomicIntegerArray counts = new AtomicIntegerArray(items.size());
+        BatchedAIExecutor.BatchReport report;
+        try (BatchedAIExecutor executor = new BatchedAIExecutor(4, 64)) {
+            report = executor.execute(items, counts::incrementAndGet);
+            assertSame(report, executor.getLastReport());
+        }
+        for (int i = 0; i < items.size(); i++) {
+            assertEquals(1, counts.get(i));
+        }
+        assertEquals(1000, report.getUnitCount());
+        assertEquals(16, report.getBatchCount());
+        assertEquals(0, report.getFailedCount());
+        assertTrue(report.getMaxBatchNanos() >= report.getAverageBatchNanos());
+    }
+
+    @Test
+    public void testFailureDoesNotStopOtherUnits() {
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            items.add(i);
+        }
+        AtomicIntegerArray counts = new AtomicIntegerArray(items.size());
+        // 旧JDK上退回到ForkJoinPool，两种情况下行为相同
+        try (BatchedAIExecutor executor = BatchedAIExecutor.withVirtualThreads(32)) {
+            BatchedAIExecutor.BatchReport report = executor.execute(items, i -> {
+                if (i % 100 == 0) {
+                    throw new IllegalStateException("unit " + i);
+                }
+                counts.incrementAndGet(i);
+            });
+            assertEquals(3, report.getFailedCount());
+            assertEquals(10, report.getBatchCount());
+        }
+        for (int i = 0; i < items.size(); i++) {
+            assertEquals(i % 100 == 0 ? 0 : 1, counts.get(i));
+        }
+    }
+
+    @Test
+    public void testParallelDecisionsMatchSingleThread() {
+        double[] single = runBattle(new BatchedAIExecutor(1, 4));
+        double[] parallel = runBattle(new BatchedAIExecutor(8, 1));
+        // 决策阶段只读、结算顺序固定，血量和位置与线程数无关
+        assertArrayEquals(single, parallel, 0.0);
+        double totalHp = 0;
+        for (int i = 0; i < single.length; i += 3) {
+            totalHp += single[i];
+        }
+        assertTrue(totalHp < 200 * 100);
+    }
+
+    // 两队各100个战士隔着两行对峙，返回每个单位的血量和坐标
+    private static double[] runBattle(BatchedAIExecutor executor) {
+        Grid grid = new Grid(30, 30);
+        BattleClock clock = new BattleClock(100, 1.0);
+        List<Unit> units = new ArrayList<>();
+        Map<Unit, SimpleAI> unitAIs = new HashMap<>();
+        SimpleAI ai = new SimpleAI(new GridAStar(grid));
+        for (int i = 0; i < 200; i++) {
+            int team = i < 100 ? 1 : 2;
+            int row = (i % 100) / 20 + (team == 1 ? 0 : 7);
+            Unit unit = new Unit("u" + i, i, new Node(Grid.gridToPixel(i % 20), Grid.gridToPixel(row)),
+                    new UnitConfig("warrior"));
+            unit.setTeam(team);
+            unit.setClock(clock);
+            units.add(unit);
+            unitAIs.put(unit, ai);
+        }
+        AIManager manager = new AIManager(unitAIs, executor);
+        try {
+            manager.getScheduler().setBudgetNanos(0);
+            for (long tick = 0; tick < 40; tick++) {
+                clock.tick();
+                manager.processAIDecisions(tick, units);
+                for (Unit unit : units) {
+                    if (unit.isAlive()) {
+                        unit.updatePathMovement();
+                    }
+                }
+            }
+        } finally {
+            manager.shutdown();
+        }
+        double[] result = new double[units.size() * 3];
+        for (int i = 0; i < units.size(); i++) {
+            result[i * 3] = units.get(i).getHp();
+            result[i * 3 + 1] = units.get(i).getX();
+            result[i * 3 + 2] = units.get(i).getY();
+        }
+        return result;
+    }
+}
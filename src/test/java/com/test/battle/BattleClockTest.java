@@ -0,0 +1,92 @@
+package com.test.battle;
+
+import com.battle.ai.AStar;
+import com.battle.ai.Node;
+import com.battle.ai.battle.BattleClock;
+import com.battle.ai.battle.BattleEventListener;
+import com.battle.ai.battle.BattleSystem;
+import com.battle.ai.battle.Unit;
+import com.battle.ai.battle.ai.SimpleAI;
+import com.battle.ai.battle.config.UnitConfig;
+import com.battle.ai.battle.terrain.Grid;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BattleClockTest {
+    private static final long MILLIS = 1_000_000L;
+
+    @Test
+    public void testAccumulatorAndCatchUp() {
+        BattleClock clock = new BattleClock(100, 1.0, 5);
+        clock.resync(0);
+        assertEquals(0, clock.advance(50 * MILLIS));
+        assertEquals(2, clock.advance(250 * MILLIS));
+        // 剩余50ms + 100ms
+        assertEquals(1, clock.advance(350 * MILLIS));
+        // 卡顿10秒只追赶5个tick
+        assertEquals(5, clock.advance(10_350 * MILLIS));
+        assertEquals(95, clock.getDroppedTicks());
+        assertEquals(0, clock.advance(10_380 * MILLIS));
+
+        BattleClock fast = new BattleClock(100, 2.0);
+        fast.resync(0);
+        assertEquals(2, fast.advance(100 * MILLIS));
+    }
+
+    @Test
+    public void testLogicalTime() {
+        BattleClock clock = new BattleClock(100, 1.0);
+        for (int i = 0; i < 7; i++) {
+            clock.tick();
+        }
+        assertEquals(7, clock.getTick());
+        assertEquals(700, clock.now());
+    }
+
+    @Test
+    public void testHeadlessBattle() {
+        Grid grid = new Grid(20, 20);
+        BattleSystem battleSystem = new BattleSystem(grid);
+        Unit warrior = new Unit("warrior", 1, new Node(0, 0), new UnitConfig("warrior"));
+        Unit archer = new Unit("archer", 2, new Node(Grid.gridToPixel(10), 0), new UnitConfig("archer"));
+        battleSystem.addUnit(warrior, 1);
+        battleSystem.addUnit(archer, 2);
+
+        SimpleAI ai = new SimpleAI(new AStar(grid));
+        AtomicInteger winner = new AtomicInteger(-1);
+        battleSystem.addListener(new BattleEventListener() {
+            @Override
+            public void onUnitMoved(Unit unit, Node from, Node to) {
+            }
+
+            @Override
+            public void onUnitAttacked(Unit attacker, Unit target, double damage) {
+            }
+
+            @Override
+            public void onBattleEnd(int winningTeam) {
+                winner.set(winningTeam);
+            }
+
+            @Override
+            public void onTick(long tick) {
+                ai.makeDecision(warrior, Collections.singletonList(warrior), Collections.singletonList(archer));
+            }
+        });
+
+        long start = System.nanoTime();
+        long ticks = battleSystem.runHeadless(1000);
+        long elapsedMillis = (System.nanoTime() - start) / MILLIS;
+
+        assertFalse(battleSystem.isRunning());
+        assertEquals(1, winner.get());
+        assertTrue(ticks < 1000);
+        assertEquals(ticks, battleSystem.getClock().getTick());
+        // 逻辑时间远大于实际耗时
+        assertTrue(battleSystem.getClock().now() > elapsedMillis);
+    }
+}
@@ -0,0 +1,110 @@
+package com.test.battle;
+
+import com.battle.ai.AStar;
+import com.battle.ai.Node;
+import com.battle.ai.battle.BattleEventListener;
+import com.battle.ai.battle.BattleRunner;
+import com.battle.ai.battle.BattleSystem;
+import com.battle.ai.battle.Unit;
+import com.battle.ai.battle.ai.SimpleAI;
+import com.battle.ai.battle.config.UnitConfig;
+import com.battle.ai.battle.event.BattleEventQueue;
+import com.battle.ai.battle.terrain.Grid;
+import com.battle.ai.battle.terrain.TerrainType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+public class BattleRunnerTest {
+
+    @Test
+    public void testRunManyIsolatedBattles() {
+        List<Supplier<BattleSystem>> battles = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            int distance = 4 + i % 10;
+            battles.add(() -> createBattle(distance));
+        }
+        BattleRunner.BatchReport report;
+        try (BattleRunner runner = new BattleRunner(4, 1000)) {
+            report = runner.runAll(battles);
+        }
+
+        assertEquals(500, report.getResults().size());
+        assertEquals(0, report.getFailedCount());
+        for (BattleRunner.BattleResult result : report.getResults()) {
+            assertTrue(result.isFinished());
+            assertEquals(1, result.getWinningTeam());
+        }
+        assertTrue(report.getBattlesPerSecond() > 0);
+        System.out.printf("批量战斗: %.1f 场/秒, 共 %d tick%n", report.getBattlesPerSecond(), report.getTotalTicks());
+    }
+
+    @Test
+    public void testBattlesOwnTheirState() {
+        BattleSystem first = createBattle(6);
+        BattleSystem second = createBattle(6);
+        // 修改一场战斗的地形不影响另一场
+        first.getGrid().setTerrain(3, 0, TerrainType.WALL);
+        assertTrue(second.getGrid().isWalkable(3, 0));
+
+        first.runHeadless(1000);
+        assertFalse(first.getEventQueue().isEmpty());
+        assertTrue(second.getEventQueue().isEmpty());
+
+        List<BattleEventQueue.EventType> types = new ArrayList<>();
+        first.getEventQueue().processEvents(event -> types.add(event.getType()));
+        assertEquals(BattleEventQueue.EventType.BATTLE_ENDED, types.get(types.size() - 1));
+    }
+
+    @Test
+    public void testFailedBattleIsReported() {
+        List<Supplier<BattleSystem>> battles = new ArrayList<>();
+        battles.add(() -> createBattle(5));
+        battles.add(() -> {
+            throw new IllegalStateException("broken battle");
+        });
+        try (BattleRunner runner = new BattleRunner(2, 1000)) {
+            BattleRunner.BatchReport report = runner.runAll(battles);
+            assertEquals(1, report.getFailedCount());
+            assertTrue(report.getResults().get(0).isFinished());
+            assertFalse(report.getResults().get(1).isFinished());
+        }
+    }
+
+    // 战士追击站在distance格外的弓箭手
+    private static BattleSystem createBattle(int distance) {
+        Grid grid = new Grid(20, 20);
+        BattleSystem battle = new BattleSystem(grid, BattleSystem.ExecutionMode.ISOLATED);
+        Unit warrior = new Unit("warrior", 1, new Node(0, 0), new UnitConfig("warrior"));
+        Unit archer = new Unit("archer", 2, new Node(Grid.gridToPixel(distance), 0), new UnitConfig("archer"));
+        battle.addUnit(warrior, 1);
+        battle.addUnit(archer, 2);
+        SimpleAI ai = new SimpleAI(new AStar(grid));
+        battle.addListener(new BattleEventListener() {
+            @Override
+            public void onUnitMoved(Unit unit, Node from, Node to) {
+            }
+
+            @Override
+            public void onUnitAttacked(Unit attacker, Unit target, double damage) {
+            }
+
+            @Override
+            public void onBattleEnd(int winningTeam) {
+            }
+
+            @Override
+            public void onTick(long tick) {
+                if (warrior.isAlive()) {
+                    ai.makeDecision(warrior, Collections.singletonList(warrior), Collections.singletonList(archer));
+                }
+            }
+        });
+        return battle;
+    }
+}
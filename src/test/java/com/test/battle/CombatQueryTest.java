@@ -0,0 +1,76 @@
+package com.test.battle;
+
+import com.battle.ai.battle.Unit;
+import com.battle.ai.battle.skill.FireballSkill;
+import com.battle.ai.battle.spatial.QuadTree;
+import com.battle.ai.battle.spatial.SpatialQuery;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.test.spatial.SpatialTestSupport.*;
+import static org.junit.Assert.*;
+
+public class CombatQueryTest {
+
+    @Test
+    public void testAttackHitsNearestEnemyInRange() {
+        Unit attacker = unit("a", 1, 100, 100);
+        Unit ally = unit("ally", 1, 101, 100);
+        Unit far = unit("far", 2, 120, 100);
+        Unit near = unit("near", 2, 110, 100);
+        Unit outOfRange = unit("out", 2, 900, 900);
+        QuadTree tree = tree(attacker, ally, far, near, outOfRange);
+
+        List<Unit> targets = attacker.selectAttackTargets(tree);
+        assertEquals(1, targets.size());
+        assertSame(near, targets.get(0));
+        // 列表版本和BattleSystem用的findAttackTarget结果一致，不受候选顺序影响
+        assertEquals(targets, attacker.selectAttackTargets(SpatialQuery.of(list(attacker, ally, far, near, outOfRange))));
+        assertEquals(targets, attacker.selectAttackTargets(list(attacker, ally, far, near, outOfRange)));
+        assertSame(near, attacker.findAttackTarget(list(far, near, outOfRange)));
+
+        attacker.setMany(true);
+        List<Unit> many = attacker.selectAttackTargets(tree);
+        assertEquals(2, many.size());
+        assertTrue(many.contains(near) && many.contains(far));
+    }
+
+    @Test
+    public void testFireballSplashOnlyHitsEnemiesNearTarget() {
+        Unit caster = unit("caster", 1, 0, 0);
+        Unit target = unit("target", 2, 100, 0);
+        Unit splashed = unit("splashed", 2, 130, 0);
+        Unit ally = unit("ally", 1, 100, 10);
+        Unit distant = unit("distant", 2, 400, 0);
+        QuadTree tree = tree(caster, target, splashed, ally, distant);
+        double targetHp = target.getHp();
+        double splashedHp = splashed.getHp();
+        double allyHp = ally.getHp();
+        double distantHp = distant.getHp();
+
+        new FireballSkill().use(caster, target, tree);
+        assertTrue(target.getHp() < targetHp);
+        assertTrue(splashed.getHp() < splashedHp);
+        // 离目标越远伤害越低
+        assertTrue(targetHp - target.getHp() > splashedHp - splashed.getHp());
+        assertEquals(allyHp, ally.getHp(), 0.0);
+        assertEquals(distantHp, distant.getHp(), 0.0);
+    }
+
+    private static List<Unit> list(Unit... units) {
+        List<Unit> list = new ArrayList<>();
+        for (Unit unit : units) {
+            list.add(unit);
+        }
+        return list;
+    }
+
+    private static QuadTree tree(Unit... units) {
+        QuadTree tree = new QuadTree(0, new QuadTree.Rectangle(0, 0, 1024, 1024));
+        tree.setMonitored(false);
+        tree.bulkLoad(list(units));
+        return tree;
+    }
+}
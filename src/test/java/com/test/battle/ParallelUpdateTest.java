@@ -0,0 +1,93 @@
+package com.test.battle;
+
+import com.battle.ai.Node;
+import com.battle.ai.battle.BattleSystem;
+import com.battle.ai.battle.Unit;
+import com.battle.ai.battle.config.UnitConfig;
+import com.battle.ai.battle.terrain.Grid;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class ParallelUpdateTest {
+
+    @Test
+    public void testResultsIndependentOfThreadCount() throws Exception {
+        double[] sequential = runBattle(BattleSystem.ExecutionMode.ISOLATED, 1);
+        double[] oneThread = runBattle(BattleSystem.ExecutionMode.SHARED, 1);
+        double[] manyThreads = runBattle(BattleSystem.ExecutionMode.SHARED, 8);
+        assertArrayEquals(sequential, oneThread, 0.0);
+        assertArrayEquals(sequential, manyThreads, 0.0);
+        assertArrayEquals(manyThreads, runBattle(BattleSystem.ExecutionMode.SHARED, 8), 0.0);
+    }
+
+    @Test
+    public void testUniformGridResultsIndependentOfThreadCount() throws Exception {
+        double[] sequential = runBattle(BattleSystem.ExecutionMode.ISOLATED, BattleSystem.Broadphase.UNIFORM_GRID, 1);
+        double[] manyThreads = runBattle(BattleSystem.ExecutionMode.SHARED, BattleSystem.Broadphase.UNIFORM_GRID, 8);
+        assertArrayEquals(sequential, manyThreads, 0.0);
+    }
+
+    @Test
+    public void testAttacksAreSimultaneous() {
+        BattleSystem battle = new BattleSystem(new Grid(20, 20), BattleSystem.ExecutionMode.ISOLATED);
+        Unit first = new Unit("a", 1, new Node(0, 0), new UnitConfig("warrior"));
+        Unit second = new Unit("b", 2, new Node(32, 0), new UnitConfig("warrior"));
+        first.setHp(60);
+        second.setHp(50);
+        battle.addUnit(first, 1);
+        battle.addUnit(second, 2);
+        battle.tick();
+        // 两个单位都按决策时的血量互相攻击，与结算先后无关
+        assertFalse(first.isAlive());
+        assertFalse(second.isAlive());
+        assertFalse(battle.isRunning());
+        assertEquals(-1, battle.getWinningTeam());
+    }
+
+    // 返回每个单位最终的血量和坐标
+    private static double[] runBattle(BattleSystem.ExecutionMode mode, int threads) throws Exception {
+        return runBattle(mode, BattleSystem.Broadphase.QUAD_TREE, threads);
+    }
+
+    private static double[] runBattle(BattleSystem.ExecutionMode mode, BattleSystem.Broadphase broadphase,
+                                      int threads) throws Exception {
+        Grid grid = new Grid(40, 40);
+        BattleSystem battle = new BattleSystem(grid, mode, broadphase);
+        Random random = new Random(11);
+        List<Unit> units = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            int team = i % 2 + 1;
+            Unit unit = new Unit("u" + i, i, new Node(random.nextInt(Grid.gridToPixel(40)), random.nextInt(Grid.gridToPixel(40))),
+                    new UnitConfig(i % 3 == 0 ? "archer" : "warrior"));
+            unit.setHp(20 + random.nextInt(200));
+            unit.setMany(i % 5 == 0);
+            List<Node> path = new ArrayList<>();
+            path.add(unit.getPosition());
+            path.add(new Node(Grid.gridToPixel(random.nextInt(40)), Grid.gridToPixel(random.nextInt(40))));
+            unit.setPath(path);
+            battle.addUnit(unit, team);
+            units.add(unit);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> battle.runHeadless(30)).get();
+        } finally {
+            pool.shutdown();
+        }
+
+        double[] state = new double[units.size() * 3];
+        for (int i = 0; i < units.size(); i++) {
+            state[i * 3] = units.get(i).getHp();
+            state[i * 3 + 1] = units.get(i).getPosition().getX();
+            state[i * 3 + 2] = units.get(i).getPosition().getY();
+        }
+        return state;
+    }
+}
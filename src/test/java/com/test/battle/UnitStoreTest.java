@@ -0,0 +1,59 @@
+package com.test.battle;
+
+import com.battle.ai.Node;
+import com.battle.ai.battle.BattleSystem;
+import com.battle.ai.battle.Unit;
+import com.battle.ai.battle.UnitState;
+import com.battle.ai.battle.UnitStore;
+import com.battle.ai.battle.config.UnitConfig;
+import com.battle.ai.battle.terrain.Grid;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class UnitStoreTest {
+
+    @Test
+    public void testUnitIsViewOverStore() {
+        Unit unit = new Unit("a", 1, new Node(10, 20), new UnitConfig("warrior"));
+        UnitStore store = unit.getStore();
+        assertEquals(1, store.size());
+        assertSame(unit, store.get(unit.getIndex()));
+
+        unit.setPosition(new Node(40, 50));
+        unit.setHp(12);
+        assertEquals(40, store.getX(unit.getIndex()), 0.0);
+        assertEquals(50, store.getY(unit.getIndex()), 0.0);
+        assertEquals(12, store.getHp(unit.getIndex()), 0.0);
+
+        // getPosition返回快照，修改它不会移动单位
+        unit.getPosition().setX(999);
+        assertEquals(40, unit.getX(), 0.0);
+    }
+
+    @Test
+    public void testBattleAdoptsUnitsInOrder() {
+        BattleSystem battle = new BattleSystem(new Grid(20, 20), BattleSystem.ExecutionMode.ISOLATED);
+        Unit first = new Unit("a", 1, new Node(0, 0), new UnitConfig("warrior"));
+        Unit second = new Unit("b", 2, new Node(320, 320), new UnitConfig("archer"));
+        first.setHp(33);
+        first.takeDamage(3);
+        battle.addUnit(first, 1);
+        battle.addUnit(second, 2);
+
+        UnitStore store = battle.getUnitStore();
+        assertSame(store, first.getStore());
+        assertSame(store, second.getStore());
+        assertEquals(0, first.getIndex());
+        assertEquals(1, second.getIndex());
+        // 迁移时保留原来的热数据
+        assertEquals(30, first.getHp(), 0.0);
+        assertEquals(320, store.getX(1), 0.0);
+        assertEquals(2, store.getTeam(1));
+        assertEquals(UnitState.IDLE, second.getState());
+
+        second.takeDamage(1000);
+        assertFalse(store.isAlive(1));
+        assertEquals(UnitState.DEAD, second.getState());
+    }
+}
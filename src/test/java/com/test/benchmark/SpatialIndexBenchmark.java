@@ -0,0 +1,127 @@
+package com.test.benchmark;
+
+import com.battle.ai.Node;
+import com.battle.ai.battle.BattleSystem;
+import com.battle.ai.battle.Unit;
+import com.battle.ai.battle.UnitStore;
+import com.battle.ai.battle.config.UnitConfig;
+import com.battle.ai.battle.spatial.SpatialIndex;
+import com.battle.ai.battle.terrain.Grid;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// 三种空间索引在不同单位数量和密度下的对比: 整体构建、部分单位移动后的同步、范围查询和最近敌人查询。
+// 索引通过BattleSystem创建，和战斗中使用的参数一致。
+// mvn test-compile之后在测试classpath上运行main方法。
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpatialIndexBenchmark {
+    private static final int QUERY_COUNT = 256;
+    private static final double QUERY_RADIUS = 150;
+
+    @Param({"QUAD_TREE", "HASH_GRID", "UNIFORM_GRID"})
+    public String broadphase;
+
+    @Param({"1000", "10000", "40000"})
+    public int unitCount;
+
+    // 地图边长(格子数)，越小单位越密
+    @Param({"100", "400"})
+    public int mapSize;
+
+    // 每次同步前移动的单位比例
+    @Param({"0.1"})
+    public double movingRatio;
+
+    private SpatialIndex index;
+    private UnitStore store;
+    private double world;
+    private double[] queryX;
+    private double[] queryY;
+    private int[] queryTeam;
+    private final List<Unit> result = new ArrayList<>();
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Grid grid = new Grid(mapSize, mapSize);
+        BattleSystem battle = new BattleSystem(grid, BattleSystem.ExecutionMode.ISOLATED,
+                BattleSystem.Broadphase.valueOf(broadphase));
+        world = Grid.gridToPixel(mapSize);
+        random = new Random(42);
+        for (int i = 0; i < unitCount; i++) {
+            Unit unit = new Unit("u" + i, i, new Node(random.nextDouble() * world, random.nextDouble() * world),
+                    new UnitConfig("warrior"));
+            battle.addUnit(unit, i % 2 + 1);
+        }
+        store = battle.getUnitStore();
+        index = battle.getSpatialIndex();
+        index.sync(store);
+
+        queryX = new double[QUERY_COUNT];
+        queryY = new double[QUERY_COUNT];
+        queryTeam = new int[QUERY_COUNT];
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            queryX[i] = random.nextDouble() * world;
+            queryY[i] = random.nextDouble() * world;
+            queryTeam[i] = i % 2 + 1;
+        }
+    }
+
+    @Benchmark
+    public int build() {
+        index.clear();
+        index.sync(store);
+        return index.size();
+    }
+
+    @Benchmark
+    public int moveAndSync() {
+        int moving = (int) (store.size() * movingRatio);
+        for (int i = 0; i < moving; i++) {
+            Unit unit = store.get(random.nextInt(store.size()));
+            double x = unit.getX() + random.nextDouble() * 32 - 16;
+            double y = unit.getY() + random.nextDouble() * 32 - 16;
+            unit.setPosition(Math.max(0, Math.min(world - 1, x)), Math.max(0, Math.min(world - 1, y)));
+        }
+        index.sync(store);
+        return index.size();
+    }
+
+    @Benchmark
+    public int retrieveEnemies() {
+        int found = 0;
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            result.clear();
+            index.retrieveEnemies(result, queryX[i] - QUERY_RADIUS, queryY[i] - QUERY_RADIUS,
+                    QUERY_RADIUS * 2, QUERY_RADIUS * 2, queryTeam[i]);
+            found += result.size();
+        }
+        return found;
+    }
+
+    @Benchmark
+    public void nearestEnemy(Blackhole blackhole) {
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            blackhole.consume(index.nearestEnemy(queryX[i], queryY[i], queryTeam[i], Double.POSITIVE_INFINITY));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SpatialIndexBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
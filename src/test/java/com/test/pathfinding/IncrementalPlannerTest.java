@@ -0,0 +1,144 @@
+package com.test.pathfinding;
+
+import com.battle.ai.GridAStar;
+import com.battle.ai.IncrementalPlanner;
+import com.battle.ai.Node;
+import com.battle.ai.PathSmoother;
+import com.battle.ai.battle.Unit;
+import com.battle.ai.battle.config.UnitConfig;
+import com.battle.ai.battle.terrain.Grid;
+import com.battle.ai.battle.terrain.TerrainType;
+import org.junit.Test;
+
+import java.util.List;
+
+import static com.test.pathfinding.PathTestSupport.*;
+import static org.junit.Assert.*;
+
+public class IncrementalPlannerTest {
+
+    @Test
+    public void testMovingGoalIsRepairedIncrementally() {
+        Grid grid = wallWithGap(new Grid(60, 60), 30);
+        Unit unit = new Unit("a", 1, cell(2, 2), new UnitConfig("warrior"));
+        IncrementalPlanner planner = new IncrementalPlanner(grid);
+
+        List<Node> first = planner.plan(unit, cell(57, 2));
+        assertNotNull(first);
+        int fullExpansions = planner.getLastExpansions();
+        assertEquals(new GridAStar(grid).findPath(cell(2, 2), cell(57, 2)).size(), first.size());
+        assertTrue(planner.isCurrent(unit, cell(57, 2)));
+
+        // 目标挪了一格，修复比重新搜索展开的格子少得多
+        List<Node> repaired = planner.plan(unit, cell(57, 3));
+        assertNotNull(repaired);
+        assertEquals(cell(57, 3), last(repaired));
+        assertEquals(new GridAStar(grid).findPath(cell(2, 2), cell(57, 3)).size(), repaired.size());
+        assertTrue(planner.getLastExpansions() < fullExpansions / 4);
+        assertFalse(planner.isCurrent(unit, cell(57, 2)));
+    }
+
+    @Test
+    public void testUnitOnSmoothedPathKeepsState() {
+        Grid grid = wallWithGap(new Grid(60, 60), 30);
+        Unit unit = new Unit("a", 1, cell(2, 2), new UnitConfig("warrior"));
+        IncrementalPlanner planner = new IncrementalPlanner(grid);
+        List<Node> first = planner.plan(unit, cell(57, 2));
+        int fullExpansions = planner.getLastExpansions();
+
+        // 沿拉直后的路径走，单位会离开逐格路径上的格子
+        unit.setWaypoints(PathSmoother.smooth(grid, first));
+        for (int step = 0; step < 30; step++) {
+            unit.updatePathMovement();
+        }
+        List<Node> repaired = planner.plan(unit, cell(57, 3));
+        assertNotNull(repaired);
+        assertEquals(unit.getPosition(), repaired.get(0));
+        assertEquals(cell(57, 3), last(repaired));
+        assertTrue(planner.getLastExpansions() < fullExpansions / 4);
+    }
+
+    @Test
+    public void testUnitAlongPathKeepsState() {
+        Grid grid = new Grid(40, 40);
+        Unit unit = new Unit("a", 1, cell(2, 2), new UnitConfig("warrior"));
+        IncrementalPlanner planner = new IncrementalPlanner(grid);
+        List<Node> path = planner.plan(unit, cell(20, 2));
+        assertNotNull(path);
+        int fullExpansions = planner.getLastExpansions();
+
+        // 沿路径走了几步后目标移动，返回的路径从单位当前位置开始
+        unit.setPosition(path.get(5));
+        List<Node> next = planner.plan(unit, cell(21, 3));
+        assertNotNull(next);
+        assertEquals(unit.getPosition(), next.get(0));
+        assertEquals(cell(21, 3), last(next));
+        assertEquals(new GridAStar(grid).findPath(cell(7, 2), cell(21, 3)).size(), next.size());
+        assertTrue(planner.getLastExpansions() <= fullExpansions);
+    }
+
+    @Test
+    public void testPathFollowsTerrainChanges() {
+        Grid grid = new Grid(30, 30);
+        Unit unit = new Unit("a", 1, cell(2, 10), new UnitConfig("warrior"));
+        IncrementalPlanner planner = new IncrementalPlanner(grid);
+        assertNotNull(planner.plan(unit, cell(25, 10)));
+
+        // 在路上砌一堵墙，路径要绕过去
+        for (int y = 0; y < 25; y++) {
+            grid.setTerrain(15, y, TerrainType.WALL);
+        }
+        assertFalse(planner.isCurrent(unit, cell(25, 10)));
+        List<Node> path = planner.plan(unit, cell(25, 10));
+        assertNotNull(path);
+        for (Node node : path) {
+            assertTrue(grid.isWalkable(Grid.pixelToGrid(node.getX()), Grid.pixelToGrid(node.getY())));
+        }
+        assertEquals(new GridAStar(grid).findPath(cell(2, 10), cell(25, 10)).size(), path.size());
+
+        // 墙拆掉后回到直线
+        for (int y = 0; y < 25; y++) {
+            grid.setTerrain(15, y, TerrainType.PLAIN);
+        }
+        assertEquals(24, planner.plan(unit, cell(25, 10)).size());
+    }
+
+    @Test
+    public void testStateIsFreedForDeadUnitsAndOnClose() {
+        Grid grid = new Grid(30, 30);
+        Unit alive = new Unit("a", 1, cell(2, 2), new UnitConfig("warrior"));
+        Unit dead = new Unit("b", 2, cell(2, 4), new UnitConfig("warrior"));
+        IncrementalPlanner planner = new IncrementalPlanner(grid);
+        planner.plan(alive, cell(20, 20));
+        planner.plan(dead, cell(20, 20));
+        assertEquals(2, planner.size());
+
+        dead.setHp(0);
+        assertEquals(1, planner.forgetDeadUnits());
+        assertEquals(1, planner.size());
+
+        planner.close();
+        assertEquals(0, planner.size());
+        // 注销后地形变化不再记录
+        assertNotNull(planner.plan(alive, cell(20, 20)));
+        grid.setTerrain(10, 10, TerrainType.WALL);
+        assertTrue(planner.isCurrent(alive, cell(20, 20)));
+    }
+
+    @Test
+    public void testGoalBehindWallUsesNearestReachableCell() {
+        Grid grid = new Grid(20, 20);
+        // 横墙把地图分成上下两半
+        for (int x = 0; x < 20; x++) {
+            grid.setTerrain(x, 10, TerrainType.WALL);
+        }
+        Unit unit = new Unit("a", 1, cell(2, 2), new UnitConfig("warrior"));
+        IncrementalPlanner planner = new IncrementalPlanner(grid);
+        List<Node> path = planner.plan(unit, cell(5, 14));
+        assertNotNull(path);
+        assertEquals(9, Grid.pixelToGrid(last(path).getY()));
+
+        // 附近也没有能到达的格子
+        assertNull(planner.plan(unit, cell(5, 19)));
+    }
+}
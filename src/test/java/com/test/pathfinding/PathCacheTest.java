@@ -0,0 +1,188 @@
+package com.test.pathfinding;
+
+import com.battle.ai.AStar;
+import com.battle.ai.Node;
+import com.battle.ai.cache.PathCache;
+import com.battle.ai.battle.terrain.Grid;
+import com.battle.ai.battle.terrain.TerrainType;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static com.test.pathfinding.PathTestSupport.*;
+import static org.junit.Assert.*;
+
+public class PathCacheTest {
+
+    @Test
+    public void testHitMissAndCopies() {
+        PathCache cache = new PathCache(Grid.getInstance());
+        Node start = cell(0, 0);
+        Node end = cell(2, 2);
+        assertNull(cache.getPath(start, end));
+
+        cache.cachePath(start, end, pathOf(start, 2));
+        List<Node> path = cache.getPath(cell(0, 0), cell(2, 2));
+        assertEquals(3, path.size());
+        path.remove(0);
+        assertEquals(3, cache.getPath(start, end).size());
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testSharedWithinCell() {
+        PathCache cache = new PathCache(Grid.getInstance());
+        cache.cachePath(cell(0, 0), cell(5, 0), pathOf(cell(0, 0), 5));
+
+        // 同一个格子里不同像素位置的起点/终点命中同一条路径，路径以调用者的起点开头
+        Node start = new Node(7.5, 13.25);
+        List<Node> path = cache.getPath(start, new Node(Grid.gridToPixel(5) + 3, 30));
+        assertNotNull(path);
+        assertSame(start, path.get(0));
+        assertEquals(6, path.size());
+    }
+
+    @Test
+    public void testTerrainChangeInvalidatesTouchedRegions() {
+        Grid grid = Grid.getInstance();
+        PathCache cache = new PathCache(grid);
+        cache.cachePath(cell(0, 0), cell(5, 0), pathOf(cell(0, 0), 5));
+        cache.cachePath(cell(0, 19), cell(5, 19), pathOf(cell(0, 19), 5));
+
+        // 只改动第二条路径所在的区域
+        grid.setTerrain(3, 18, TerrainType.WALL);
+        assertNotNull(cache.getPath(cell(0, 0), cell(5, 0)));
+        assertNull(cache.getPath(cell(0, 19), cell(5, 19)));
+        assertEquals(1, cache.getInvalidationCount());
+        assertEquals(1, cache.size());
+
+        // 寻路开始前读取的版本号早于地形变化，缓存后读取时被丢弃
+        long version = grid.getTerrainVersion();
+        grid.setTerrain(3, 3, TerrainType.WALL);
+        cache.cachePath(cell(1, 1), cell(4, 1), pathOf(cell(1, 1), 3), version);
+        assertNull(cache.getPath(cell(1, 1), cell(4, 1)));
+    }
+
+    @Test
+    public void testSubPathHits() {
+        PathCache cache = new PathCache(Grid.getInstance());
+        cache.cachePath(cell(0, 4), cell(10, 4), pathOf(cell(0, 4), 10));
+
+        // 起点终点都在缓存路径上，正向和反向都能截取
+        List<Node> forward = cache.getPath(cell(2, 4), cell(7, 4));
+        assertEquals(6, forward.size());
+        assertEquals(Grid.gridToPixel(7), forward.get(5).getX(), 0);
+        List<Node> backward = cache.getPath(cell(9, 4), cell(3, 4));
+        assertEquals(7, backward.size());
+        assertEquals(Grid.gridToPixel(3), backward.get(6).getX(), 0);
+        assertEquals(2, cache.getSubPathHitCount());
+
+        // 只有终点在路径上时，返回离起点最近的路径点到终点的一段
+        List<Node> tail = cache.getPathFromNearestWaypoint(cell(5, 8), cell(9, 4));
+        assertEquals(Grid.gridToPixel(5), tail.get(0).getX(), 0);
+        assertEquals(5, tail.size());
+        assertNull(cache.getPathFromNearestWaypoint(cell(5, 8), cell(12, 4)));
+
+        // 被淘汰的路径不再参与截取
+        cache.clear();
+        assertNull(cache.getPath(cell(2, 4), cell(7, 4)));
+    }
+
+    @Test
+    public void testEvictsByWeight() {
+        // 单段，容量为10个节点
+        PathCache cache = new PathCache(Grid.getInstance(), 10, 1);
+        for (int i = 0; i < 10; i++) {
+            cache.cachePath(cell(i, 0), cell(i, 1), pathOf(cell(i, 0), 3));
+        }
+        // 每条路径连同起点4个节点
+        assertEquals(2, cache.size());
+        assertEquals(8, cache.getEvictionCount());
+
+        // 超过整段容量的路径不缓存
+        cache.cachePath(cell(0, 5), cell(11, 5), pathOf(cell(0, 5), 11));
+        assertNull(cache.getPath(cell(0, 5), cell(11, 5)));
+    }
+
+    @Test
+    public void testConcurrentAccess() {
+        PathCache cache = new PathCache(Grid.getInstance(), 1000, 8);
+        IntStream.range(0, 20000).parallel().forEach(i -> {
+            Node start = cell(i % 20, i / 20 % 20);
+            Node end = cell(i % 7, 0);
+            if (cache.getPath(start, end) == null) {
+                cache.cachePath(start, end, pathOf(start, 1 + i % 5));
+            }
+        });
+        assertTrue(cache.size() > 0);
+        assertEquals(20000, cache.getHitCount() + cache.getMissCount());
+    }
+
+    @Test
+    public void testIndexDropsRemovedPaths() {
+        Grid grid = Grid.getInstance();
+        // 每段最多10个节点
+        PathCache cache = new PathCache(grid, 10, 1);
+        cache.cachePath(cell(0, 0), cell(5, 0), pathOf(cell(0, 0), 5));
+        assertEquals(6, cache.getIndexedCellCount());
+
+        // 淘汰第一条路径时它在索引中的引用也一起移除
+        cache.cachePath(cell(0, 2), cell(5, 2), pathOf(cell(0, 2), 5));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(6, cache.getIndexedCellCount());
+        assertNull(cache.getPath(cell(1, 0), cell(4, 0)));
+
+        // 失效的路径同样移除
+        grid.setTerrain(3, 3, TerrainType.WALL);
+        assertNull(cache.getPath(cell(0, 2), cell(5, 2)));
+        assertEquals(0, cache.getIndexedCellCount());
+    }
+
+    @Test
+    public void testOutOfRangeAndInexactPathsNotReused() {
+        Grid grid = Grid.getInstance();
+        int width = grid.getWidth();
+        // 用AStar自己的缓存，确认端点检查在查缓存之前
+        PathCache cache = PathCache.forGrid(grid);
+        cache.cachePath(cell(0, 1), cell(5, 1), pathOf(cell(0, 1), 5));
+        // 右边界外的(width, 0)不能折算成下一行的(0, 1)
+        assertNull(cache.getPath(cell(2, 1), cell(width, 0)));
+        assertNull(new AStar(grid).findPath(cell(2, 1), cell(width, 0)));
+
+        // 不一定最优的路径只按完整的起点/终点命中，不参与截取
+        cache.cachePath(cell(0, 6), cell(8, 6), pathOf(cell(0, 6), 8), grid.getTerrainVersion(), false);
+        assertEquals(9, cache.getPath(cell(0, 6), cell(8, 6)).size());
+        assertNull(cache.getPath(cell(2, 6), cell(5, 6)));
+        assertNull(cache.getPathFromNearestWaypoint(cell(3, 9), cell(8, 6)));
+    }
+
+    @Test
+    public void testOneCachePerGrid() {
+        Grid grid = Grid.getInstance();
+        assertSame(PathCache.forGrid(grid), PathCache.forGrid(grid));
+        Grid.reset();
+        assertNotSame(PathCache.forGrid(grid), PathCache.forGrid(Grid.getInstance()));
+    }
+
+    // 从start开始向右走steps格的路径
+    private static List<Node> pathOf(Node start, int steps) {
+        List<Node> path = new ArrayList<>();
+        path.add(start);
+        int x = Grid.pixelToGrid(start.getX());
+        int y = Grid.pixelToGrid(start.getY());
+        for (int i = 1; i <= steps; i++) {
+            path.add(cell(x + i, y));
+        }
+        return path;
+    }
+
+    @After
+    public void cleanup() {
+        Grid.reset();
+    }
+}
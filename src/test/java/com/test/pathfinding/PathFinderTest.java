@@ -0,0 +1,284 @@
+package com.test.pathfinding;
+
+import com.battle.ai.FlowField;
+import com.battle.ai.FlowFieldService;
+import com.battle.ai.GridAStar;
+import com.battle.ai.HierarchicalPathFinder;
+import com.battle.ai.Node;
+import com.battle.ai.PathFinder;
+import com.battle.ai.PathFinderType;
+import com.battle.ai.battle.Unit;
+import com.battle.ai.battle.config.UnitConfig;
+import com.battle.ai.battle.terrain.Grid;
+import com.battle.ai.battle.terrain.TerrainType;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.test.pathfinding.PathTestSupport.*;
+import static org.junit.Assert.*;
+
+public class PathFinderTest {
+
+    @Test
+    public void testGridAStarFindsPathAroundWall() {
+        Grid grid = Grid.getInstance();
+        wallWithGap(grid, 10);
+
+        PathFinder pathFinder = new GridAStar(grid);
+        Node start = cell(2, 2);
+        Node end = cell(17, 2);
+        List<Node> path = pathFinder.findPath(start, end);
+
+        assertValidPath(grid, start, end, path);
+        boolean passedGap = path.stream().anyMatch(n -> Grid.pixelToGrid(n.getX()) == 10
+                && Grid.pixelToGrid(n.getY()) == grid.getHeight() - 1);
+        assertTrue("路径必须经过缺口", passedGap);
+    }
+
+    @Test
+    public void testGridAStarReusesStateAcrossQueries() {
+        Grid grid = Grid.getInstance();
+        PathFinder pathFinder = new GridAStar(grid);
+
+        for (int i = 0; i < 100; i++) {
+            Node start = cell(i % 20, 0);
+            Node end = cell(19 - i % 20, 19);
+            List<Node> path = pathFinder.findPath(start, end);
+            assertValidPath(grid, start, end, path);
+            // 空旷地图上八方向路径的格子数等于切比雪夫距离+1
+            assertEquals(20, path.size());
+        }
+    }
+
+    @Test
+    public void testGridAStarReturnsNullWhenBlocked() {
+        Grid grid = Grid.getInstance();
+        for (int y = 0; y < grid.getHeight(); y++) {
+            grid.setTerrain(10, y, TerrainType.WATER);
+        }
+
+        PathFinder pathFinder = new GridAStar(grid);
+        assertNull(pathFinder.findPath(cell(2, 2), cell(17, 2)));
+        assertNull(pathFinder.findPath(cell(2, 2), cell(10, 5)));
+    }
+
+    @Test
+    public void testJumpPointSearchMatchesAStarCost() {
+        Grid grid = Grid.getInstance();
+        Random random = new Random(42);
+        for (int i = 0; i < 80; i++) {
+            grid.setTerrain(random.nextInt(20), random.nextInt(20), TerrainType.WALL);
+        }
+
+        PathFinder astar = new GridAStar(grid);
+        PathFinder jps = PathFinderType.JPS.create(grid);
+        PathFinder jpsPlus = PathFinderType.JPS_PLUS.create(grid);
+
+        for (int i = 0; i < 200; i++) {
+            Node start = cell(random.nextInt(20), random.nextInt(20));
+            Node end = cell(random.nextInt(20), random.nextInt(20));
+            List<Node> expected = astar.findPath(start, end);
+            List<Node> jpsPath = jps.findPath(start, end);
+            List<Node> jpsPlusPath = jpsPlus.findPath(start, end);
+            if (expected == null) {
+                assertNull(jpsPath);
+                assertNull(jpsPlusPath);
+                continue;
+            }
+            assertValidPath(grid, start, end, jpsPath);
+            assertValidPath(grid, start, end, jpsPlusPath);
+            assertEquals(pathCost(expected), pathCost(jpsPath), 1e-3);
+            assertEquals(pathCost(expected), pathCost(jpsPlusPath), 1e-3);
+        }
+    }
+
+    @Test
+    public void testJumpPointSearchPlusSeesTerrainChanges() {
+        Grid grid = Grid.getInstance();
+        PathFinder jpsPlus = PathFinderType.JPS_PLUS.create(grid);
+        Node start = cell(0, 5);
+        Node end = cell(19, 5);
+        assertEquals(20, jpsPlus.findPath(start, end).size());
+
+        wallWithGap(grid, 10);
+        List<Node> path = jpsPlus.findPath(start, end);
+        assertValidPath(grid, start, end, path);
+
+        grid.setTerrain(10, grid.getHeight() - 1, TerrainType.WALL);
+        assertNull(jpsPlus.findPath(start, end));
+
+        // 同一张地图上的JPS+共享跳跃表，后建的实例同样看到封死的墙
+        assertNull(PathFinderType.JPS_PLUS.create(grid).findPath(start, end));
+        grid.setTerrain(10, grid.getHeight() - 1, TerrainType.PLAIN);
+        assertValidPath(grid, start, end, jpsPlus.findPath(start, end));
+    }
+
+    @Test
+    public void testHierarchicalPathFinderRepairsChangedClusters() {
+        Grid grid = Grid.getInstance();
+        PathFinder hierarchical = HierarchicalPathFinder.forGrid(grid);
+        assertSame(hierarchical, HierarchicalPathFinder.forGrid(grid));
+
+        Node start = cell(1, 1);
+        Node end = cell(18, 18);
+        assertValidPath(grid, start, end, hierarchical.findPath(start, end));
+
+        // 封住除最后一行外的整列，必须绕到缺口
+        wallWithGap(grid, 9);
+        List<Node> path = hierarchical.findPath(start, end);
+        assertValidPath(grid, start, end, path);
+        assertTrue(path.stream().anyMatch(n -> Grid.pixelToGrid(n.getX()) == 9));
+
+        grid.setTerrain(9, grid.getHeight() - 1, TerrainType.WATER);
+        assertNull(hierarchical.findPath(start, end));
+    }
+
+    @Test
+    public void testHierarchicalPathFinderCrossesClusterCorners() {
+        // 只有两个斜对角的簇可通行，必须斜着穿过它们相接的角点
+        Grid downRight = openOnly(new Grid(30, 30), 0, 0, 10, 10);
+        PathFinder hierarchical = HierarchicalPathFinder.forGrid(downRight);
+        Node start = cell(1, 1);
+        Node end = cell(18, 18);
+        List<Node> path = hierarchical.findPath(start, end);
+        assertValidPath(downRight, start, end, path);
+        assertTrue(path.stream().anyMatch(n -> Grid.pixelToGrid(n.getX()) == 10 && Grid.pixelToGrid(n.getY()) == 10));
+
+        Grid downLeft = openOnly(new Grid(30, 30), 10, 0, 0, 10);
+        hierarchical = HierarchicalPathFinder.forGrid(downLeft);
+        start = cell(15, 2);
+        end = cell(3, 15);
+        path = hierarchical.findPath(start, end);
+        assertValidPath(downLeft, start, end, path);
+        assertTrue(path.stream().anyMatch(n -> Grid.pixelToGrid(n.getX()) == 9 && Grid.pixelToGrid(n.getY()) == 10));
+
+        // 封住角点后两边不连通
+        downLeft.setTerrain(9, 10, TerrainType.WALL);
+        assertNull(hierarchical.findPath(start, end));
+    }
+
+    // 除了左上角分别在(x1, y1)和(x2, y2)的两个10x10区域，其余都是墙
+    private static Grid openOnly(Grid grid, int x1, int y1, int x2, int y2) {
+        for (int y = 0; y < grid.getHeight(); y++) {
+            for (int x = 0; x < grid.getWidth(); x++) {
+                boolean open = (x >= x1 && x < x1 + 10 && y >= y1 && y < y1 + 10)
+                        || (x >= x2 && x < x2 + 10 && y >= y2 && y < y2 + 10);
+                if (!open) {
+                    grid.setTerrain(x, y, TerrainType.WALL);
+                }
+            }
+        }
+        return grid;
+    }
+
+    @Test
+    public void testFlowFieldSharedPerGoal() {
+        Grid grid = Grid.getInstance();
+        for (int y = 2; y < grid.getHeight(); y++) {
+            grid.setTerrain(10, y, TerrainType.WALL);
+        }
+        FlowFieldService flowFields = FlowFieldService.forGrid(grid);
+        FlowField field = flowFields.getField(cell(17, 17));
+        assertSame(field, flowFields.getField(17, 17));
+
+        PathFinder astar = new GridAStar(grid);
+        for (int x = 0; x < 10; x++) {
+            Node start = cell(x, 15);
+            float expected = (float) pathCost(astar.findPath(start, cell(17, 17)));
+            assertEquals(expected, field.getCost(x, 15), 1e-3);
+        }
+
+        // 单位沿流场移动最终到达目标格子
+        Unit unit = new Unit("warrior", 1, cell(3, 15), new UnitConfig("warrior"));
+        unit.setFlowField(field);
+        for (int i = 0; i < 200 && unit.getFlowField() != null; i++) {
+            unit.updatePathMovement();
+            assertTrue(grid.isWalkable(Grid.pixelToGrid(unit.getPosition().getX()),
+                    Grid.pixelToGrid(unit.getPosition().getY())));
+        }
+        assertNull(unit.getFlowField());
+        assertEquals(17, Grid.pixelToGrid(unit.getPosition().getX()));
+        assertEquals(17, Grid.pixelToGrid(unit.getPosition().getY()));
+
+        grid.setTerrain(10, 0, TerrainType.WALL);
+        assertNotSame(field, flowFields.getField(17, 17));
+        // 单位手里的旧流场作废，移动时丢掉而不是继续按旧方向走
+        assertTrue(field.isStale());
+        unit.setPosition(cell(3, 15));
+        unit.setFlowField(field);
+        unit.updatePathMovement();
+        assertNull(unit.getFlowField());
+        assertEquals(cell(3, 15).getX(), unit.getX(), 0.0);
+    }
+
+    @Test
+    public void testFlowFieldCacheEvictsLeastRecentlyUsed() throws Exception {
+        Grid grid = Grid.getInstance();
+        // 预算只够两个流场
+        FlowFieldService flowFields = new FlowFieldService(grid, grid.getCellCount() * 5L * 2);
+        assertEquals(2, flowFields.getMaxFields());
+        FlowField first = flowFields.getField(1, 1);
+        FlowField second = flowFields.getField(2, 2);
+        assertSame(first, flowFields.getField(1, 1));
+        flowFields.getField(3, 3);
+        assertEquals(2, flowFields.size());
+        // 最久没用的(2, 2)被淘汰，刚用过的(1, 1)还在
+        assertSame(first, flowFields.getField(1, 1));
+        assertNotSame(second, flowFields.getField(2, 2));
+
+        // 多个线程同时请求同一个目标只计算一次
+        FlowFieldService shared = new FlowFieldService(grid);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<FlowField>> results = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                results.add(executor.submit(() -> shared.getField(15, 15)));
+            }
+            FlowField expected = results.get(0).get();
+            for (Future<FlowField> result : results) {
+                assertSame(expected, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    static double pathCost(List<Node> path) {
+        double cost = 0;
+        for (int i = 1; i < path.size(); i++) {
+            int dx = Grid.pixelToGrid(path.get(i).getX()) - Grid.pixelToGrid(path.get(i - 1).getX());
+            int dy = Grid.pixelToGrid(path.get(i).getY()) - Grid.pixelToGrid(path.get(i - 1).getY());
+            cost += dx != 0 && dy != 0 ? Math.sqrt(2) : 1;
+        }
+        return cost;
+    }
+
+    static void assertValidPath(Grid grid, Node start, Node end, List<Node> path) {
+        assertNotNull("应该找到路径", path);
+        assertSame(start, path.get(0));
+        Node last = path.get(path.size() - 1);
+        assertEquals(Grid.pixelToGrid(end.getX()), Grid.pixelToGrid(last.getX()));
+        assertEquals(Grid.pixelToGrid(end.getY()), Grid.pixelToGrid(last.getY()));
+
+        for (int i = 1; i < path.size(); i++) {
+            int px = Grid.pixelToGrid(path.get(i - 1).getX());
+            int py = Grid.pixelToGrid(path.get(i - 1).getY());
+            int x = Grid.pixelToGrid(path.get(i).getX());
+            int y = Grid.pixelToGrid(path.get(i).getY());
+            assertTrue("路径点必须可通行", grid.isWalkable(x, y));
+            assertTrue("路径点必须相邻", Math.max(Math.abs(x - px), Math.abs(y - py)) == 1);
+        }
+    }
+
+    @After
+    public void cleanup() {
+        Grid.reset();
+    }
+}
@@ -0,0 +1,120 @@
+package com.test.pathfinding;
+
+import com.battle.ai.GridAStar;
+import com.battle.ai.Node;
+import com.battle.ai.PathRequestService;
+import com.battle.ai.PathSmoother;
+import com.battle.ai.battle.Unit;
+import com.battle.ai.battle.config.UnitConfig;
+import com.battle.ai.battle.terrain.Grid;
+import com.battle.ai.battle.terrain.TerrainType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.test.pathfinding.PathTestSupport.*;
+import static org.junit.Assert.*;
+
+public class PathRequestServiceTest {
+
+    @Test
+    public void testPathArrivesOnLaterTickWithinBudget() throws InterruptedException {
+        Grid grid = wallWithGap(new Grid(60, 60), 30);
+        Unit unit = new Unit("a", 1, cell(2, 2), new UnitConfig("warrior"));
+        Node goal = cell(57, 2);
+        try (PathRequestService service = new PathRequestService(grid, 1, 200)) {
+            assertTrue(service.request(unit, goal));
+            unit.setPath(null);
+
+            // 第一次deliver只启动搜索，结果最早在下一次deliver时送达
+            assertEquals(0, service.deliver());
+            int ticks = 1;
+            while (service.isPending(unit)) {
+                assertTrue("寻路没有在限定的tick数内完成", ticks < 1000);
+                Thread.sleep(1);
+                service.deliver();
+                ticks++;
+            }
+            // 每轮最多展开200个格子，这条路径需要多轮
+            assertTrue(ticks > 2);
+        }
+        List<Node> path = unit.getPath();
+        List<Node> expected = new GridAStar(grid).findPath(cell(2, 2), goal);
+        assertNotNull(path);
+        // 交付的是拉直后的路径点
+        assertEquals(PathSmoother.smooth(grid, expected).size(), path.size());
+        assertEquals(goal, path.get(path.size() - 1));
+    }
+
+    @Test
+    public void testMovingUnitKeepsItsRequest() throws InterruptedException {
+        Grid grid = wallWithGap(new Grid(60, 60), 30);
+        Unit unit = new Unit("a", 1, cell(2, 2), new UnitConfig("warrior"));
+        unit.setPath(null);
+        try (PathRequestService service = new PathRequestService(grid, 1, 200)) {
+            // 单位每个tick都在直线靠近、目标也在小幅晃动，搜索仍然要能完成
+            int ticks = 0;
+            while (unit.getPath() == null) {
+                assertTrue("移动中的单位一直没有拿到路径", ticks < 1000);
+                Node goal = cell(57, 2 + ticks % 2);
+                assertTrue(service.request(unit, goal));
+                if (unit.getX() < Grid.gridToPixel(20)) {
+                    unit.moveTowards(goal);
+                }
+                Thread.sleep(1);
+                service.deliver();
+                ticks++;
+            }
+            assertTrue(ticks > 2);
+        }
+        List<Node> path = unit.getPath();
+        // 从单位当前所在的位置接上，而不是走回起点
+        assertEquals(unit.getPosition(), path.get(0));
+        assertTrue(path.get(1).getX() > Grid.gridToPixel(2));
+        assertEquals(57, Grid.pixelToGrid(last(path).getX()));
+    }
+
+    @Test
+    public void testRequestsFromSameCellsAreMerged() throws InterruptedException {
+        Grid grid = new Grid(30, 30);
+        List<Unit> units = new ArrayList<>();
+        try (PathRequestService service = new PathRequestService(grid)) {
+            for (int i = 0; i < 10; i++) {
+                // 同一个格子里的不同位置
+                Unit unit = new Unit("u" + i, i, new Node(Grid.gridToPixel(1) + i, Grid.gridToPixel(1)),
+                        new UnitConfig("warrior"));
+                unit.setPath(null);
+                assertTrue(service.request(unit, cell(25, 25)));
+                units.add(unit);
+            }
+            assertEquals(1, service.getPendingRequestCount());
+
+            // 换了目标的单位改为等新的请求
+            assertTrue(service.request(units.get(0), cell(20, 1)));
+            assertEquals(2, service.getPendingRequestCount());
+
+            while (service.getPendingRequestCount() > 0) {
+                Thread.sleep(1);
+                service.deliver();
+            }
+        }
+        assertEquals(cell(20, 1), last(units.get(0).getPath()));
+        for (int i = 1; i < units.size(); i++) {
+            assertEquals(cell(25, 25), last(units.get(i).getPath()));
+            // 每个单位拿到自己的一份
+            assertNotSame(units.get(1).getPath(), units.get(i == 1 ? 2 : i).getPath());
+        }
+    }
+
+    @Test
+    public void testUnreachableStartIsRejected() {
+        Grid grid = new Grid(10, 10);
+        grid.setTerrain(1, 1, TerrainType.WALL);
+        Unit unit = new Unit("a", 1, cell(1, 1), new UnitConfig("warrior"));
+        try (PathRequestService service = new PathRequestService(grid)) {
+            assertFalse(service.request(unit, cell(8, 8)));
+            assertFalse(service.isPending(unit));
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.test.pathfinding;
+
+import com.battle.ai.GridAStar;
+import com.battle.ai.Node;
+import com.battle.ai.PathSmoother;
+import com.battle.ai.Waypoints;
+import com.battle.ai.battle.Unit;
+import com.battle.ai.battle.config.UnitConfig;
+import com.battle.ai.battle.terrain.Grid;
+import com.battle.ai.battle.terrain.TerrainType;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static com.test.pathfinding.PathTestSupport.*;
+import static org.junit.Assert.*;
+
+public class PathSmootherTest {
+
+    @Test
+    public void testLineOfSight() {
+        Grid grid = new Grid(10, 10);
+        grid.setTerrain(5, 5, TerrainType.WALL);
+        assertTrue(los(grid, 0, 0, 9, 4));
+        assertFalse(los(grid, 0, 5, 9, 5));
+        assertFalse(los(grid, 4, 4, 6, 6));
+        assertFalse(los(grid, 6, 6, 4, 4));
+        assertTrue(los(grid, 3, 3, 3, 3));
+        // 路径点在格子左上角，从(0,1)走到(4,0)的单位会经过(0,0)和(1,0)
+        grid.setTerrain(1, 0, TerrainType.WALL);
+        assertFalse(los(grid, 0, 1, 4, 0));
+        assertFalse(los(grid, 4, 0, 0, 1));
+
+        // 两堵斜对角的墙之间不能挤过去
+        grid.setTerrain(0, 1, TerrainType.WALL);
+        assertFalse(los(grid, 0, 0, 2, 2));
+        assertFalse(los(grid, 0, 0, 5, 0));
+    }
+
+    @Test
+    public void testOpenPathKeepsEndpointsOnly() {
+        Grid grid = new Grid(30, 30);
+        List<Node> path = new GridAStar(grid).findPath(cell(1, 1), cell(25, 7));
+        Waypoints waypoints = PathSmoother.smooth(grid, path);
+        assertEquals(2, waypoints.size());
+        assertEquals(path.get(0), waypoints.asList().get(0));
+        assertEquals(cell(25, 7), waypoints.asList().get(1));
+    }
+
+    @Test
+    public void testSmoothedPathNeverCrossesWalls() {
+        Random random = new Random(5);
+        for (int round = 0; round < 20; round++) {
+            Grid grid = new Grid(40, 40);
+            // 2x2的障碍之间至少隔一格，寻路本身不会从两个斜对角的墙格之间穿过
+            for (int by = 0; by < 13; by++) {
+                for (int bx = 0; bx < 13; bx++) {
+                    if ((bx != 0 || by != 0) && random.nextInt(3) == 0) {
+                        grid.setTerrain(bx * 3 + 1, by * 3 + 1, TerrainType.WALL);
+                        grid.setTerrain(bx * 3 + 2, by * 3 + 1, TerrainType.WALL);
+                        grid.setTerrain(bx * 3 + 1, by * 3 + 2, TerrainType.WALL);
+                        grid.setTerrain(bx * 3 + 2, by * 3 + 2, TerrainType.WALL);
+                    }
+                }
+            }
+            Node start = new Node(Grid.gridToPixel(0) + random.nextInt(32), Grid.gridToPixel(0) + random.nextInt(32));
+            List<Node> path = new GridAStar(grid).findPath(start, cell(39, 39));
+            assertNotNull(path);
+            List<Node> waypoints = PathSmoother.smooth(grid, path).asList();
+            assertTrue(waypoints.size() < path.size());
+            assertEquals(start, waypoints.get(0));
+            assertEquals(cell(39, 39), waypoints.get(waypoints.size() - 1));
+            for (int i = 1; i < waypoints.size(); i++) {
+                assertWalkable(grid, waypoints.get(i - 1), waypoints.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testUnitWalksWaypointsWithCursor() {
+        Grid grid = new Grid(20, 20);
+        for (int y = 0; y < 15; y++) {
+            grid.setTerrain(10, y, TerrainType.WALL);
+        }
+        Unit unit = new Unit("a", 1, cell(2, 2), new UnitConfig("warrior"));
+        List<Node> path = new GridAStar(grid).findPath(cell(2, 2), cell(18, 2));
+        Waypoints waypoints = PathSmoother.smooth(grid, path);
+        assertTrue(waypoints.size() < path.size());
+        unit.setWaypoints(waypoints);
+
+        int remaining = waypoints.size();
+        for (int step = 0; step < 1000 && unit.getWaypoints().size() > 1; step++) {
+            unit.updatePathMovement();
+            assertTrue(unit.getWaypoints().size() <= remaining);
+            remaining = unit.getWaypoints().size();
+            assertTrue(grid.isWalkable(Grid.pixelToGrid(unit.getX()), Grid.pixelToGrid(unit.getY())));
+        }
+        assertEquals(1, unit.getPath().size());
+        assertEquals(cell(18, 2), unit.getPosition());
+    }
+
+    private static boolean los(Grid grid, int x0, int y0, int x1, int y1) {
+        return grid.hasLineOfSight(Grid.gridToPixel(x0), Grid.gridToPixel(y0), Grid.gridToPixel(x1), Grid.gridToPixel(y1));
+    }
+
+    // 按半个像素的间隔检查单位从from直线走到to时所在的格子
+    private static void assertWalkable(Grid grid, Node from, Node to) {
+        int samples = (int) Math.ceil(from.distanceTo(to) * 2) + 1;
+        for (int k = 0; k <= samples; k++) {
+            double x = from.getX() + (to.getX() - from.getX()) * k / samples;
+            double y = from.getY() + (to.getY() - from.getY()) * k / samples;
+            assertTrue("穿过了墙格 (" + x + ", " + y + ")",
+                    grid.isWalkable(Grid.pixelToGrid(x), Grid.pixelToGrid(y)));
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.test.pathfinding;
+
+import com.battle.ai.Node;
+import com.battle.ai.battle.terrain.Grid;
+import com.battle.ai.battle.terrain.TerrainType;
+
+import java.util.List;
+
+// 寻路测试共用的地图和坐标工具
+final class PathTestSupport {
+
+    private PathTestSupport() {
+    }
+
+    // 第x列竖直的墙，只在最下方留一个缺口
+    static Grid wallWithGap(Grid grid, int x) {
+        for (int y = 0; y < grid.getHeight() - 1; y++) {
+            grid.setTerrain(x, y, TerrainType.WALL);
+        }
+        return grid;
+    }
+
+    // 格子(x, y)的像素坐标
+    static Node cell(int x, int y) {
+        return new Node(Grid.gridToPixel(x), Grid.gridToPixel(y));
+    }
+
+    static Node last(List<Node> path) {
+        return path.get(path.size() - 1);
+    }
+}
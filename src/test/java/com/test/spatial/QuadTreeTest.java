@@ -0,0 +1,93 @@
+package com.test.spatial;
+
+import com.battle.ai.Node;
+import com.battle.ai.battle.Unit;
+import com.battle.ai.battle.config.UnitConfig;
+import com.battle.ai.battle.spatial.QuadTree;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class QuadTreeTest {
+    private static final double WORLD = 1024;
+
+    @Test
+    public void testIncrementalMatchesRebuild() {
+        Random random = new Random(5);
+        List<Unit> units = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            units.add(new Unit("u" + i, i, new Node(random.nextInt(1024), random.nextInt(1024)), new UnitConfig("warrior")));
+        }
+        QuadTree tree = newTree();
+        tree.bulkLoad(units);
+        assertEquals(units.size(), tree.size());
+
+        List<Unit> removed = new ArrayList<>();
+        for (int round = 0; round < 50; round++) {
+            for (Unit unit : units) {
+                if (removed.contains(unit)) {
+                    continue;
+                }
+                if (random.nextInt(10) == 0) {
+                    assertTrue(tree.remove(unit));
+                    removed.add(unit);
+                    continue;
+                }
+                double oldX = unit.getX();
+                double oldY = unit.getY();
+                unit.setPosition(clamp(oldX + random.nextInt(65) - 32), clamp(oldY + random.nextInt(65) - 32));
+                tree.update(unit, oldX, oldY);
+            }
+            QuadTree rebuilt = newTree();
+            for (Unit unit : units) {
+                if (!removed.contains(unit)) {
+                    rebuilt.insert(unit);
+                }
+            }
+            assertEquals(rebuilt.size(), tree.size());
+            for (int query = 0; query < 20; query++) {
+                double x = random.nextInt(1024);
+                double y = random.nextInt(1024);
+                assertEquals(query(rebuilt, x, y), query(tree, x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testMergeAfterRemovingEverything() {
+        List<Unit> units = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            units.add(new Unit("u" + i, i, new Node(10 * i + 1, 10 * i + 1), new UnitConfig("warrior")));
+        }
+        QuadTree tree = newTree();
+        for (Unit unit : units) {
+            tree.insert(unit);
+        }
+        for (Unit unit : units) {
+            assertTrue(tree.remove(unit));
+        }
+        assertEquals(0, tree.size());
+        assertFalse(tree.remove(units.get(0)));
+        assertTrue(tree.retrieve(new ArrayList<>(), new QuadTree.Rectangle(0, 0, WORLD, WORLD)).isEmpty());
+    }
+
+    private static QuadTree newTree() {
+        QuadTree tree = new QuadTree(0, new QuadTree.Rectangle(0, 0, WORLD, WORLD));
+        tree.setMonitored(false);
+        return tree;
+    }
+
+    private static Set<Unit> query(QuadTree tree, double x, double y) {
+        return new HashSet<>(tree.retrieve(new ArrayList<>(), x - 100, y - 100, 200, 200));
+    }
+
+    private static double clamp(double value) {
+        return Math.max(0, Math.min(WORLD - 1, value));
+    }
+}
@@ -0,0 +1,211 @@
+package com.test.spatial;
+
+import com.battle.ai.battle.BattleSystem;
+import com.battle.ai.battle.Unit;
+import com.battle.ai.battle.UnitStore;
+import com.battle.ai.battle.spatial.QuadTree;
+import com.battle.ai.battle.spatial.SpatialHashGrid;
+import com.battle.ai.battle.spatial.SpatialIndex;
+import com.battle.ai.battle.terrain.Grid;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static com.test.spatial.SpatialTestSupport.*;
+import static org.junit.Assert.*;
+
+public class SpatialQueryTest {
+
+    @Test
+    public void testRadiusQueriesMatchBruteForce() {
+        List<Unit> units = randomUnits(new Random(3), 800);
+        QuadTree tree = newTree(units);
+        SpatialHashGrid grid = new SpatialHashGrid();
+        for (Unit unit : units) {
+            grid.addUnit(unit);
+        }
+        Random random = new Random(4);
+        for (int query = 0; query < 100; query++) {
+            double x = random.nextInt(WORLD);
+            double y = random.nextInt(WORLD);
+            double radius = 20 + random.nextInt(300);
+            Set<Unit> expected = new HashSet<>();
+            for (Unit unit : units) {
+                if (distanceSq(unit, x, y) <= radius * radius) {
+                    expected.add(unit);
+                }
+            }
+            Set<Unit> fromTree = new HashSet<>();
+            tree.forEachInRadius(x, y, radius, fromTree::add);
+            Set<Unit> fromGrid = new HashSet<>();
+            grid.forEachInRadius(x, y, radius, fromGrid::add);
+            assertEquals(expected, fromTree);
+            assertEquals(expected, fromGrid);
+        }
+    }
+
+    @Test
+    public void testNearestMatchesBruteForce() {
+        List<Unit> units = randomUnits(new Random(5), 800);
+        QuadTree tree = newTree(units);
+        SpatialHashGrid grid = new SpatialHashGrid();
+        for (Unit unit : units) {
+            grid.addUnit(unit);
+        }
+        Unit[] out = new Unit[8];
+        double[] distanceSq = new double[8];
+        Random random = new Random(6);
+        for (int query = 0; query < 100; query++) {
+            double x = random.nextInt(WORLD);
+            double y = random.nextInt(WORLD);
+            List<Double> all = new ArrayList<>();
+            double enemySq = Double.MAX_VALUE;
+            for (Unit unit : units) {
+                all.add(distanceSq(unit, x, y));
+                if (unit.getTeam() != 1 && unit.isAlive()) {
+                    enemySq = Math.min(enemySq, distanceSq(unit, x, y));
+                }
+            }
+            all.sort(null);
+
+            assertEquals(8, tree.nearest(x, y, 8, out, distanceSq));
+            for (int i = 0; i < 8; i++) {
+                assertEquals(all.get(i), distanceSq[i], 1e-9);
+                assertEquals(distanceSq[i], distanceSq(out[i], x, y), 1e-9);
+            }
+            Unit fromTree = tree.nearestEnemy(x, y, 1, Double.POSITIVE_INFINITY);
+            Unit fromGrid = grid.nearestEnemy(x, y, 1, WORLD * 2);
+            assertEquals(enemySq, distanceSq(fromTree, x, y), 1e-9);
+            assertEquals(enemySq, distanceSq(fromGrid, x, y), 1e-9);
+        }
+        // 半径内没有敌人时返回null
+        assertNull(tree.nearestEnemy(-5000, -5000, 1, 10));
+        assertNull(grid.nearestEnemy(-5000, -5000, 1, 10));
+    }
+
+    @Test
+    public void testEnemyQueriesSkipAllies() {
+        List<Unit> units = randomUnits(new Random(7), 800);
+        QuadTree tree = newTree(units);
+        SpatialHashGrid grid = new SpatialHashGrid();
+        for (Unit unit : units) {
+            grid.addUnit(unit);
+        }
+        // 移除一部分单位，检查增量维护后的队伍计数
+        for (int i = 0; i < units.size(); i += 4) {
+            assertTrue(tree.remove(units.get(i)));
+            grid.removeUnit(units.get(i));
+        }
+        Random random = new Random(8);
+        for (int query = 0; query < 100; query++) {
+            double x = random.nextInt(WORLD);
+            double y = random.nextInt(WORLD);
+            double radius = 20 + random.nextInt(300);
+            int team = query % 3 + 1;
+            Set<Unit> expected = new HashSet<>();
+            for (int i = 0; i < units.size(); i++) {
+                Unit unit = units.get(i);
+                if (i % 4 != 0 && unit.getTeam() != team && distanceSq(unit, x, y) <= radius * radius) {
+                    expected.add(unit);
+                }
+            }
+            Set<Unit> fromTree = new HashSet<>();
+            tree.forEachEnemyInRadius(x, y, radius, team, fromTree::add);
+            Set<Unit> fromGrid = new HashSet<>();
+            grid.forEachEnemyInRadius(x, y, radius, team, fromGrid::add);
+            assertEquals(expected, fromTree);
+            assertEquals(expected, fromGrid);
+            for (Unit unit : tree.retrieveEnemies(new ArrayList<>(), x - radius, y - radius, radius * 2, radius * 2, team)) {
+                assertTrue(unit.getTeam() != team);
+            }
+        }
+    }
+
+    @Test
+    public void testEverySpatialIndexStaysInSync() {
+        for (BattleSystem.Broadphase broadphase : BattleSystem.Broadphase.values()) {
+            BattleSystem battle = new BattleSystem(new Grid(64, 64), BattleSystem.ExecutionMode.ISOLATED, broadphase);
+            List<Unit> units = randomUnits(new Random(9), 600);
+            for (Unit unit : units) {
+                battle.addUnit(unit, unit.getTeam());
+            }
+            UnitStore store = battle.getUnitStore();
+            SpatialIndex index = battle.getSpatialIndex();
+            index.sync(store);
+
+            // 同步后移动和杀死一部分单位，再同步一次
+            Random random = new Random(10);
+            for (int i = 0; i < units.size(); i++) {
+                Unit unit = units.get(i);
+                if (i % 5 == 0) {
+                    unit.setHp(0);
+                } else if (i % 2 == 0) {
+                    unit.setPosition(random.nextInt(WORLD), random.nextInt(WORLD));
+                }
+            }
+            index.sync(store);
+
+            int alive = 0;
+            for (Unit unit : units) {
+                if (unit.isAlive()) {
+                    alive++;
+                }
+            }
+            assertEquals(broadphase.name(), alive, index.size());
+            for (int query = 0; query < 50; query++) {
+                double x = random.nextInt(WORLD);
+                double y = random.nextInt(WORLD);
+                double half = 20 + random.nextInt(200);
+                int team = query % 3 + 1;
+                Set<Unit> expected = new HashSet<>();
+                for (Unit unit : units) {
+                    if (unit.isAlive() && unit.getTeam() != team
+                            && Math.abs(unit.getX() - x) <= half && Math.abs(unit.getY() - y) <= half) {
+                        expected.add(unit);
+                    }
+                }
+                Set<Unit> found = new HashSet<>(index.retrieveEnemies(new ArrayList<>(), x - half, y - half,
+                        half * 2, half * 2, team));
+                assertEquals(broadphase.name(), expected, found);
+
+                double nearestSq = Double.POSITIVE_INFINITY;
+                for (Unit unit : units) {
+                    if (unit.isAlive() && unit.getTeam() != team) {
+                        nearestSq = Math.min(nearestSq, distanceSq(unit, x, y));
+                    }
+                }
+                Unit nearest = index.nearestEnemy(x, y, team, Double.POSITIVE_INFINITY);
+                assertNotNull(broadphase.name(), nearest);
+                assertEquals(broadphase.name(), nearestSq, distanceSq(nearest, x, y), 1e-9);
+
+                // 最近的k个单位不分队伍，和逐个计算的前k个距离一致
+                List<Double> distances = new ArrayList<>();
+                for (Unit unit : units) {
+                    if (unit.isAlive()) {
+                        distances.add(distanceSq(unit, x, y));
+                    }
+                }
+                Collections.sort(distances);
+                Unit[] out = new Unit[8];
+                double[] outSq = new double[8];
+                assertEquals(broadphase.name(), 8, index.nearest(x, y, 8, out, outSq));
+                for (int i = 0; i < 8; i++) {
+                    assertEquals(broadphase.name(), distances.get(i), outSq[i], 1e-9);
+                    assertEquals(broadphase.name(), outSq[i], distanceSq(out[i], x, y), 1e-9);
+                }
+            }
+        }
+    }
+
+    private static QuadTree newTree(List<Unit> units) {
+        QuadTree tree = new QuadTree(0, new QuadTree.Rectangle(0, 0, WORLD, WORLD));
+        tree.setMonitored(false);
+        tree.bulkLoad(units);
+        return tree;
+    }
+}
@@ -0,0 +1,56 @@
+package com.test.spatial;
+
+import com.battle.ai.Node;
+import com.battle.ai.battle.BattleSystem;
+import com.battle.ai.battle.Unit;
+import com.battle.ai.battle.UnitStore;
+import com.battle.ai.battle.config.UnitConfig;
+import com.battle.ai.battle.terrain.Grid;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// 空间索引和选目标测试共用的单位工厂和距离计算
+public final class SpatialTestSupport {
+    public static final int WORLD = 2048;
+
+    private SpatialTestSupport() {
+    }
+
+    public static Unit unit(String id, int team, double x, double y) {
+        Unit unit = new Unit(id, 0, new Node(x, y), new UnitConfig("warrior"));
+        unit.setTeam(team);
+        return unit;
+    }
+
+    // WORLD范围内随机分布的三队单位，每7个有一个已经死亡
+    public static List<Unit> randomUnits(Random random, int count) {
+        List<Unit> units = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Unit unit = new Unit("u" + i, i, new Node(random.nextInt(WORLD), random.nextInt(WORLD)),
+                    new UnitConfig("warrior"));
+            unit.setTeam(i % 3 + 1);
+            if (i % 7 == 0) {
+                unit.setHp(0);
+            }
+            units.add(unit);
+        }
+        return units;
+    }
+
+    // 同样的单位加入一场战斗，返回战斗的UnitStore
+    public static UnitStore randomStore(Random random, int count) {
+        BattleSystem battle = new BattleSystem(new Grid(WORLD / 32, WORLD / 32), BattleSystem.ExecutionMode.ISOLATED);
+        for (Unit unit : randomUnits(random, count)) {
+            battle.addUnit(unit, unit.getTeam());
+        }
+        return battle.getUnitStore();
+    }
+
+    public static double distanceSq(Unit unit, double x, double y) {
+        double dx = unit.getX() - x;
+        double dy = unit.getY() - y;
+        return dx * dx + dy * dy;
+    }
+}
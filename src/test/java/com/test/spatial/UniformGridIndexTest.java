@@ -0,0 +1,79 @@
+package com.test.spatial;
+
+import com.battle.ai.battle.Unit;
+import com.battle.ai.battle.UnitStore;
+import com.battle.ai.battle.spatial.UniformGridIndex;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static com.test.spatial.SpatialTestSupport.*;
+import static org.junit.Assert.*;
+
+public class UniformGridIndexTest {
+
+    @Test
+    public void testQueriesMatchBruteForce() {
+        UnitStore store = randomStore(new Random(9), 1000);
+        UniformGridIndex index = new UniformGridIndex(WORLD, WORLD, 64);
+        index.rebuild(store);
+        int alive = 0;
+        for (int i = 0; i < store.size(); i++) {
+            alive += store.isAlive(i) ? 1 : 0;
+        }
+        assertEquals(alive, index.size());
+
+        Random random = new Random(10);
+        for (int query = 0; query < 100; query++) {
+            double x = random.nextInt(WORLD);
+            double y = random.nextInt(WORLD);
+            double radius = 10 + random.nextInt(300);
+            int team = query % 2 + 1;
+            Set<Unit> inRadius = new HashSet<>();
+            Set<Unit> enemies = new HashSet<>();
+            double nearestSq = Double.MAX_VALUE;
+            for (int i = 0; i < store.size(); i++) {
+                if (!store.isAlive(i)) {
+                    continue;
+                }
+                double dx = store.getX(i) - x;
+                double dy = store.getY(i) - y;
+                double d = dx * dx + dy * dy;
+                if (d <= radius * radius) {
+                    inRadius.add(store.get(i));
+                    if (store.getTeam(i) != team) {
+                        enemies.add(store.get(i));
+                    }
+                }
+                if (store.getTeam(i) != team && d < nearestSq) {
+                    nearestSq = d;
+                }
+            }
+            Set<Unit> found = new HashSet<>();
+            index.forEachInRadius(x, y, radius, found::add);
+            assertEquals(inRadius, found);
+            found.clear();
+            index.forEachEnemyInRadius(x, y, radius, team, found::add);
+            assertEquals(enemies, found);
+            Unit result = index.nearestEnemy(x, y, team, Double.POSITIVE_INFINITY);
+            assertEquals(nearestSq, distanceSq(result, x, y), 1e-9);
+        }
+    }
+
+    @Test
+    public void testParallelRebuildMatchesSequential() {
+        UnitStore store = randomStore(new Random(11), 5000);
+        UniformGridIndex sequential = new UniformGridIndex(WORLD, WORLD, 64);
+        UniformGridIndex parallel = new UniformGridIndex(WORLD, WORLD, 64);
+        sequential.rebuild(store, false);
+        parallel.rebuild(store, true);
+        assertEquals(sequential.size(), parallel.size());
+        List<Unit> a = sequential.retrieveEnemies(new ArrayList<>(), 0, 0, WORLD, WORLD, 0);
+        List<Unit> b = parallel.retrieveEnemies(new ArrayList<>(), 0, 0, WORLD, WORLD, 0);
+        assertEquals(a, b);
+    }
+}
@@ -0,0 +1,267 @@
+package com.test.terrain;
+
+import com.battle.ai.AStar;
+import com.battle.ai.Node;
+import com.battle.ai.battle.terrain.Grid;
+import com.battle.ai.battle.terrain.MapFile;
+import com.battle.ai.battle.terrain.TerrainType;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GridTest {
+
+    @Test
+    public void testLargeGrid() {
+        Grid grid = new Grid(4096, 4096);
+        assertEquals(4096 * 4096, grid.getCellCount());
+        assertTrue(grid.isWalkable(4095, 4095));
+        assertFalse(grid.isWalkable(4096, 0));
+        assertFalse(grid.isWalkable(-1, 0));
+
+        grid.setTerrain(4000, 3000, TerrainType.WALL);
+        assertEquals(TerrainType.WALL, grid.getTerrain(4000, 3000));
+        assertFalse(grid.isWalkable(4000, 3000));
+        assertFalse(grid.isWalkable(3000 * 4096 + 4000));
+        assertTrue(grid.isWalkable(4001, 3000));
+
+        grid.setTerrain(4000, 3000, TerrainType.PLAIN);
+        assertTrue(grid.isWalkable(4000, 3000));
+    }
+
+    @Test
+    public void testNeighborIteration() {
+        Grid grid = new Grid(50, 30);
+        grid.setTerrain(11, 10, TerrainType.WALL);
+        int[] neighbors = new int[8];
+        assertEquals(7, grid.getNeighbors(10 * 50 + 10, neighbors));
+        assertEquals(3, grid.getNeighbors(0, neighbors));
+        // 右下角
+        assertEquals(3, grid.getNeighbors(29 * 50 + 49, neighbors));
+        assertEquals(grid.getNeighbors(new Node(Grid.gridToPixel(10), Grid.gridToPixel(10))).size(),
+                grid.getNeighbors(10 * 50 + 10, neighbors));
+    }
+
+    @Test
+    public void testPathOnNonSquareGrid() {
+        Grid grid = new Grid(120, 40);
+        for (int y = 0; y < 39; y++) {
+            grid.setTerrain(60, y, TerrainType.WALL);
+        }
+        Node start = new Node(Grid.gridToPixel(5), Grid.gridToPixel(5));
+        Node end = new Node(Grid.gridToPixel(115), Grid.gridToPixel(5));
+        List<Node> path = new AStar(grid).findPath(start, end);
+        assertNotNull(path);
+        assertEquals(end.getX(), path.get(path.size() - 1).getX(), 0.001);
+        for (Node node : path) {
+            assertTrue(grid.isWalkable(Grid.pixelToGrid(node.getX()), Grid.pixelToGrid(node.getY())));
+        }
+    }
+
+    @Test
+    public void testMapFileRoundTrip() throws IOException {
+        Grid grid = new Grid(300, 200);
+        grid.setTerrain(5, 7, TerrainType.WALL);
+        grid.setTerrain(299, 199, TerrainType.WATER);
+        grid.setTerrain(100, 50, TerrainType.NORMAL);
+        Path file = Files.createTempFile("grid", ".map");
+        try {
+            MapFile.save(grid, file);
+            Grid loaded = MapFile.load(file);
+            assertTrue(loaded.isMapped());
+            assertEquals(300, loaded.getWidth());
+            assertEquals(200, loaded.getHeight());
+            for (int y = 0; y < 200; y++) {
+                for (int x = 0; x < 300; x++) {
+                    assertEquals(grid.getTerrain(x, y), loaded.getTerrain(x, y));
+                    assertEquals(grid.isWalkable(x, y), loaded.isWalkable(x, y));
+                }
+            }
+
+            // 修改地形后复制到堆上，文件内容不变
+            loaded.setTerrain(5, 7, TerrainType.PLAIN);
+            assertFalse(loaded.isMapped());
+            assertTrue(loaded.isWalkable(5, 7));
+            assertFalse(MapFile.load(file).isWalkable(5, 7));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsInvalidFile() throws IOException {
+        Path file = Files.createTempFile("grid", ".map");
+        try {
+            Files.write(file, new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20});
+            MapFile.load(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testRejectsTerrainOutOfRangeOrMismatchingWalkable() throws IOException {
+        Grid grid = new Grid(30, 20);
+        grid.setTerrain(3, 4, TerrainType.WALL);
+        Path file = Files.createTempFile("grid", ".map");
+        try {
+            MapFile.save(grid, file);
+            byte[] original = Files.readAllBytes(file);
+            int terrainOffset = sectionOffset(original, MapFile.SECTION_TERRAIN);
+            int walkableOffset = sectionOffset(original, MapFile.SECTION_WALKABLE);
+
+            // 地形序号越界，即使WALKABLE段完好也要拒绝
+            byte[] corrupt = original.clone();
+            corrupt[terrainOffset + 5] = 99;
+            assertLoadFails(file, corrupt);
+
+            // 墙所在格子的可通行位被置1
+            corrupt = original.clone();
+            int wall = 4 * 30 + 3;
+            corrupt[walkableOffset + wall / 8] |= (byte) (1 << (wall % 8));
+            assertLoadFails(file, corrupt);
+
+            // 墙的连通区域编号不是-1，或可通行格子的编号越界
+            int componentsOffset = sectionOffset(original, MapFile.SECTION_COMPONENTS);
+            corrupt = original.clone();
+            ByteBuffer.wrap(corrupt).order(ByteOrder.LITTLE_ENDIAN).putInt(componentsOffset + wall * 4, 0);
+            assertLoadFails(file, corrupt);
+            corrupt = original.clone();
+            ByteBuffer.wrap(corrupt).order(ByteOrder.LITTLE_ENDIAN).putInt(componentsOffset, 30 * 20);
+            assertLoadFails(file, corrupt);
+            corrupt = original.clone();
+            ByteBuffer.wrap(corrupt).order(ByteOrder.LITTLE_ENDIAN).putInt(componentsOffset, -1);
+            assertLoadFails(file, corrupt);
+
+            Files.write(file, original);
+            assertFalse(MapFile.load(file).isWalkable(3, 4));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static int sectionOffset(byte[] data, int tag) {
+        ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        int sectionCount = buffer.getInt(16);
+        for (int i = 0; i < sectionCount; i++) {
+            int entry = 20 + i * 20;
+            if (buffer.getInt(entry) == tag) {
+                return (int) buffer.getLong(entry + 4);
+            }
+        }
+        throw new AssertionError("missing section " + tag);
+    }
+
+    private static void assertLoadFails(Path file, byte[] data) throws IOException {
+        Files.write(file, data);
+        try {
+            MapFile.load(file);
+            fail("corrupt map loaded");
+        } catch (IOException expected) {
+            // 预期
+        }
+    }
+
+    @Test
+    public void testIncrementalComponentsMatchFloodFill() {
+        Grid grid = new Grid(40, 30);
+        Random random = new Random(7);
+        assertTrue(grid.isConnected(0, 0, 39, 29));
+        for (int i = 0; i < 3000; i++) {
+            int x = random.nextInt(40);
+            int y = random.nextInt(30);
+            grid.setTerrain(x, y, random.nextInt(3) == 0 ? TerrainType.PLAIN : TerrainType.WATER);
+            if (i % 100 == 0) {
+                assertComponentsMatch(grid);
+            }
+        }
+        assertComponentsMatch(grid);
+    }
+
+    @Test
+    public void testUnreachableIsland() throws IOException {
+        Grid grid = new Grid(30, 30);
+        // 水域围成的小岛
+        for (int i = 18; i <= 24; i++) {
+            grid.setTerrain(i, 18, TerrainType.WATER);
+            grid.setTerrain(i, 24, TerrainType.WATER);
+            grid.setTerrain(18, i, TerrainType.WATER);
+            grid.setTerrain(24, i, TerrainType.WATER);
+        }
+        assertFalse(grid.isConnected(2, 2, 21, 21));
+        assertEquals(25, grid.getComponentSize(grid.getComponent(21, 21)));
+
+        AStar astar = new AStar(grid);
+        Node start = new Node(Grid.gridToPixel(2), Grid.gridToPixel(2));
+        Node island = new Node(Grid.gridToPixel(21), Grid.gridToPixel(21));
+        assertNull(astar.findPath(start, island));
+
+        List<Node> path = astar.findPathToNearestReachable(start, island, 8);
+        assertNotNull(path);
+        Node last = path.get(path.size() - 1);
+        int lastX = Grid.pixelToGrid(last.getX());
+        int lastY = Grid.pixelToGrid(last.getY());
+        assertTrue(grid.isConnected(2, 2, lastX, lastY));
+        // 紧贴水域外侧，距离岛中心4格
+        assertEquals(16, (lastX - 21) * (lastX - 21) + (lastY - 21) * (lastY - 21));
+
+        // 打开缺口后重新连通
+        grid.setTerrain(24, 21, TerrainType.PLAIN);
+        assertTrue(grid.isConnected(2, 2, 21, 21));
+        assertNotNull(astar.findPath(start, island));
+
+        Path file = Files.createTempFile("grid", ".map");
+        try {
+            MapFile.save(grid, file);
+            Grid loaded = MapFile.load(file);
+            assertTrue(loaded.isConnected(2, 2, 21, 21));
+            loaded.setTerrain(24, 21, TerrainType.WALL);
+            assertFalse(loaded.isConnected(2, 2, 21, 21));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    // 用一次完整的泛洪验证增量维护的区域划分
+    private static void assertComponentsMatch(Grid grid) {
+        int width = grid.getWidth();
+        int[] expected = new int[grid.getCellCount()];
+        Arrays.fill(expected, -1);
+        int[] neighbors = new int[8];
+        int next = 0;
+        for (int cell = 0; cell < expected.length; cell++) {
+            if (expected[cell] != -1 || !grid.isWalkable(cell)) {
+                continue;
+            }
+            int component = grid.getComponent(cell % width, cell / width);
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            expected[cell] = next;
+            queue.add(cell);
+            int size = 0;
+            while (!queue.isEmpty()) {
+                int current = queue.poll();
+                size++;
+                assertEquals(component, grid.getComponent(current % width, current / width));
+                int count = grid.getNeighbors(current, neighbors);
+                for (int i = 0; i < count; i++) {
+                    if (expected[neighbors[i]] == -1) {
+                        expected[neighbors[i]] = next;
+                        queue.add(neighbors[i]);
+                    }
+                }
+            }
+            assertEquals(size, grid.getComponentSize(component));
+            next++;
+        }
+    }
+}